@@ -0,0 +1,103 @@
+package io.github.hapjava.server;
+
+import io.github.hapjava.server.impl.http.HapEndpoint;
+import java.net.SocketAddress;
+
+/**
+ * Receives measurements of a HomeKit root and its connections. Implement this to bridge into a
+ * monitoring system, or use {@link io.github.hapjava.server.impl.metrics.DefaultHomekitMetrics}
+ * which keeps them in memory. Connections are identified by the remote address of the controller.
+ *
+ * <p>All methods have empty defaults. They are called on the I/O and request handling threads, so
+ * implementations must be thread safe and must not block.
+ */
+public interface HomekitMetrics {
+
+  /** Metrics that discard all measurements. */
+  HomekitMetrics NONE = new HomekitMetrics() {};
+
+  default void connectionOpened(SocketAddress connection) {}
+
+  default void connectionClosed(SocketAddress connection) {}
+
+  /**
+   * A response has been produced for a request.
+   *
+   * @param connection the connection the request was received on
+   * @param endpoint the requested endpoint
+   * @param statusCode the status code of the response
+   * @param nanos time from receiving the request until the response was ready to be sent
+   */
+  default void requestHandled(
+      SocketAddress connection, HapEndpoint endpoint, int statusCode, long nanos) {}
+
+  /**
+   * Encrypted bytes received from a controller.
+   *
+   * @param connection the connection
+   * @param bytes number of bytes, including frame lengths and authentication tags
+   */
+  default void bytesReceived(SocketAddress connection, int bytes) {}
+
+  /**
+   * Encrypted bytes sent to a controller.
+   *
+   * @param connection the connection
+   * @param bytes number of bytes, including frame lengths and authentication tags
+   */
+  default void bytesSent(SocketAddress connection, int bytes) {}
+
+  /**
+   * Received data has been decrypted.
+   *
+   * @param connection the connection
+   * @param bytes number of encrypted bytes
+   * @param nanos time spent decrypting
+   */
+  default void decrypted(SocketAddress connection, int bytes, long nanos) {}
+
+  /**
+   * Data to send has been encrypted.
+   *
+   * @param connection the connection
+   * @param bytes number of plaintext bytes
+   * @param nanos time spent encrypting
+   */
+  default void encrypted(SocketAddress connection, int bytes, long nanos) {}
+
+  /**
+   * A characteristic changed and is sent, or queued to be sent, to its subscribers.
+   *
+   * @param aid the accessory id
+   * @param iid the characteristic id
+   * @param subscribers number of connections receiving the change
+   */
+  default void eventPublished(int aid, int iid, int subscribers) {}
+
+  /**
+   * Changes are queued for a connection, in an update batch or an aggregation window.
+   *
+   * @param connection the connection
+   * @param pending number of changes now waiting to be sent to the connection
+   */
+  default void notificationsPending(SocketAddress connection, int pending) {}
+
+  /**
+   * A pairing or pair verification request has been handled on a handshake thread.
+   *
+   * @param connection the connection
+   * @param endpoint {@link HapEndpoint#PAIR_SETUP} or {@link HapEndpoint#PAIR_VERIFY}
+   * @param queuedNanos time the request waited for a handshake thread
+   * @param nanos time spent handling the request
+   */
+  default void handshakeHandled(
+      SocketAddress connection, HapEndpoint endpoint, long queuedNanos, long nanos) {}
+
+  /**
+   * A pairing or pair verification request has been rejected, as all handshake threads were busy
+   * and the handshake queue was full.
+   *
+   * @param connection the connection
+   */
+  default void handshakeRejected(SocketAddress connection) {}
+}
@@ -4,7 +4,9 @@ import io.github.hapjava.accessories.HomekitAccessory;
 import io.github.hapjava.characteristics.Characteristic;
 import io.github.hapjava.services.Service;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,38 +16,144 @@ public class HomekitRegistry {
 
   private final String label;
   private final Map<Integer, HomekitAccessory> accessories;
-  private final Map<HomekitAccessory, List<Service>> services = new HashMap<>();
+  private final Executor executor;
+  // concurrent, as accessories may be added and removed while connections are being served
+  private final Map<HomekitAccessory, List<Service>> services = new ConcurrentHashMap<>();
   private final Map<HomekitAccessory, Map<Integer, Characteristic>> characteristics =
-      new HashMap<>();
+      new ConcurrentHashMap<>();
+  // the latest read of each accessory, whose results are kept. Guarded by this.
+  private final Map<Integer, Long> versions = new HashMap<>();
+  private long lastVersion = 0;
   private boolean isAllowUnauthenticatedRequests = false;
+  private volatile CompletableFuture<Void> ready = CompletableFuture.completedFuture(null);
 
   public HomekitRegistry(String label) {
+    this(label, Runnable::run);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param label the label of the root
+   * @param executor reads the services of the accessories on {@link #resetAsync()}, usually {@link
+   *     HomekitRuntime#getBackgroundExecutor()}
+   */
+  public HomekitRegistry(String label, Executor executor) {
     this.label = label;
+    this.executor = executor;
     this.accessories = new ConcurrentHashMap<>();
     reset();
   }
 
-  public synchronized void reset() {
-    characteristics.clear();
-    services.clear();
+  /**
+   * Reads the services and characteristics of all accessories again, on the calling thread. Until
+   * an accessory has been read, requests see its previous services.
+   */
+  public void reset() {
+    for (Materialization materialization : snapshot()) {
+      materialization.run();
+    }
+  }
+
+  /**
+   * Like {@link #reset()}, but reads the services of the accessories concurrently in the
+   * background, so that large bridges start serving sooner. Until the returned future completes,
+   * the registry may be incomplete, see {@link #whenReady()}.
+   *
+   * @return a future completing once all accessories have been read
+   */
+  public synchronized CompletableFuture<Void> resetAsync() {
+    ready =
+        CompletableFuture.allOf(
+            snapshot().stream()
+                .map(materialization -> CompletableFuture.runAsync(materialization, executor))
+                .toArray(CompletableFuture[]::new));
+    return ready;
+  }
+
+  /**
+   * Completes once the services of all accessories have been read after the last {@link
+   * #resetAsync()}. Requests depending on the accessories wait for this.
+   *
+   * @return the future, completed unless the registry is being read in the background
+   */
+  public CompletableFuture<Void> whenReady() {
+    return ready;
+  }
+
+  /**
+   * Reads the services and characteristics of a single accessory, leaving the other accessories
+   * untouched. The accessory is read on the calling thread, without holding the lock of the
+   * registry.
+   *
+   * @param accessory the accessory, which must have been {@link #add(HomekitAccessory) added}
+   */
+  public void reset(HomekitAccessory accessory) {
+    Materialization materialization;
+    synchronized (this) {
+      materialization = new Materialization(accessory, newVersion(accessory.getId()));
+    }
+    materialization.run();
+  }
+
+  /** Starts reading all accessories, discarding the results of reads still in progress. */
+  private synchronized List<Materialization> snapshot() {
+    List<Materialization> materializations = new ArrayList<>(accessories.size());
     for (HomekitAccessory accessory : accessories.values()) {
-      List<Service> newServices;
+      materializations.add(new Materialization(accessory, newVersion(accessory.getId())));
+    }
+    return materializations;
+  }
+
+  /** Invalidates the reads of an accessory in progress. Guarded by this. */
+  private long newVersion(int aid) {
+    long version = ++lastVersion;
+    versions.put(aid, version);
+    return version;
+  }
+
+  /**
+   * Reads the services of an accessory, without the lock, as accessories may take long, and stores
+   * them unless the accessory has been added, removed or read again meanwhile.
+   */
+  private class Materialization implements Runnable {
+
+    private final HomekitAccessory accessory;
+    private final long version;
+
+    Materialization(HomekitAccessory accessory, long version) {
+      this.accessory = accessory;
+      this.version = version;
+    }
+
+    @Override
+    public void run() {
+      List<Service> newServices = new ArrayList<>(2);
+      Map<Integer, Characteristic> newCharacteristics = new HashMap<>();
       try {
-        newServices = new ArrayList<>(2);
         newServices.addAll(accessory.getServices());
+        for (Service service : newServices) {
+          for (Characteristic characteristic : service.getCharacteristics()) {
+            newCharacteristics.put(characteristic.iid(), characteristic);
+          }
+        }
       } catch (Exception e) {
+        // served without services, so the other accessories are not affected
         logger.warn("Could not instantiate services for accessory " + accessory.getName(), e);
-        services.put(accessory, Collections.emptyList());
-        continue;
+        newServices = Collections.emptyList();
+        newCharacteristics = Collections.emptyMap();
       }
-      Map<Integer, Characteristic> newCharacteristics = new HashMap<>();
-      services.put(accessory, newServices);
-      for (Service service : newServices) {
-        for (Characteristic characteristic : service.getCharacteristics()) {
-          newCharacteristics.put(characteristic.iid(), characteristic);
+      synchronized (HomekitRegistry.this) {
+        Long current = versions.get(accessory.getId());
+        if (accessories.get(accessory.getId()) != accessory
+            || current == null
+            || current != version) {
+          logger.trace("Discarding outdated services of accessory {}", accessory.getId());
+          return;
         }
+        characteristics.put(accessory, newCharacteristics);
+        services.put(accessory, newServices);
       }
-      characteristics.put(accessory, newCharacteristics);
     }
   }
 
@@ -58,23 +166,40 @@ public class HomekitRegistry {
   }
 
   public List<Service> getServices(Integer aid) {
-    return Collections.unmodifiableList(services.get(accessories.get(aid)));
+    HomekitAccessory accessory = accessories.get(aid);
+    List<Service> services = accessory != null ? this.services.get(accessory) : null;
+    if (services == null) {
+      return Collections.emptyList();
+    }
+    return Collections.unmodifiableList(services);
   }
 
   public Map<Integer, Characteristic> getCharacteristics(Integer aid) {
-    Map<Integer, Characteristic> characteristics = this.characteristics.get(accessories.get(aid));
+    HomekitAccessory accessory = accessories.get(aid);
+    Map<Integer, Characteristic> characteristics =
+        accessory != null ? this.characteristics.get(accessory) : null;
     if (characteristics == null) {
       return Collections.emptyMap();
     }
     return Collections.unmodifiableMap(characteristics);
   }
 
-  public void add(HomekitAccessory accessory) {
-    accessories.put(accessory.getId(), accessory);
+  public synchronized void add(HomekitAccessory accessory) {
+    HomekitAccessory replaced = accessories.put(accessory.getId(), accessory);
+    newVersion(accessory.getId());
+    if (replaced != null && replaced != accessory) {
+      services.remove(replaced);
+      characteristics.remove(replaced);
+    }
   }
 
-  public void remove(HomekitAccessory accessory) {
-    accessories.remove(accessory.getId());
+  public synchronized void remove(HomekitAccessory accessory) {
+    HomekitAccessory removed = accessories.remove(accessory.getId());
+    versions.remove(accessory.getId());
+    if (removed != null) {
+      services.remove(removed);
+      characteristics.remove(removed);
+    }
   }
 
   public boolean isAllowUnauthenticatedRequests() {
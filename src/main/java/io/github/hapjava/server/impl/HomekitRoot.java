@@ -2,14 +2,23 @@ package io.github.hapjava.server.impl;
 
 import io.github.hapjava.accessories.Bridge;
 import io.github.hapjava.accessories.HomekitAccessory;
+import io.github.hapjava.characteristics.Characteristic;
 import io.github.hapjava.server.HomekitAuthInfo;
+import io.github.hapjava.server.HomekitMetrics;
 import io.github.hapjava.server.HomekitWebHandler;
 import io.github.hapjava.server.impl.connections.HomekitClientConnectionFactoryImpl;
 import io.github.hapjava.server.impl.connections.SubscriptionManager;
+import io.github.hapjava.server.impl.crypto.AeadProviders;
 import io.github.hapjava.server.impl.jmdns.JmdnsHomekitAdvertiser;
+import io.github.hapjava.server.impl.pairing.PairVerificationManager;
+import io.github.hapjava.server.impl.pairing.PairingManager;
 import io.github.hapjava.services.Service;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,14 +40,28 @@ public class HomekitRoot {
   private final HomekitAuthInfo authInfo;
   private final String label;
   private final HomekitRegistry registry;
-  private final SubscriptionManager subscriptions = new SubscriptionManager();
+  private final SubscriptionManager subscriptions;
+  private final HomekitRuntime runtime;
+  private final Executor backgroundExecutor;
   private boolean started = false;
-  private int configurationIndex = 1;
+  private boolean incrementalUpdates = false;
+  private volatile int configurationIndex = 1;
+  private HomekitMetrics metrics = HomekitMetrics.NONE;
+  private int parallelEncryptionThreshold = 0;
 
   HomekitRoot(
-      String label, HomekitWebHandler webHandler, InetAddress localhost, HomekitAuthInfo authInfo)
+      String label,
+      HomekitWebHandler webHandler,
+      CompletableFuture<InetAddress> localhost,
+      HomekitAuthInfo authInfo,
+      HomekitRuntime runtime)
       throws IOException {
-    this(label, webHandler, authInfo, new JmdnsHomekitAdvertiser(localhost));
+    this(
+        label,
+        webHandler,
+        authInfo,
+        new JmdnsHomekitAdvertiser(localhost, runtime.getBackgroundExecutor()),
+        runtime);
   }
 
   HomekitRoot(
@@ -47,18 +70,33 @@ public class HomekitRoot {
       HomekitAuthInfo authInfo,
       JmdnsHomekitAdvertiser advertiser)
       throws IOException {
+    this(label, webHandler, authInfo, advertiser, null);
+  }
+
+  HomekitRoot(
+      String label,
+      HomekitWebHandler webHandler,
+      HomekitAuthInfo authInfo,
+      JmdnsHomekitAdvertiser advertiser,
+      HomekitRuntime runtime)
+      throws IOException {
     this.advertiser = advertiser;
+    this.runtime = runtime;
+    // without a runtime, the background work runs on the calling thread
+    this.backgroundExecutor = runtime != null ? runtime.getBackgroundExecutor() : Runnable::run;
+    this.subscriptions = new SubscriptionManager(runtime != null ? runtime.getScheduler() : null);
     this.webHandler = webHandler;
     this.authInfo = authInfo;
     this.label = label;
-    this.registry = new HomekitRegistry(label);
+    this.registry = new HomekitRegistry(label, backgroundExecutor);
   }
 
   /**
    * Add an accessory to be handled and advertised by this root. Any existing HomeKit connections
-   * will be terminated to allow the clients to reconnect and see the updated accessory list. When
-   * using this for a bridge, the ID of the accessory must be greater than 1, as that ID is reserved
-   * for the Bridge itself.
+   * will be terminated to allow the clients to reconnect and see the updated accessory list, unless
+   * {@link #setIncrementalUpdates(boolean) incremental updates} are enabled. When using this for a
+   * bridge, the ID of the accessory must be greater than 1, as that ID is reserved for the Bridge
+   * itself.
    *
    * @param accessory to advertise and handle.
    */
@@ -77,27 +115,68 @@ public class HomekitRoot {
    * @param accessory to advertise and handle.
    */
   void addAccessorySkipRangeCheck(HomekitAccessory accessory) {
+    Collection<Characteristic> replaced =
+        new ArrayList<>(registry.getCharacteristics(accessory.getId()).values());
     this.registry.add(accessory);
-    logger.trace("Added accessory " + accessory.getName());
+    logger.trace("Added accessory {}", accessory.getName());
     if (started) {
-      registry.reset();
-      webHandler.resetConnections();
+      if (incrementalUpdates) {
+        subscriptions.removeAccessory(accessory.getId(), replaced);
+        registry.reset(accessory);
+        incrementConfigurationIndex();
+      } else {
+        registry.reset();
+        webHandler.resetConnections();
+      }
     }
   }
 
   /**
    * Removes an accessory from being handled or advertised by this root. Any existing HomeKit
    * connections will be terminated to allow the clients to reconnect and see the updated accessory
-   * list.
+   * list, unless {@link #setIncrementalUpdates(boolean) incremental updates} are enabled.
    *
    * @param accessory accessory to cease advertising and handling
    */
   public void removeAccessory(HomekitAccessory accessory) {
+    Collection<Characteristic> removed =
+        new ArrayList<>(registry.getCharacteristics(accessory.getId()).values());
     this.registry.remove(accessory);
-    logger.trace("Removed accessory " + accessory.getName());
+    logger.trace("Removed accessory {}", accessory.getName());
     if (started) {
-      registry.reset();
-      webHandler.resetConnections();
+      if (incrementalUpdates) {
+        subscriptions.removeAccessory(accessory.getId(), removed);
+        incrementConfigurationIndex();
+      } else {
+        registry.reset();
+        webHandler.resetConnections();
+      }
+    }
+  }
+
+  /**
+   * By default, adding or removing an accessory after {@link #start()} closes all connections, so
+   * the controllers reconnect and read the new accessory list. With incremental updates, the
+   * connections are kept, only subscriptions to removed accessories are dropped, and the
+   * configuration index is incremented. Controllers see the new index in the advertisement and
+   * fetch the accessory list again on their own schedule, without pairing again. This keeps changes
+   * cheap on large bridges. Use {@link #getConfigurationIndex()} to persist the incremented index.
+   *
+   * @param incrementalUpdates whether to update accessories without closing connections
+   */
+  public void setIncrementalUpdates(boolean incrementalUpdates) {
+    this.incrementalUpdates = incrementalUpdates;
+  }
+
+  private synchronized void incrementConfigurationIndex() {
+    // the index is a 16 bit value wrapping around to 1
+    int revision = configurationIndex >= 65535 ? 1 : configurationIndex + 1;
+    configurationIndex = revision;
+    // the advertiser re-registers in the background, collapsing bursts of changes
+    try {
+      advertiser.setConfigurationIndex(revision);
+    } catch (IOException e) {
+      logger.warn("Could not advertise configuration index " + revision, e);
     }
   }
 
@@ -106,25 +185,56 @@ public class HomekitRoot {
    * call this after you have used the {@link #addAccessory(HomekitAccessory)} method to add all the
    * initial accessories you plan on advertising, as any later additions will cause the HomeKit
    * clients to reconnect.
+   *
+   * <p>Binding the server, reading the services of the accessories and starting mDNS run
+   * concurrently, and this method returns without waiting for them. Requests arriving before the
+   * accessories have been read wait for them.
+   *
+   * @return a future completing once the server is bound and the accessories have been read, i.e.
+   *     the accessories are ready to be served. Advertising completes in the background.
    */
-  public void start() {
+  public CompletableFuture<Void> start() {
     started = true;
-    registry.reset();
-    webHandler
-        .start(
-            new HomekitClientConnectionFactoryImpl(authInfo, registry, subscriptions, advertiser))
-        .thenAccept(
-            port -> {
-              try {
-                refreshAuthInfo();
-                advertiser.advertise(label, authInfo.getMac(), port, configurationIndex);
-              } catch (Exception e) {
-                throw new RuntimeException(e);
-              }
-            });
-  }
-
-  /** Stops advertising and handling the HomeKit accessories. */
+    // selects the fastest encryption before the first controller pairs or connects
+    CompletableFuture.runAsync(AeadProviders::getDefault, backgroundExecutor);
+    // prepares the handshake expected next: controllers reconnecting, or a first pairing
+    CompletableFuture.runAsync(
+        () -> {
+          if (authInfo.hasUser()) {
+            PairVerificationManager.precompute();
+          } else {
+            PairingManager.precompute();
+          }
+        },
+        backgroundExecutor);
+    CompletableFuture<Void> registryReady = registry.resetAsync();
+    HomekitClientConnectionFactoryImpl connectionFactory =
+        new HomekitClientConnectionFactoryImpl(
+            authInfo, registry, subscriptions, advertiser, metrics);
+    if (runtime != null) {
+      connectionFactory.setParallelEncryption(parallelEncryptionThreshold, runtime.getCryptoPool());
+    }
+    CompletableFuture<Integer> bound = webHandler.start(connectionFactory);
+    // the advertiser registers the service in the background, but the auth info may block
+    bound.thenAcceptAsync(
+        port -> {
+          try {
+            refreshAuthInfo();
+            advertiser.advertise(label, authInfo.getMac(), port, configurationIndex);
+          } catch (Exception e) {
+            logger.warn("Could not advertise " + label, e);
+          }
+        },
+        backgroundExecutor);
+    return CompletableFuture.allOf(registryReady, bound);
+  }
+
+  /**
+   * Stops advertising and handling the HomeKit accessories. If the root was created by a {@link
+   * HomekitServer} that created its own runtime, this also shuts down the threads of that runtime,
+   * so the root cannot be started again. A shared {@link HomekitRuntime} keeps running until it is
+   * shut down.
+   */
   public void stop() {
     advertiser.stop();
     webHandler.stop();
@@ -156,7 +266,8 @@ public class HomekitRoot {
    * you're including in the bridge after your first call to {@link start()}, you should increment
    * this number. The behavior of the client if the configuration index were to decrement is
    * undefined, so this implementation will not manage the configuration index by automatically
-   * incrementing - preserving this state across invocations should be handled externally.
+   * incrementing, except for {@link #setIncrementalUpdates(boolean) incremental updates} -
+   * preserving this state across invocations should be handled externally.
    *
    * @param revision an integer, greater than or equal to one, indicating the revision of the
    *     accessory information
@@ -172,6 +283,58 @@ public class HomekitRoot {
     }
   }
 
+  /**
+   * Measures the requests, traffic, encryption and events of this root and its connections. Use
+   * {@link io.github.hapjava.server.impl.metrics.DefaultHomekitMetrics} to keep them in memory, or
+   * an own implementation to forward them to a monitoring system. Must be called before {@link
+   * #start()}.
+   *
+   * @param metrics the metrics to record to, or {@link HomekitMetrics#NONE}
+   */
+  public void setMetrics(HomekitMetrics metrics) {
+    this.metrics = metrics;
+    subscriptions.setMetrics(metrics);
+  }
+
+  /**
+   * By default, every characteristic change is sent to the subscribed controllers right away. With
+   * an aggregation window, changes are collected for the given time and sent to each controller as
+   * a single event message, which reduces the traffic when many characteristics change at once,
+   * e.g. by a scene. Events are delayed by up to the window.
+   *
+   * @param millis the window in milliseconds, or 0 to disable aggregation
+   */
+  public void setEventAggregationWindow(long millis) {
+    subscriptions.setEventAggregationWindow(millis);
+  }
+
+  /**
+   * By default, responses are encrypted on the I/O thread of the connection. The frames of a
+   * response can be encrypted independently, so with a threshold, responses of at least that length
+   * are split into ranges of frames that are encrypted concurrently by the I/O thread and the
+   * {@link HomekitRuntime#getCryptoPool() crypto pool} of the runtime. This shortens the time to
+   * send the accessory list of large bridges, which can be hundreds of KB, on machines with several
+   * cores. Must be called before {@link #start()}.
+   *
+   * @param bytes the length of responses to encrypt in parallel, e.g. 65536, or 0 to disable
+   */
+  public void setParallelEncryptionThreshold(int bytes) {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("threshold must not be negative");
+    }
+    this.parallelEncryptionThreshold = bytes;
+  }
+
+  /**
+   * The configuration index currently advertised, including increments by {@link
+   * #setIncrementalUpdates(boolean) incremental updates}.
+   *
+   * @return the configuration index
+   */
+  public int getConfigurationIndex() {
+    return configurationIndex;
+  }
+
   HomekitRegistry getRegistry() {
     return registry;
   }
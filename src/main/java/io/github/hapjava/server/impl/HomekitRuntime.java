@@ -0,0 +1,294 @@
+package io.github.hapjava.server.impl;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.DefaultEventExecutor;
+import io.netty.util.concurrent.DefaultEventExecutorGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.EventExecutorGroup;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The threads used to serve HomeKit connections: the event loops accepting and serving sockets, the
+ * executors running accessory code, and the timers. By default each {@link HomekitServer} creates
+ * its own runtime. When running many bridges or standalone accessories in one JVM, create a single
+ * runtime and pass it to each {@link HomekitServer#HomekitServer(java.net.InetAddress, int,
+ * HomekitRuntime) HomekitServer}, so the number of threads stays fixed as servers are added.
+ *
+ * <p>Accessory code runs on a fixed pool of threads by default. Accessories that block in {@code
+ * getValue()} or {@code setValue()} can instead {@link #setVirtualThreads(boolean) run on virtual
+ * threads} on Java 21 and later.
+ *
+ * <p>The cryptography of pairing and pair verification runs on a separate, bounded pool of
+ * handshake threads, so a burst of controllers (re)connecting does not delay requests of verified
+ * connections.
+ *
+ * <p>Large responses are encrypted in parallel on a crypto pool of this runtime, and slow setup
+ * work, like starting mDNS and reading the accessories, runs on a small background executor. The
+ * JVM-wide common fork-join pool is not used, so neither is delayed by unrelated tasks of the
+ * application.
+ *
+ * <p>A shared runtime is not shut down when the servers using it are stopped. Call {@link
+ * #shutdown()} once all of them are stopped.
+ */
+public class HomekitRuntime {
+
+  private static final Logger logger = LoggerFactory.getLogger(HomekitRuntime.class);
+
+  private final HomekitTransport transport;
+  private final EventLoopGroup bossGroup;
+  private final EventLoopGroup workerGroup;
+  private final EventExecutorGroup blockingExecutorGroup;
+  private final ThreadPoolExecutor handshakeExecutor;
+  private final ForkJoinPool cryptoPool;
+  private final ThreadPoolExecutor backgroundExecutor;
+  private volatile ThreadFactory virtualThreadFactory;
+
+  private static final int BACKGROUND_THREADS = 4;
+
+  /** The default number of pairings and pair verifications waiting for a handshake thread. */
+  public static final int DEFAULT_HANDSHAKE_QUEUE_LENGTH = 128;
+
+  /**
+   * Creates a runtime using the best available transport, one accepting thread, the netty default
+   * number of I/O threads and one request handling thread per available processor.
+   */
+  public HomekitRuntime() {
+    this(HomekitTransport.AUTO, 1, 0, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Constructor
+   *
+   * @param transport network transport to use, usually {@link HomekitTransport#AUTO}
+   * @param bossThreads number of threads accepting connections, or 0 for the netty default
+   * @param workerThreads number of threads handling socket I/O, or 0 for the netty default
+   * @param nThreads number of threads running accessory code
+   */
+  public HomekitRuntime(
+      HomekitTransport transport, int bossThreads, int workerThreads, int nThreads) {
+    this(
+        transport,
+        bossThreads,
+        workerThreads,
+        nThreads,
+        Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+        DEFAULT_HANDSHAKE_QUEUE_LENGTH);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param transport network transport to use, usually {@link HomekitTransport#AUTO}
+   * @param bossThreads number of threads accepting connections, or 0 for the netty default
+   * @param workerThreads number of threads handling socket I/O, or 0 for the netty default
+   * @param nThreads number of threads running accessory code
+   * @param handshakeThreads number of threads running pairing and pair verification, by default
+   *     half the available processors, so request handling keeps the others
+   * @param handshakeQueueLength number of pairings and pair verifications waiting for a handshake
+   *     thread, beyond which they are rejected with an error
+   */
+  public HomekitRuntime(
+      HomekitTransport transport,
+      int bossThreads,
+      int workerThreads,
+      int nThreads,
+      int handshakeThreads,
+      int handshakeQueueLength) {
+    if (handshakeThreads < 1 || handshakeQueueLength < 1) {
+      throw new IllegalArgumentException("handshake threads and queue length must be at least 1");
+    }
+    this.transport = transport.resolve();
+    logger.debug("Using {} transport for homekit runtime", this.transport);
+    this.bossGroup = this.transport.newEventLoopGroup(bossThreads);
+    this.workerGroup = this.transport.newEventLoopGroup(workerThreads);
+    this.blockingExecutorGroup = new DefaultEventExecutorGroup(nThreads);
+    this.handshakeExecutor =
+        new ThreadPoolExecutor(
+            handshakeThreads,
+            handshakeThreads,
+            60,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(handshakeQueueLength),
+            new DefaultThreadFactory("homekit-handshake", true));
+    // idle between reconnect bursts, so the threads need not stay around
+    handshakeExecutor.allowCoreThreadTimeOut(true);
+    // the I/O thread encrypting a response takes a share of it itself
+    this.cryptoPool =
+        new ForkJoinPool(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1),
+            newCryptoThreadFactory(),
+            null,
+            false);
+    this.backgroundExecutor =
+        new ThreadPoolExecutor(
+            BACKGROUND_THREADS,
+            BACKGROUND_THREADS,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new DefaultThreadFactory("homekit-background", true));
+    backgroundExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * The transport in use, resolved to one available on this platform.
+   *
+   * @return the transport, never {@link HomekitTransport#AUTO}
+   */
+  public HomekitTransport getTransport() {
+    return transport;
+  }
+
+  public EventLoopGroup getBossGroup() {
+    return bossGroup;
+  }
+
+  public EventLoopGroup getWorkerGroup() {
+    return workerGroup;
+  }
+
+  /**
+   * The executors running request handling and accessory code, off the I/O threads.
+   *
+   * @return the blocking executor group
+   */
+  public EventExecutorGroup getBlockingExecutorGroup() {
+    return blockingExecutorGroup;
+  }
+
+  /**
+   * The bounded executor running the cryptography of pairing and pair verification. It rejects
+   * tasks once its queue is full.
+   *
+   * @return the handshake executor
+   */
+  public ExecutorService getHandshakeExecutor() {
+    return handshakeExecutor;
+  }
+
+  /**
+   * The pool encrypting ranges of large responses in parallel, see {@link
+   * HomekitRoot#setParallelEncryptionThreshold(int)}. Its tasks never block.
+   *
+   * @return the crypto pool
+   */
+  public ForkJoinPool getCryptoPool() {
+    return cryptoPool;
+  }
+
+  /**
+   * The executor for setup work that may block for seconds, like starting mDNS, (re-)registering
+   * the service, resolving the local host and reading the services of the accessories.
+   *
+   * @return the background executor
+   */
+  public Executor getBackgroundExecutor() {
+    return backgroundExecutor;
+  }
+
+  /**
+   * Checks whether this JVM supports virtual threads (Java 21 and later).
+   *
+   * @return true if {@link #setVirtualThreads(boolean)} can be enabled
+   */
+  public static boolean isVirtualThreadsSupported() {
+    try {
+      Thread.class.getMethod("ofVirtual");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Runs the request handling of each connection on its own virtual thread instead of the shared
+   * blocking executors. Requests of a connection are still handled in order, but a blocking
+   * accessory only parks the virtual thread of that connection, so it cannot exhaust the pool and
+   * stall other controllers. Applies to connections accepted after the call.
+   *
+   * @param virtualThreads whether to use virtual threads
+   * @throws UnsupportedOperationException if enabled on a JVM without virtual threads
+   */
+  public void setVirtualThreads(boolean virtualThreads) {
+    virtualThreadFactory = virtualThreads ? createVirtualThreadFactory() : null;
+  }
+
+  /**
+   * The executor to run request handling of a new connection on. This is either the shared blocking
+   * executor group, or in virtual thread mode, a new executor backed by a virtual thread that is
+   * shut down when the channel closes.
+   *
+   * @param channel the new connection
+   * @return the executor for the request handlers of the connection
+   */
+  public EventExecutorGroup getConnectionExecutor(Channel channel) {
+    ThreadFactory factory = virtualThreadFactory;
+    if (factory == null) {
+      return blockingExecutorGroup;
+    }
+    EventExecutor executor = new DefaultEventExecutor(factory);
+    // the quiet period lets the inactive and removal events of the channel still run
+    channel
+        .closeFuture()
+        .addListener(future -> executor.shutdownGracefully(1, 5, TimeUnit.SECONDS));
+    return executor;
+  }
+
+  /**
+   * A scheduler for timers, backed by the I/O event loops. Scheduled tasks must not block.
+   *
+   * @return the scheduler
+   */
+  public ScheduledExecutorService getScheduler() {
+    return workerGroup;
+  }
+
+  private static ThreadFactory createVirtualThreadFactory() {
+    try {
+      // Thread.ofVirtual().name("homekit-virtual-", 0).factory(), without requiring Java 21
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder =
+          builderClass
+              .getMethod("name", String.class, long.class)
+              .invoke(builder, "homekit-virtual-", 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      throw new UnsupportedOperationException("Virtual threads require Java 21 or later", e);
+    }
+  }
+
+  private static ForkJoinPool.ForkJoinWorkerThreadFactory newCryptoThreadFactory() {
+    AtomicInteger threads = new AtomicInteger();
+    return pool -> {
+      ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+      thread.setName("homekit-crypto-" + threads.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /** Shuts down all threads of this runtime. Servers using it must be stopped first. */
+  public void shutdown() {
+    blockingExecutorGroup.shutdownGracefully();
+    handshakeExecutor.shutdown();
+    cryptoPool.shutdown();
+    backgroundExecutor.shutdown();
+    workerGroup.shutdownGracefully();
+    bossGroup.shutdownGracefully();
+  }
+}
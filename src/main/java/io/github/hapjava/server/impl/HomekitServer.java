@@ -3,11 +3,17 @@ package io.github.hapjava.server.impl;
 import io.github.hapjava.accessories.HomekitAccessory;
 import io.github.hapjava.server.HomekitAuthInfo;
 import io.github.hapjava.server.impl.http.impl.HomekitHttpServer;
+import io.github.hapjava.server.impl.http.impl.WireCapture;
 import io.github.hapjava.services.Service;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
 import java.security.InvalidAlgorithmParameterException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -28,7 +34,8 @@ import java.util.concurrent.ExecutionException;
 public class HomekitServer {
 
   private final HomekitHttpServer http;
-  private final InetAddress localAddress;
+  private final CompletableFuture<InetAddress> localAddress;
+  private final HomekitRuntime runtime;
 
   /**
    * Constructor. Contains an argument indicating the number of threads to use in the http server.
@@ -41,8 +48,66 @@ public class HomekitServer {
    * @throws IOException when the server cannot bind to the supplied port
    */
   public HomekitServer(InetAddress localAddress, int port, int nThreads) throws IOException {
+    this(localAddress, port, nThreads, HomekitTransport.AUTO, 1, 0);
+  }
+
+  /**
+   * Constructor. In addition to the number of threads used for request handling, allows selecting
+   * the network transport and the number of threads accepting (boss) and serving (worker)
+   * connections. Native transports reduce syscall overhead and wakeup latency on Linux, and fall
+   * back to NIO when they are not available.
+   *
+   * @param localAddress local address to bind to.
+   * @param port local port to bind to.
+   * @param nThreads number of threads to use in the http server
+   * @param transport network transport to use, usually {@link HomekitTransport#AUTO}
+   * @param bossThreads number of threads accepting connections, or 0 for the netty default
+   * @param workerThreads number of threads handling socket I/O, or 0 for the netty default
+   * @throws IOException when the server cannot bind to the supplied port
+   */
+  public HomekitServer(
+      InetAddress localAddress,
+      int port,
+      int nThreads,
+      HomekitTransport transport,
+      int bossThreads,
+      int workerThreads)
+      throws IOException {
+    this(
+        localAddress,
+        port,
+        new HomekitRuntime(transport, bossThreads, workerThreads, nThreads),
+        true);
+  }
+
+  /**
+   * Constructor. Serves connections on the threads of a runtime that may be shared with other
+   * servers. The runtime is not shut down when this server or its accessory is stopped.
+   *
+   * @param localAddress local address to bind to.
+   * @param port local port to bind to.
+   * @param runtime threads used to serve this server
+   * @throws IOException when the server cannot bind to the supplied port
+   */
+  public HomekitServer(InetAddress localAddress, int port, HomekitRuntime runtime)
+      throws IOException {
+    this(localAddress, port, runtime, false);
+  }
+
+  private HomekitServer(
+      InetAddress localAddress, int port, HomekitRuntime runtime, boolean ownsRuntime) {
+    this(CompletableFuture.completedFuture(localAddress), port, runtime, ownsRuntime);
+  }
+
+  private HomekitServer(
+      CompletableFuture<InetAddress> localAddress,
+      int port,
+      HomekitRuntime runtime,
+      boolean ownsRuntime) {
     this.localAddress = localAddress;
-    http = new HomekitHttpServer(localAddress, port, nThreads);
+    this.runtime = runtime;
+    // the runtime created by this server stops with the root, which stops the http server
+    http = new HomekitHttpServer(localAddress, port, runtime, ownsRuntime);
   }
 
   /**
@@ -57,20 +122,117 @@ public class HomekitServer {
   }
 
   /**
-   * Constructor
+   * Constructor. Binds to the address of the local host name, which is resolved in the background,
+   * as the lookup may block on DNS for seconds. If it cannot be resolved, starting the accessories
+   * fails.
    *
    * @param port local port to bind to.
    * @throws IOException when the server cannot bind to the supplied port
    */
   public HomekitServer(int port) throws IOException {
-    this(InetAddress.getLocalHost(), port);
+    this(
+        new HomekitRuntime(HomekitTransport.AUTO, 1, 0, Runtime.getRuntime().availableProcessors()),
+        port);
+  }
+
+  private HomekitServer(HomekitRuntime runtime, int port) {
+    this(resolveLocalHost(runtime), port, runtime, true);
   }
 
-  /** Stops the service, closing down existing connections and preventing new ones. */
+  private static CompletableFuture<InetAddress> resolveLocalHost(HomekitRuntime runtime) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return InetAddress.getLocalHost();
+          } catch (UnknownHostException e) {
+            throw new CompletionException(e);
+          }
+        },
+        runtime.getBackgroundExecutor());
+  }
+
+  /**
+   * Stops the service, closing down existing connections and preventing new ones. Unless the server
+   * was created with a shared {@link HomekitRuntime}, this also releases its threads, as does
+   * stopping the accessory served by it.
+   */
   public void stop() {
     http.stop();
   }
 
+  /**
+   * Closes connections of controllers that have gone away without closing them, e.g. phones that
+   * left the network, so their subscriptions no longer receive events. HomeKit controllers keep
+   * their connection open without sending requests while they only listen for events, so a read
+   * timeout should be generous. Must be called before the accessories are started.
+   *
+   * @param readTimeout seconds without a request after which a connection is closed, or 0 to
+   *     disable
+   * @param idleTimeout seconds without any traffic in either direction after which a connection is
+   *     closed, or 0 to disable
+   */
+  public void setTimeouts(int readTimeout, int idleTimeout) {
+    http.setTimeouts(readTimeout, idleTimeout);
+  }
+
+  /**
+   * Limits the number of open connections to this server. Further connections are closed right
+   * after they are accepted. Must be called before the accessories are started.
+   *
+   * @param maxConnections maximum number of open connections, or 0 for no limit
+   */
+  public void setMaxConnections(int maxConnections) {
+    http.setMaxConnections(maxConnections);
+  }
+
+  /**
+   * Accepts connections on several listening sockets sharing the port with SO_REUSEPORT, so that
+   * the reconnects of many controllers after a network outage are accepted on several threads.
+   * Requires the epoll or io_uring transport and a runtime with at least as many boss threads as
+   * listeners; otherwise a single listener is used. Must be called before the accessories are
+   * started.
+   *
+   * @param listeners number of listening sockets, 1 by default
+   * @param backlog length of the accept queue of each listening socket, 128 by default
+   */
+  public void setListeners(int listeners, int backlog) {
+    http.setListeners(listeners, backlog);
+  }
+
+  /**
+   * Enables or disables diagnostics on all open and new connections, at runtime. Diagnostics keep
+   * the last decrypted requests and responses of each connection for {@link #getWireCaptures()},
+   * and log them if trace logging is enabled for {@code
+   * io.github.hapjava.server.impl.http.impl.LoggingHandler}. Connections without diagnostics have
+   * no logging overhead.
+   *
+   * @param enabled whether to enable diagnostics
+   */
+  public void setDiagnostics(boolean enabled) {
+    http.setDiagnostics(enabled);
+  }
+
+  /**
+   * Enables or disables diagnostics on a single open connection.
+   *
+   * @param connection the remote address of the controller connection
+   * @param enabled whether to enable diagnostics
+   * @return false if there is no open connection from the address
+   */
+  public boolean setDiagnostics(SocketAddress connection, boolean enabled) {
+    return http.setDiagnostics(connection, enabled);
+  }
+
+  /**
+   * The last decrypted messages of the connections that had diagnostics enabled most recently,
+   * including connections that have been closed since.
+   *
+   * @return the captures by the remote address of the connection
+   */
+  public Map<SocketAddress, WireCapture> getWireCaptures() {
+    return http.getWireCaptures();
+  }
+
   /**
    * Creates a single (non-bridge) accessory
    *
@@ -85,7 +247,7 @@ public class HomekitServer {
   public HomekitStandaloneAccessoryServer createStandaloneAccessory(
       HomekitAuthInfo authInfo, HomekitAccessory accessory)
       throws IOException, ExecutionException, InterruptedException {
-    return new HomekitStandaloneAccessoryServer(accessory, http, localAddress, authInfo);
+    return new HomekitStandaloneAccessoryServer(accessory, http, localAddress, authInfo, runtime);
   }
 
   /**
@@ -103,7 +265,7 @@ public class HomekitServer {
    */
   public HomekitRoot createBridge(HomekitAuthInfo authInfo, String label, Service info)
       throws IOException {
-    HomekitRoot root = new HomekitRoot(label, http, localAddress, authInfo);
+    HomekitRoot root = new HomekitRoot(label, http, localAddress, authInfo, runtime);
     root.addAccessory(new HomekitBridge(label, info));
     return root;
   }
@@ -2,10 +2,12 @@ package io.github.hapjava.server.impl;
 
 import io.github.hapjava.accessories.HomekitAccessory;
 import io.github.hapjava.server.HomekitAuthInfo;
+import io.github.hapjava.server.HomekitMetrics;
 import io.github.hapjava.server.HomekitWebHandler;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -23,15 +25,52 @@ public class HomekitStandaloneAccessoryServer {
   HomekitStandaloneAccessoryServer(
       HomekitAccessory accessory,
       HomekitWebHandler webHandler,
-      InetAddress localhost,
-      HomekitAuthInfo authInfo)
+      CompletableFuture<InetAddress> localhost,
+      HomekitAuthInfo authInfo,
+      HomekitRuntime runtime)
       throws UnknownHostException, IOException, ExecutionException, InterruptedException {
-    root = new HomekitRoot(accessory.getName(), webHandler, localhost, authInfo);
+    root = new HomekitRoot(accessory.getName(), webHandler, localhost, authInfo, runtime);
     root.addAccessory(accessory);
   }
 
-  /** Begins advertising and handling requests for this accessory. */
-  public void start() {
-    root.start();
+  /**
+   * Begins advertising and handling requests for this accessory.
+   *
+   * @return a future completing once the accessory is ready to be served
+   * @see HomekitRoot#start()
+   */
+  public CompletableFuture<Void> start() {
+    return root.start();
+  }
+
+  /**
+   * Measures the requests, traffic, encryption and events of this accessory. Must be called before
+   * {@link #start()}.
+   *
+   * @param metrics the metrics to record to
+   * @see HomekitRoot#setMetrics(HomekitMetrics)
+   */
+  public void setMetrics(HomekitMetrics metrics) {
+    root.setMetrics(metrics);
+  }
+
+  /**
+   * Sets the window in which characteristic changes are aggregated into a single event.
+   *
+   * @param millis the window in milliseconds, or 0 to disable aggregation
+   * @see HomekitRoot#setEventAggregationWindow(long)
+   */
+  public void setEventAggregationWindow(long millis) {
+    root.setEventAggregationWindow(millis);
+  }
+
+  /**
+   * Sets the length of responses to encrypt on several threads of the runtime.
+   *
+   * @param bytes the length of responses to encrypt in parallel, or 0 to disable
+   * @see HomekitRoot#setParallelEncryptionThreshold(int)
+   */
+  public void setParallelEncryptionThreshold(int bytes) {
+    root.setParallelEncryptionThreshold(bytes);
   }
 }
@@ -0,0 +1,160 @@
+package io.github.hapjava.server.impl;
+
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import java.lang.reflect.Method;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The network transport used by the HomeKit http server. The native transports are only available
+ * on Linux, and only when the matching netty native artifact (netty-transport-native-epoll or
+ * netty-incubator-transport-native-io_uring) is on the classpath. They are loaded reflectively, so
+ * hap-java does not depend on them.
+ *
+ * <p>Use {@link #AUTO} to pick the best transport available at runtime, falling back to {@link
+ * #NIO} otherwise.
+ */
+public enum HomekitTransport {
+
+  /** Use io_uring if available, then epoll, then NIO. */
+  AUTO(null, null, null, null),
+
+  /** The JDK based selector transport. Always available. */
+  NIO(null, null, null, null),
+
+  /** The Linux epoll transport. */
+  EPOLL(
+      "io.netty.channel.epoll.Epoll",
+      "io.netty.channel.epoll.EpollEventLoopGroup",
+      "io.netty.channel.epoll.EpollServerSocketChannel",
+      "io.netty.channel.epoll.EpollChannelOption"),
+
+  /** The Linux io_uring transport (netty incubator). */
+  IO_URING(
+      "io.netty.incubator.channel.uring.IOUring",
+      "io.netty.incubator.channel.uring.IOUringEventLoopGroup",
+      "io.netty.incubator.channel.uring.IOUringServerSocketChannel",
+      "io.netty.incubator.channel.uring.IOUringChannelOption");
+
+  private static final Logger logger = LoggerFactory.getLogger(HomekitTransport.class);
+
+  private final String availabilityClass;
+  private final String eventLoopGroupClass;
+  private final String serverChannelClass;
+  private final String channelOptionClass;
+
+  HomekitTransport(
+      String availabilityClass,
+      String eventLoopGroupClass,
+      String serverChannelClass,
+      String channelOptionClass) {
+    this.availabilityClass = availabilityClass;
+    this.eventLoopGroupClass = eventLoopGroupClass;
+    this.serverChannelClass = serverChannelClass;
+    this.channelOptionClass = channelOptionClass;
+  }
+
+  /**
+   * Checks whether this transport can be used on the current platform.
+   *
+   * @return true if the transport classes and its native library could be loaded
+   */
+  public boolean isAvailable() {
+    switch (this) {
+      case AUTO:
+      case NIO:
+        return true;
+
+      default:
+        try {
+          Method method = Class.forName(availabilityClass).getMethod("isAvailable");
+          return (Boolean) method.invoke(null);
+        } catch (Throwable e) {
+          return false;
+        }
+    }
+  }
+
+  /**
+   * Resolves this transport to one that is available on the current platform. {@link #AUTO} picks
+   * the best available native transport, and an unavailable native transport falls back to {@link
+   * #NIO}.
+   *
+   * @return the transport to use, never {@link #AUTO}
+   */
+  public HomekitTransport resolve() {
+    if (this == AUTO) {
+      if (IO_URING.isAvailable()) {
+        return IO_URING;
+      }
+      if (EPOLL.isAvailable()) {
+        return EPOLL;
+      }
+      return NIO;
+    }
+    if (!isAvailable()) {
+      logger.warn("Transport {} is not available, falling back to NIO", this);
+      return NIO;
+    }
+    return this;
+  }
+
+  /**
+   * Creates an event loop group for this transport. Must be called on a {@link #resolve() resolved}
+   * transport.
+   *
+   * @param nThreads number of event loop threads, or 0 to use the netty default
+   * @return the new event loop group
+   */
+  public EventLoopGroup newEventLoopGroup(int nThreads) {
+    if (this == NIO || this == AUTO) {
+      return new NioEventLoopGroup(nThreads);
+    }
+    try {
+      return (EventLoopGroup)
+          Class.forName(eventLoopGroupClass).getConstructor(int.class).newInstance(nThreads);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Could not create event loop group for " + this, e);
+    }
+  }
+
+  /**
+   * The server channel class matching the event loop groups of this transport.
+   *
+   * @return the server socket channel class
+   */
+  @SuppressWarnings("unchecked")
+  public Class<? extends ServerChannel> getServerChannelClass() {
+    if (this == NIO || this == AUTO) {
+      return NioServerSocketChannel.class;
+    }
+    try {
+      return (Class<? extends ServerChannel>) Class.forName(serverChannelClass);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException("Could not load server channel for " + this, e);
+    }
+  }
+
+  /**
+   * The SO_REUSEPORT option of this transport, which lets several sockets listen on the same port,
+   * with the kernel spreading new connections across them. Only the native transports support it.
+   *
+   * @return the option, or null if this transport does not support it
+   */
+  @SuppressWarnings("unchecked")
+  public ChannelOption<Boolean> getReusePortOption() {
+    if (channelOptionClass == null) {
+      return null;
+    }
+    try {
+      return (ChannelOption<Boolean>)
+          Class.forName(channelOptionClass).getField("SO_REUSEPORT").get(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+}
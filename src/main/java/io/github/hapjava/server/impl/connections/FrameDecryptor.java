@@ -0,0 +1,55 @@
+package io.github.hapjava.server.impl.connections;
+
+import io.github.hapjava.server.impl.crypto.HapSessionCipher;
+import io.netty.buffer.ByteBuf;
+import java.io.IOException;
+
+/**
+ * Decrypts the frames of a session in place, so the plaintext of each frame is a slice of the
+ * buffer it was received in. Buffers without a backing array, e.g. direct buffers, are decrypted
+ * through a scratch frame and the plaintext is written back. Not thread safe.
+ */
+class FrameDecryptor {
+
+  private final HapSessionCipher cipher;
+  private byte[] scratch;
+
+  /**
+   * Creates the decryptor of a session.
+   *
+   * @param key the 32 byte read key of the session
+   */
+  FrameDecryptor(byte[] key) {
+    this.cipher = new HapSessionCipher(key, false);
+  }
+
+  /**
+   * Verifies and decrypts a complete frame.
+   *
+   * @param frame the readable length prefix, ciphertext and tag of the frame
+   * @return the plaintext, a slice of the frame that shares its reference count
+   * @throws IOException if the frame is invalid or its tag does not match
+   */
+  ByteBuf decrypt(ByteBuf frame) throws IOException {
+    int index = frame.readerIndex();
+    int length = frame.getUnsignedShortLE(index);
+    if (frame.readableBytes()
+        != HapSessionCipher.LENGTH_PREFIX + length + HapSessionCipher.TAG_LENGTH) {
+      throw new IOException("Frame of length " + length + " is incomplete");
+    }
+    int ciphertextIndex = index + HapSessionCipher.LENGTH_PREFIX;
+    if (frame.hasArray()) {
+      byte[] array = frame.array();
+      int offset = frame.arrayOffset() + ciphertextIndex;
+      cipher.decrypt(array, offset, length, array, offset);
+    } else {
+      if (scratch == null) {
+        scratch = new byte[HapSessionCipher.MAX_FRAME_LENGTH + HapSessionCipher.TAG_LENGTH];
+      }
+      frame.getBytes(ciphertextIndex, scratch, 0, length + HapSessionCipher.TAG_LENGTH);
+      cipher.decrypt(scratch, 0, length, scratch, 0);
+      frame.setBytes(ciphertextIndex, scratch, 0, length);
+    }
+    return frame.slice(ciphertextIndex, length);
+  }
+}
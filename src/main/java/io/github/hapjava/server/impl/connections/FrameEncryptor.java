@@ -0,0 +1,230 @@
+package io.github.hapjava.server.impl.connections;
+
+import io.github.hapjava.server.impl.crypto.AeadProvider;
+import io.github.hapjava.server.impl.crypto.AeadProviders;
+import io.github.hapjava.server.impl.crypto.HapSessionCipher;
+import io.netty.buffer.ByteBuf;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Encrypts the responses of a session into frames, from the response buffer straight into the
+ * outbound buffer. The nonce of each frame is the counter of the first frame of the response plus
+ * the index of the frame, so responses of at least the parallel threshold are split into ranges of
+ * frames that are encrypted concurrently by the calling thread and a dedicated crypto pool, each
+ * with its own cipher, and written to their place in the outbound buffer. Smaller responses are
+ * encrypted on the calling thread. Not thread safe.
+ */
+class FrameEncryptor {
+
+  private static final int FRAME_OVERHEAD =
+      HapSessionCipher.LENGTH_PREFIX + HapSessionCipher.TAG_LENGTH;
+  // with fewer frames, handing a range to another thread costs more than encrypting it
+  private static final int MIN_FRAMES_PER_TASK = 16;
+
+  private final AeadProvider provider;
+  private final byte[] key;
+  private final int parallelThreshold;
+  private final ForkJoinPool pool;
+  private final Worker worker;
+  private Worker[] parallelWorkers;
+
+  /**
+   * Creates the encryptor of a session.
+   *
+   * @param key the 32 byte write key of the session
+   * @param parallelThreshold the length of responses to encrypt in parallel, or 0 to encrypt all
+   *     responses on the calling thread
+   * @param pool the pool encrypting ranges of large responses, or null to encrypt all responses on
+   *     the calling thread
+   */
+  FrameEncryptor(byte[] key, int parallelThreshold, ForkJoinPool pool) {
+    this(AeadProviders.getDefault(), key, parallelThreshold, pool);
+  }
+
+  FrameEncryptor(AeadProvider provider, byte[] key, int parallelThreshold, ForkJoinPool pool) {
+    this.provider = provider;
+    this.key = key.clone();
+    this.parallelThreshold = parallelThreshold;
+    this.pool = pool;
+    this.worker = new Worker(new HapSessionCipher(provider, key, true));
+  }
+
+  /**
+   * Encrypts the readable bytes of the plaintext into frames, written to the end of the output.
+   *
+   * @param plaintext the response, which is read completely
+   * @param out receives the frames
+   */
+  void encrypt(ByteBuf plaintext, ByteBuf out) {
+    if (out.nioBufferCount() != 1) {
+      throw new IllegalArgumentException("The output must not be a composite buffer");
+    }
+    int length = plaintext.readableBytes();
+    int frames =
+        (length + HapSessionCipher.MAX_FRAME_LENGTH - 1) / HapSessionCipher.MAX_FRAME_LENGTH;
+    int encryptedLength = length + frames * FRAME_OVERHEAD;
+    out.ensureWritable(encryptedLength);
+    int inIndex = plaintext.readerIndex();
+    int outIndex = out.writerIndex();
+    int tasks =
+        pool != null && parallelThreshold > 0 && length >= parallelThreshold
+            ? Math.min(pool.getParallelism() + 1, frames / MIN_FRAMES_PER_TASK)
+            : 1;
+    if (tasks < 2) {
+      worker.encrypt(
+          plaintext.nioBuffer(inIndex, length), out.nioBuffer(outIndex, encryptedLength));
+    } else {
+      encryptInParallel(plaintext, inIndex, length, frames, tasks, out, outIndex);
+    }
+    plaintext.skipBytes(length);
+    out.writerIndex(outIndex + encryptedLength);
+  }
+
+  private void encryptInParallel(
+      ByteBuf plaintext,
+      int inIndex,
+      int length,
+      int frames,
+      int tasks,
+      ByteBuf out,
+      int outIndex) {
+    if (parallelWorkers == null || parallelWorkers.length < tasks) {
+      parallelWorkers = new Worker[tasks];
+      for (int i = 0; i < tasks; i++) {
+        parallelWorkers[i] = new Worker(new HapSessionCipher(provider, key, true));
+      }
+    }
+    long firstCounter = worker.cipher.skip(frames);
+    int framesPerTask = (frames + tasks - 1) / tasks;
+    List<Runnable> ranges = new ArrayList<>(tasks);
+    for (int i = 0; i < tasks; i++) {
+      int firstFrame = i * framesPerTask;
+      int offset = firstFrame * HapSessionCipher.MAX_FRAME_LENGTH;
+      if (offset >= length) {
+        break;
+      }
+      int rangeLength =
+          Math.min(length - offset, framesPerTask * HapSessionCipher.MAX_FRAME_LENGTH);
+      int rangeFrames =
+          (rangeLength + HapSessionCipher.MAX_FRAME_LENGTH - 1) / HapSessionCipher.MAX_FRAME_LENGTH;
+      // the views are taken here, as the buffers themselves must not be shared between threads
+      ByteBuffer in = plaintext.nioBuffer(inIndex + offset, rangeLength);
+      ByteBuffer encrypted =
+          out.nioBuffer(
+              outIndex + offset + firstFrame * FRAME_OVERHEAD,
+              rangeLength + rangeFrames * FRAME_OVERHEAD);
+      Worker rangeWorker = parallelWorkers[i];
+      rangeWorker.cipher.setCounter(firstCounter + firstFrame);
+      ranges.add(() -> rangeWorker.encrypt(in, encrypted));
+    }
+    new ParallelRanges(ranges).run(pool);
+  }
+
+  /**
+   * Ranges claimed in turn by the pool threads and the calling thread. The calling thread, usually
+   * an I/O thread, runs every range that no pool thread has started yet, so it only waits for
+   * ranges in progress, never for a busy pool.
+   */
+  private static class ParallelRanges implements Runnable {
+
+    private final List<Runnable> ranges;
+    private final AtomicInteger next = new AtomicInteger();
+    private final CountDownLatch done;
+    private volatile RuntimeException failure;
+
+    ParallelRanges(List<Runnable> ranges) {
+      this.ranges = ranges;
+      this.done = new CountDownLatch(ranges.size());
+    }
+
+    void run(ForkJoinPool pool) {
+      try {
+        for (int i = 1; i < ranges.size(); i++) {
+          pool.execute(this);
+        }
+      } catch (RejectedExecutionException e) {
+        // the pool is shut down, the calling thread encrypts the remaining ranges
+      }
+      run();
+      // the ranges write into the output, which must not be released before they are done
+      boolean interrupted = false;
+      while (done.getCount() > 0) {
+        try {
+          done.await();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+
+    @Override
+    public void run() {
+      int range;
+      while ((range = next.getAndIncrement()) < ranges.size()) {
+        try {
+          ranges.get(range).run();
+        } catch (RuntimeException e) {
+          failure = e;
+        } finally {
+          done.countDown();
+        }
+      }
+    }
+  }
+
+  /** A cipher and its scratch frames, for buffers without a backing array. */
+  private static class Worker {
+
+    final HapSessionCipher cipher;
+    private byte[] plaintextFrame;
+    private byte[] ciphertextFrame;
+
+    Worker(HapSessionCipher cipher) {
+      this.cipher = cipher;
+    }
+
+    /** Encrypts all remaining bytes of the plaintext into the frames. */
+    void encrypt(ByteBuffer plaintext, ByteBuffer frames) {
+      while (plaintext.hasRemaining()) {
+        int length = Math.min(plaintext.remaining(), HapSessionCipher.MAX_FRAME_LENGTH);
+        byte[] in;
+        int inOff;
+        if (plaintext.hasArray()) {
+          in = plaintext.array();
+          inOff = plaintext.arrayOffset() + plaintext.position();
+          plaintext.position(plaintext.position() + length);
+        } else {
+          if (plaintextFrame == null) {
+            plaintextFrame = new byte[HapSessionCipher.MAX_FRAME_LENGTH];
+          }
+          plaintext.get(plaintextFrame, 0, length);
+          in = plaintextFrame;
+          inOff = 0;
+        }
+        if (frames.hasArray()) {
+          int written =
+              cipher.encrypt(
+                  in, inOff, length, frames.array(), frames.arrayOffset() + frames.position());
+          frames.position(frames.position() + written);
+        } else {
+          if (ciphertextFrame == null) {
+            ciphertextFrame = new byte[HapSessionCipher.MAX_FRAME_LENGTH + FRAME_OVERHEAD];
+          }
+          frames.put(ciphertextFrame, 0, cipher.encrypt(in, inOff, length, ciphertextFrame, 0));
+        }
+      }
+    }
+  }
+}
@@ -1,11 +1,15 @@
 package io.github.hapjava.server.impl.connections;
 
 import io.github.hapjava.server.HomekitAuthInfo;
+import io.github.hapjava.server.HomekitMetrics;
 import io.github.hapjava.server.impl.HomekitRegistry;
 import io.github.hapjava.server.impl.http.HomekitClientConnection;
 import io.github.hapjava.server.impl.http.HomekitClientConnectionFactory;
 import io.github.hapjava.server.impl.http.HttpResponse;
 import io.github.hapjava.server.impl.jmdns.JmdnsHomekitAdvertiser;
+import io.github.hapjava.server.impl.pairing.PairResumeCache;
+import java.net.SocketAddress;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 
 public class HomekitClientConnectionFactoryImpl implements HomekitClientConnectionFactory {
@@ -14,21 +18,67 @@ public class HomekitClientConnectionFactoryImpl implements HomekitClientConnecti
   private final HomekitRegistry registry;
   private final SubscriptionManager subscriptions;
   private final JmdnsHomekitAdvertiser advertiser;
+  private final HomekitMetrics metrics;
+  // shared by all connections, as controllers resume sessions on new connections
+  private final PairResumeCache resumeCache = new PairResumeCache();
+  private volatile int parallelEncryptionThreshold = 0;
+  private volatile ForkJoinPool cryptoPool;
 
   public HomekitClientConnectionFactoryImpl(
       HomekitAuthInfo authInfo,
       HomekitRegistry registry,
       SubscriptionManager subscriptions,
       JmdnsHomekitAdvertiser advertiser) {
+    this(authInfo, registry, subscriptions, advertiser, HomekitMetrics.NONE);
+  }
+
+  public HomekitClientConnectionFactoryImpl(
+      HomekitAuthInfo authInfo,
+      HomekitRegistry registry,
+      SubscriptionManager subscriptions,
+      JmdnsHomekitAdvertiser advertiser,
+      HomekitMetrics metrics) {
     this.registry = registry;
     this.authInfo = authInfo;
     this.subscriptions = subscriptions;
     this.advertiser = advertiser;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Encrypts responses of at least the given length on the I/O thread and several threads of a
+   * crypto pool. Applies to connections created after the call.
+   *
+   * @param bytes the length of responses to encrypt in parallel, or 0 to disable
+   * @param cryptoPool the pool sharing the encryption, usually {@link
+   *     io.github.hapjava.server.impl.HomekitRuntime#getCryptoPool()}
+   */
+  public void setParallelEncryption(int bytes, ForkJoinPool cryptoPool) {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("threshold must not be negative");
+    }
+    this.parallelEncryptionThreshold = bytes;
+    this.cryptoPool = cryptoPool;
   }
 
   @Override
-  public HomekitClientConnection createConnection(Consumer<HttpResponse> outOfBandMessageCallback) {
+  public HomekitClientConnection createConnection(
+      SocketAddress remoteAddress, Consumer<HttpResponse> outOfBandMessageCallback) {
     return new ConnectionImpl(
-        authInfo, registry, outOfBandMessageCallback, subscriptions, advertiser);
+        authInfo,
+        registry,
+        outOfBandMessageCallback,
+        subscriptions,
+        advertiser,
+        remoteAddress,
+        metrics,
+        parallelEncryptionThreshold,
+        cryptoPool,
+        resumeCache);
+  }
+
+  @Override
+  public HomekitMetrics getMetrics() {
+    return metrics;
   }
 }
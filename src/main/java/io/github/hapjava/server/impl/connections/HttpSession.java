@@ -1,14 +1,18 @@
 package io.github.hapjava.server.impl.connections;
 
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
 import io.github.hapjava.accessories.HomekitAccessory;
 import io.github.hapjava.server.HomekitAuthInfo;
 import io.github.hapjava.server.impl.HomekitRegistry;
 import io.github.hapjava.server.impl.http.HomekitClientConnection;
+import io.github.hapjava.server.impl.http.HttpMethod;
 import io.github.hapjava.server.impl.http.HttpRequest;
 import io.github.hapjava.server.impl.http.HttpResponse;
 import io.github.hapjava.server.impl.jmdns.JmdnsHomekitAdvertiser;
 import io.github.hapjava.server.impl.json.AccessoryController;
 import io.github.hapjava.server.impl.json.CharacteristicsController;
+import io.github.hapjava.server.impl.pairing.PairResumeCache;
 import io.github.hapjava.server.impl.pairing.PairVerificationManager;
 import io.github.hapjava.server.impl.pairing.PairingManager;
 import io.github.hapjava.server.impl.pairing.PairingUpdateController;
@@ -16,6 +20,8 @@ import io.github.hapjava.server.impl.responses.InternalServerErrorResponse;
 import io.github.hapjava.server.impl.responses.NotFoundResponse;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,6 +37,7 @@ class HttpSession {
   private final SubscriptionManager subscriptions;
   private final HomekitClientConnection connection;
   private final JmdnsHomekitAdvertiser advertiser;
+  private final PairResumeCache resumeCache;
 
   private static final Logger logger = LoggerFactory.getLogger(HttpSession.class);
 
@@ -39,63 +46,94 @@ class HttpSession {
       HomekitRegistry registry,
       SubscriptionManager subscriptions,
       HomekitClientConnection connection,
-      JmdnsHomekitAdvertiser advertiser) {
+      JmdnsHomekitAdvertiser advertiser,
+      PairResumeCache resumeCache) {
     this.authInfo = authInfo;
     this.registry = registry;
     this.subscriptions = subscriptions;
     this.connection = connection;
     this.advertiser = advertiser;
+    this.resumeCache = resumeCache;
   }
 
-  public HttpResponse handleRequest(HttpRequest request) throws IOException {
-    switch (request.getUri()) {
-      case "/pair-setup":
-        return handlePairSetup(request);
+  public CompletableFuture<HttpResponse> handleRequest(HttpRequest request) throws IOException {
+    switch (request.getEndpoint()) {
+      case PAIR_SETUP:
+        return completedFuture(handlePairSetup(request));
 
-      case "/pair-verify":
-        return handlePairVerify(request);
+      case PAIR_VERIFY:
+        return completedFuture(handlePairVerify(request));
 
       default:
         if (registry.isAllowUnauthenticatedRequests()) {
           return handleAuthenticatedRequest(request);
         } else {
           logger.warn("Unrecognized request for " + request.getUri());
-          return new NotFoundResponse();
+          return completedFuture(new NotFoundResponse());
         }
     }
   }
 
-  public HttpResponse handleAuthenticatedRequest(HttpRequest request) throws IOException {
+  /**
+   * Handles a request of a verified connection. The body of the request is consumed before this
+   * method returns, while the response may complete later, e.g. once slow accessories have
+   * delivered their values.
+   *
+   * @param request the request
+   * @return the future response, never completing exceptionally
+   * @throws IOException if the advertiser cannot be updated
+   */
+  public CompletableFuture<HttpResponse> handleAuthenticatedRequest(HttpRequest request)
+      throws IOException {
     advertiser.setDiscoverable(
         false); // brigde is already bound and should not be discoverable anymore
+    CompletableFuture<Void> ready = registry.whenReady();
+    CompletableFuture<HttpResponse> response;
+    if (ready.isDone()) {
+      response = dispatch(request);
+    } else {
+      // the accessories are still being read at startup; the body is only valid until this
+      // method returns, so the request is copied
+      HttpRequest copy = new BufferedHttpRequest(request);
+      response = ready.thenCompose(v -> dispatch(copy));
+    }
+    return response.exceptionally(
+        t -> {
+          Throwable cause = t instanceof CompletionException ? t.getCause() : t;
+          logger.warn("Could not handle request", cause);
+          return new InternalServerErrorResponse(
+              cause instanceof Exception ? (Exception) cause : new Exception(cause));
+        });
+  }
+
+  private CompletableFuture<HttpResponse> dispatch(HttpRequest request) {
     try {
-      switch (request.getUri()) {
-        case "/accessories":
-          return getAccessoryController().listing();
-
-        case "/characteristics":
-          switch (request.getMethod()) {
-            case PUT:
-              return getCharacteristicsController().put(request, connection);
-
-            default:
-              logger.warn("Unrecognized method for " + request.getUri());
-              return new NotFoundResponse();
-          }
-
-        case "/pairings":
-          return new PairingUpdateController(authInfo, advertiser).handle(request);
-
-        default:
-          if (request.getUri().startsWith("/characteristics?")) {
-            return getCharacteristicsController().get(request);
-          }
-          logger.warn("Unrecognized request for " + request.getUri());
-          return new NotFoundResponse();
-      }
+      return dispatchAuthenticatedRequest(request);
     } catch (Exception e) {
-      logger.warn("Could not handle request", e);
-      return new InternalServerErrorResponse(e);
+      CompletableFuture<HttpResponse> response = new CompletableFuture<>();
+      response.completeExceptionally(e);
+      return response;
+    }
+  }
+
+  private CompletableFuture<HttpResponse> dispatchAuthenticatedRequest(HttpRequest request)
+      throws Exception {
+    switch (request.getEndpoint()) {
+      case ACCESSORIES:
+        return getAccessoryController().listing();
+
+      case CHARACTERISTICS_GET:
+        return getCharacteristicsController().get(request);
+
+      case CHARACTERISTICS_PUT:
+        return completedFuture(getCharacteristicsController().put(request, connection));
+
+      case PAIRINGS:
+        return completedFuture(new PairingUpdateController(authInfo, advertiser).handle(request));
+
+      default:
+        logger.warn("Unrecognized request for " + request.getUri());
+        return completedFuture(new NotFoundResponse());
     }
   }
 
@@ -119,7 +157,7 @@ class HttpSession {
     if (pairVerificationManager == null) {
       synchronized (HttpSession.class) {
         if (pairVerificationManager == null) {
-          pairVerificationManager = new PairVerificationManager(authInfo, registry);
+          pairVerificationManager = new PairVerificationManager(authInfo, registry, resumeCache);
         }
       }
     }
@@ -172,4 +210,33 @@ class HttpSession {
       return hash;
     }
   }
+
+  /** A request whose body outlives the buffer it was received in. */
+  private static class BufferedHttpRequest implements HttpRequest {
+
+    private final String uri;
+    private final HttpMethod method;
+    private final byte[] body;
+
+    BufferedHttpRequest(HttpRequest request) {
+      this.uri = request.getUri();
+      this.method = request.getMethod();
+      this.body = request.getBody();
+    }
+
+    @Override
+    public String getUri() {
+      return uri;
+    }
+
+    @Override
+    public byte[] getBody() {
+      return body;
+    }
+
+    @Override
+    public HttpMethod getMethod() {
+      return method;
+    }
+  }
 }
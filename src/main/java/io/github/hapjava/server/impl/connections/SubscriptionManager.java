@@ -1,15 +1,24 @@
 package io.github.hapjava.server.impl.connections;
 
+import io.github.hapjava.characteristics.Characteristic;
 import io.github.hapjava.characteristics.EventableCharacteristic;
+import io.github.hapjava.server.HomekitMetrics;
 import io.github.hapjava.server.impl.http.HomekitClientConnection;
 import io.github.hapjava.server.impl.http.HttpResponse;
+import io.github.hapjava.server.impl.json.DeferredEventResponse;
 import io.github.hapjava.server.impl.json.EventController;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import javax.json.JsonValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,8 +33,49 @@ public class SubscriptionManager {
       new ConcurrentHashMap<>();
   private final ConcurrentMap<HomekitClientConnection, ArrayList<PendingNotification>>
       pendingNotifications = new ConcurrentHashMap<>();
+  private final Map<HomekitClientConnection, Map<Long, PendingNotification>> eventWindows =
+      new HashMap<>();
+  private final ScheduledExecutorService scheduler;
+  private long eventWindowMillis = 0;
+  private volatile HomekitMetrics metrics = HomekitMetrics.NONE;
   private int nestedBatches = 0;
 
+  public SubscriptionManager() {
+    this(null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param scheduler scheduler for sending aggregated events, required to {@link
+   *     #setEventAggregationWindow(long) enable} the aggregation window
+   */
+  public SubscriptionManager(ScheduledExecutorService scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  public void setMetrics(HomekitMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Sets how long changes are collected before they are sent to a controller. All changes for one
+   * controller within the window are merged into a single event message, keeping only the latest
+   * value of each characteristic. This saves frames and encryption during bursts, e.g. when a scene
+   * switches many lights at once, at the cost of delaying events by up to the window.
+   *
+   * @param millis the window in milliseconds, or 0 to send every change right away
+   */
+  public synchronized void setEventAggregationWindow(long millis) {
+    if (millis < 0) {
+      throw new IllegalArgumentException("window must not be negative");
+    }
+    if (millis > 0 && scheduler == null) {
+      throw new IllegalStateException("An event aggregation window requires a scheduler");
+    }
+    this.eventWindowMillis = millis;
+  }
+
   public synchronized void addSubscription(
       int aid,
       int iid,
@@ -45,7 +95,7 @@ public class SubscriptionManager {
       }
       reverse.get(connection).add(characteristic);
       LOGGER.trace(
-          "Added subscription to " + characteristic.getClass() + " for " + connection.hashCode());
+          "Added subscription to {} for {}", characteristic.getClass(), connection.hashCode());
     }
   }
 
@@ -64,12 +114,13 @@ public class SubscriptionManager {
       reverse.remove(characteristic);
     }
     LOGGER.trace(
-        "Removed subscription to " + characteristic.getClass() + " for " + connection.hashCode());
+        "Removed subscription to {} for {}", characteristic.getClass(), connection.hashCode());
   }
 
   public synchronized void removeConnection(HomekitClientConnection connection) {
     Set<EventableCharacteristic> characteristics = reverse.remove(connection);
     pendingNotifications.remove(connection);
+    eventWindows.remove(connection);
     if (characteristics != null) {
       for (EventableCharacteristic characteristic : characteristics) {
         Set<HomekitClientConnection> characteristicSubscriptions =
@@ -85,6 +136,32 @@ public class SubscriptionManager {
     LOGGER.trace("Removed connection {}", connection.hashCode());
   }
 
+  /**
+   * Removes all subscriptions to the characteristics of an accessory that is no longer served, and
+   * drops its changes that have not been sent yet.
+   *
+   * @param aid the id of the accessory
+   * @param characteristics the characteristics of the accessory
+   */
+  public synchronized void removeAccessory(
+      int aid, Collection<? extends Characteristic> characteristics) {
+    for (Characteristic characteristic : characteristics) {
+      Set<HomekitClientConnection> subscribers = subscriptions.remove(characteristic);
+      if (subscribers != null) {
+        ((EventableCharacteristic) characteristic).unsubscribe();
+        for (HomekitClientConnection connection : subscribers) {
+          Set<EventableCharacteristic> connectionSubscriptions = reverse.get(connection);
+          if (connectionSubscriptions != null) {
+            connectionSubscriptions.remove(characteristic);
+          }
+        }
+      }
+    }
+    pendingNotifications.values().forEach(pending -> pending.removeIf(n -> n.aid == aid));
+    eventWindows.values().forEach(window -> window.values().removeIf(n -> n.aid == aid));
+    LOGGER.trace("Removed subscriptions of accessory {}", aid);
+  }
+
   private <T> Set<T> newSet() {
     return Collections.newSetFromMap(new ConcurrentHashMap<T, Boolean>());
   }
@@ -98,6 +175,10 @@ public class SubscriptionManager {
       LOGGER.trace("Publishing batched changes");
       for (ConcurrentMap.Entry<HomekitClientConnection, ArrayList<PendingNotification>> entry :
           pendingNotifications.entrySet()) {
+        if (eventWindowMillis > 0) {
+          entry.getValue().forEach(notification -> aggregate(entry.getKey(), notification));
+          continue;
+        }
         try {
           HttpResponse message = new EventController().getMessage(entry.getValue());
           entry.getKey().outOfBand(message);
@@ -116,6 +197,7 @@ public class SubscriptionManager {
       LOGGER.debug("No subscribers to characteristic {} at accessory {} ", changed, accessoryId);
       return; // no subscribers
     }
+    metrics.eventPublished(accessoryId, iid, subscribers.size());
     if (nestedBatches != 0) {
       LOGGER.trace("Batching change for accessory {} and characteristic {} ", accessoryId, iid);
       PendingNotification notification = new PendingNotification(accessoryId, iid, newValue);
@@ -124,13 +206,23 @@ public class SubscriptionManager {
           pendingNotifications.put(connection, new ArrayList<PendingNotification>());
         }
         pendingNotifications.get(connection).add(notification);
+        metrics.notificationsPending(
+            connection.getRemoteAddress(), pendingNotifications.get(connection).size());
+      }
+      return;
+    }
+
+    if (eventWindowMillis > 0) {
+      PendingNotification notification = new PendingNotification(accessoryId, iid, newValue);
+      for (HomekitClientConnection connection : subscribers) {
+        aggregate(connection, notification);
       }
       return;
     }
 
     try {
       HttpResponse message = new EventController().getMessage(accessoryId, iid, newValue);
-      LOGGER.trace("Publishing change for " + accessoryId);
+      LOGGER.trace("Publishing change for {}", accessoryId);
       for (HomekitClientConnection connection : subscribers) {
         connection.outOfBand(message);
       }
@@ -139,6 +231,37 @@ public class SubscriptionManager {
     }
   }
 
+  /** Adds a change to the open window of a connection, opening one if there is none. */
+  private void aggregate(HomekitClientConnection connection, PendingNotification notification) {
+    Map<Long, PendingNotification> window = eventWindows.get(connection);
+    if (window == null) {
+      window = new LinkedHashMap<>();
+      eventWindows.put(connection, window);
+      scheduler.schedule(
+          () -> sendEventWindow(connection), eventWindowMillis, TimeUnit.MILLISECONDS);
+    }
+    // a newer value of the same characteristic replaces the older one
+    window.put(((long) notification.aid << 32) | (notification.iid & 0xFFFFFFFFL), notification);
+    metrics.notificationsPending(connection.getRemoteAddress(), window.size());
+  }
+
+  /**
+   * Sends the changes collected in the window of a connection. Only taking the window holds the
+   * lock; the message is encoded when the connection writes it, on its own event loop, so neither
+   * publishers nor other connections wait for the encoding.
+   */
+  private void sendEventWindow(HomekitClientConnection connection) {
+    Map<Long, PendingNotification> window;
+    synchronized (this) {
+      window = eventWindows.remove(connection);
+    }
+    if (window == null || window.isEmpty()) {
+      return; // connection or accessories were removed meanwhile
+    }
+    LOGGER.trace("Publishing {} aggregated changes", window.size());
+    connection.outOfBand(new DeferredEventResponse(window.values()));
+  }
+
   /** Remove all existing subscriptions */
   public void removeAll() {
     LOGGER.trace("Removing {} reverse connections from subscription manager", reverse.size());
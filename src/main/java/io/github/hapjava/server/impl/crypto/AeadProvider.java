@@ -0,0 +1,71 @@
+package io.github.hapjava.server.impl.crypto;
+
+import java.io.IOException;
+
+/**
+ * An implementation of the ChaCha20-Poly1305 AEAD used by HAP. HAP nonces are 8 bytes, e.g. the
+ * frame counter or "PV-Msg02"; as a 12 byte RFC 7539 nonce, they are preceded by 4 zero bytes.
+ *
+ * @see AeadProviders#getDefault()
+ */
+public interface AeadProvider {
+
+  int TAG_LENGTH = 16;
+  int NONCE_LENGTH = 8;
+
+  /**
+   * The name of the implementation, as selected by the {@code hapjava.aead} system property.
+   *
+   * @return the name
+   */
+  String getName();
+
+  /**
+   * Checks whether the implementation can be used on this JVM.
+   *
+   * @return true if it is available
+   */
+  boolean isAvailable();
+
+  /**
+   * Creates a cipher for a key. The cipher can be reused for many messages under the key.
+   *
+   * @param key the 32 byte key
+   * @return the cipher, not thread safe
+   */
+  Aead newAead(byte[] key);
+
+  /** A ChaCha20-Poly1305 cipher with a fixed key. */
+  interface Aead {
+
+    /**
+     * Encrypts and authenticates a message.
+     *
+     * @param nonce the 8 byte HAP nonce, which must not be reused under the key
+     * @param aad additional authenticated data, or null
+     * @param in the plaintext
+     * @param inOff offset of the plaintext
+     * @param length length of the plaintext
+     * @param out receives the ciphertext followed by the tag
+     * @param outOff offset of the ciphertext
+     * @return the number of bytes written, {@code length + TAG_LENGTH}
+     */
+    int seal(byte[] nonce, byte[] aad, byte[] in, int inOff, int length, byte[] out, int outOff);
+
+    /**
+     * Verifies and decrypts a message. The output may be the same array as the input, at an offset
+     * not after the ciphertext.
+     *
+     * @param nonce the 8 byte HAP nonce
+     * @param aad additional authenticated data, or null
+     * @param in the ciphertext followed by the tag
+     * @param inOff offset of the ciphertext
+     * @param length length of the ciphertext, without the tag
+     * @param out receives the plaintext
+     * @param outOff offset of the plaintext
+     * @throws IOException if the tag does not match
+     */
+    void open(byte[] nonce, byte[] aad, byte[] in, int inOff, int length, byte[] out, int outOff)
+        throws IOException;
+  }
+}
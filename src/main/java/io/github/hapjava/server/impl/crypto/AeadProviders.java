@@ -0,0 +1,135 @@
+package io.github.hapjava.server.impl.crypto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.bouncycastle.util.Pack;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Selects the {@link AeadProvider} used for pairing and session encryption. Which implementation is
+ * fastest depends on the JVM and CPU, so the first use calibrates the available implementations:
+ * each must produce the same ciphertext as the BouncyCastle reference and decrypt it again, and the
+ * fastest of those at encrypting full session frames is picked. The system property {@code
+ * hapjava.aead} skips the calibration and selects an implementation by name, e.g. {@code jca}.
+ */
+public final class AeadProviders {
+
+  private static final Logger logger = LoggerFactory.getLogger(AeadProviders.class);
+
+  private static final int FRAME_LENGTH = 1024;
+  private static final int ROUNDS = 40;
+  private static final int FRAMES_PER_ROUND = 250;
+
+  private AeadProviders() {}
+
+  /**
+   * The implementations known to hap-java, the reference implementation first.
+   *
+   * @return the implementations, available or not
+   */
+  public static List<AeadProvider> getProviders() {
+    return Arrays.asList(new BouncyCastleAeadProvider(), new JcaAeadProvider());
+  }
+
+  /**
+   * The implementation to use, selected on the first call.
+   *
+   * @return the selected implementation
+   */
+  public static AeadProvider getDefault() {
+    return Holder.DEFAULT;
+  }
+
+  private static class Holder {
+    static final AeadProvider DEFAULT = select();
+  }
+
+  private static AeadProvider select() {
+    List<AeadProvider> providers = getProviders();
+    String name = System.getProperty("hapjava.aead");
+    if (name != null) {
+      for (AeadProvider provider : providers) {
+        if (provider.getName().equals(name) && provider.isAvailable()) {
+          logger.debug("Using {} AEAD implementation", name);
+          return provider;
+        }
+      }
+      logger.warn("AEAD implementation {} is not available, calibrating instead", name);
+    }
+    AeadProvider reference = providers.get(0);
+    byte[] key = new byte[32];
+    byte[] frame = new byte[FRAME_LENGTH];
+    Random random = new Random();
+    random.nextBytes(key);
+    random.nextBytes(frame);
+    byte[] expected = new byte[FRAME_LENGTH + AeadProvider.TAG_LENGTH];
+    reference.newAead(key).seal(new byte[8], new byte[2], frame, 0, FRAME_LENGTH, expected, 0);
+
+    List<AeadProvider> candidates = new ArrayList<>();
+    List<AeadProvider.Aead> aeads = new ArrayList<>();
+    for (AeadProvider provider : providers) {
+      if (!provider.isAvailable()) {
+        continue;
+      }
+      try {
+        aeads.add(verify(provider, key, frame, expected));
+        candidates.add(provider);
+      } catch (Exception e) {
+        logger.warn("Not using AEAD implementation " + provider.getName(), e);
+      }
+    }
+    if (candidates.size() < 2) {
+      return candidates.isEmpty() ? reference : candidates.get(0);
+    }
+    // rounds alternate between the implementations, so all of them are compiled by the JIT before
+    // their best round counts
+    long[] best = new long[candidates.size()];
+    Arrays.fill(best, Long.MAX_VALUE);
+    byte[] nonce = new byte[8];
+    long counter = 1;
+    for (int round = 0; round < ROUNDS; round++) {
+      for (int i = 0; i < candidates.size(); i++) {
+        long start = System.nanoTime();
+        for (int j = 0; j < FRAMES_PER_ROUND; j++) {
+          Pack.longToLittleEndian(counter++, nonce, 0);
+          aeads.get(i).seal(nonce, new byte[2], frame, 0, FRAME_LENGTH, expected, 0);
+        }
+        best[i] = Math.min(best[i], System.nanoTime() - start);
+      }
+    }
+    int fastest = 0;
+    for (int i = 0; i < candidates.size(); i++) {
+      logger.debug(
+          "AEAD implementation {} encrypts a frame in {} ns",
+          candidates.get(i).getName(),
+          best[i] / FRAMES_PER_ROUND);
+      if (best[i] < best[fastest]) {
+        fastest = i;
+      }
+    }
+    logger.debug("Using {} AEAD implementation", candidates.get(fastest).getName());
+    return candidates.get(fastest);
+  }
+
+  /** Checks the provider against the reference ciphertext, returning a cipher to measure. */
+  private static AeadProvider.Aead verify(
+      AeadProvider provider, byte[] key, byte[] frame, byte[] expected) throws Exception {
+    AeadProvider.Aead aead = provider.newAead(key);
+    byte[] nonce = new byte[8];
+    byte[] aad = new byte[2];
+    byte[] out = new byte[expected.length];
+    aead.seal(nonce, aad, frame, 0, FRAME_LENGTH, out, 0);
+    if (!Arrays.equals(expected, out)) {
+      throw new IllegalStateException("Ciphertext differs from the reference implementation");
+    }
+    byte[] decrypted = new byte[FRAME_LENGTH];
+    provider.newAead(key).open(nonce, aad, out, 0, FRAME_LENGTH, decrypted, 0);
+    if (!Arrays.equals(frame, decrypted)) {
+      throw new IllegalStateException("Decryption differs from the plaintext");
+    }
+    return aead;
+  }
+}
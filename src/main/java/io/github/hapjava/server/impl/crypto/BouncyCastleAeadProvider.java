@@ -0,0 +1,109 @@
+package io.github.hapjava.server.impl.crypto;
+
+import java.io.IOException;
+import org.bouncycastle.crypto.engines.ChaChaEngine;
+import org.bouncycastle.crypto.generators.Poly1305KeyGenerator;
+import org.bouncycastle.crypto.macs.Poly1305;
+import org.bouncycastle.crypto.params.KeyParameter;
+import org.bouncycastle.crypto.params.ParametersWithIV;
+import org.bouncycastle.crypto.tls.AlertDescription;
+import org.bouncycastle.crypto.tls.TlsFatalAlert;
+import org.bouncycastle.util.Pack;
+
+/**
+ * ChaCha20-Poly1305 on the BouncyCastle engines. Always available. The ciphers keep their engine,
+ * MAC and scratch buffers, and only set the nonce of each message, so they allocate nothing.
+ */
+public class BouncyCastleAeadProvider implements AeadProvider {
+
+  @Override
+  public String getName() {
+    return "bouncycastle";
+  }
+
+  @Override
+  public boolean isAvailable() {
+    return true;
+  }
+
+  @Override
+  public Aead newAead(byte[] key) {
+    return new BouncyCastleAead(key);
+  }
+
+  private static class BouncyCastleAead implements Aead {
+
+    private static final byte[] ZEROS = new byte[64];
+
+    private final ChaChaEngine engine = new ChaChaEngine(20);
+    private final Poly1305 mac = new Poly1305();
+    // the key is only set once; later messages pass a null key, which keeps the key schedule
+    private final ParametersWithIV nonceParameters =
+        new ParametersWithIV(null, new byte[NONCE_LENGTH]);
+    private final KeyParameter macKey = new KeyParameter(new byte[32]);
+    private final byte[] keyBlock = new byte[64];
+    private final byte[] scratch = new byte[TAG_LENGTH];
+
+    BouncyCastleAead(byte[] key) {
+      engine.init(true, new ParametersWithIV(new KeyParameter(key), new byte[NONCE_LENGTH]));
+    }
+
+    @Override
+    public int seal(
+        byte[] nonce, byte[] aad, byte[] in, int inOff, int length, byte[] out, int outOff) {
+      init(nonce);
+      engine.processBytes(in, inOff, length, out, outOff);
+      computeTag(aad, out, outOff, length);
+      System.arraycopy(scratch, 0, out, outOff + length, TAG_LENGTH);
+      return length + TAG_LENGTH;
+    }
+
+    @Override
+    public void open(
+        byte[] nonce, byte[] aad, byte[] in, int inOff, int length, byte[] out, int outOff)
+        throws IOException {
+      init(nonce);
+      computeTag(aad, in, inOff, length);
+      int diff = 0;
+      for (int i = 0; i < TAG_LENGTH; i++) {
+        diff |= scratch[i] ^ in[inOff + length + i];
+      }
+      if (diff != 0) {
+        throw new TlsFatalAlert(AlertDescription.bad_record_mac);
+      }
+      engine.processBytes(in, inOff, length, out, outOff);
+    }
+
+    /** Sets the nonce and derives the MAC key of the message from the first key stream block. */
+    private void init(byte[] nonce) {
+      System.arraycopy(nonce, 0, nonceParameters.getIV(), 0, NONCE_LENGTH);
+      engine.init(true, nonceParameters);
+      engine.processBytes(ZEROS, 0, 64, keyBlock, 0);
+      // NOTE: The BC implementation puts 'r' after 'k'
+      byte[] key = macKey.getKey();
+      System.arraycopy(keyBlock, 16, key, 0, 16);
+      System.arraycopy(keyBlock, 0, key, 16, 16);
+      Poly1305KeyGenerator.clamp(key);
+      mac.init(macKey);
+    }
+
+    /** Computes the tag of the additional data and the ciphertext into the scratch buffer. */
+    private void computeTag(byte[] aad, byte[] ciphertext, int off, int length) {
+      int aadLength = aad != null ? aad.length : 0;
+      if (aadLength > 0) {
+        mac.update(aad, 0, aadLength);
+        if (aadLength % 16 != 0) {
+          mac.update(ZEROS, 0, 16 - aadLength % 16);
+        }
+      }
+      mac.update(ciphertext, off, length);
+      if (length % 16 != 0) {
+        mac.update(ZEROS, 0, 16 - length % 16);
+      }
+      Pack.longToLittleEndian(aadLength, scratch, 0);
+      Pack.longToLittleEndian(length, scratch, 8);
+      mac.update(scratch, 0, 16);
+      mac.doFinal(scratch, 0);
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package io.github.hapjava.server.impl.crypto;
+
+import java.io.IOException;
+import org.bouncycastle.util.Pack;
+
+/**
+ * Encrypts or decrypts the frames of one direction of a paired session with ChaCha20-Poly1305. Each
+ * frame is a 2 byte little endian length, which is also the additional authenticated data, followed
+ * by the ciphertext and the 16 byte tag. The nonce is the frame counter.
+ *
+ * <p>Unlike {@link ChachaEncoder} and {@link ChachaDecoder}, which are created for every message,
+ * the cipher is kept for the session, only setting the nonce of the next frame, and works on
+ * buffers supplied by the caller. With the BouncyCastle {@link AeadProvider}, processing a frame
+ * allocates nothing. Not thread safe.
+ */
+public class HapSessionCipher {
+
+  /** The largest plaintext of a frame. */
+  public static final int MAX_FRAME_LENGTH = 0x400;
+
+  public static final int LENGTH_PREFIX = 2;
+  public static final int TAG_LENGTH = AeadProvider.TAG_LENGTH;
+
+  private final boolean forEncryption;
+  private final AeadProvider.Aead aead;
+  private final byte[] nonce = new byte[AeadProvider.NONCE_LENGTH];
+  private final byte[] lengthPrefix = new byte[LENGTH_PREFIX];
+  private long counter = 0;
+
+  /**
+   * Creates the cipher of one direction of a session, using the {@link AeadProviders#getDefault()
+   * default} implementation.
+   *
+   * @param key the 32 byte session key of the direction
+   * @param forEncryption true for frames sent, false for frames received
+   */
+  public HapSessionCipher(byte[] key, boolean forEncryption) {
+    this(AeadProviders.getDefault(), key, forEncryption);
+  }
+
+  /**
+   * Creates the cipher of one direction of a session.
+   *
+   * @param provider the implementation of ChaCha20-Poly1305
+   * @param key the 32 byte session key of the direction
+   * @param forEncryption true for frames sent, false for frames received
+   */
+  public HapSessionCipher(AeadProvider provider, byte[] key, boolean forEncryption) {
+    this.forEncryption = forEncryption;
+    this.aead = provider.newAead(key);
+  }
+
+  /**
+   * Encrypts a frame of up to {@link #MAX_FRAME_LENGTH} bytes.
+   *
+   * @param in the plaintext
+   * @param inOff offset of the plaintext
+   * @param length length of the plaintext
+   * @param out receives the frame, {@code length + LENGTH_PREFIX + TAG_LENGTH} bytes
+   * @param outOff offset of the frame
+   * @return the length of the frame
+   */
+  public int encrypt(byte[] in, int inOff, int length, byte[] out, int outOff) {
+    checkEncryption(true, length);
+    initFrame(length);
+    out[outOff] = lengthPrefix[0];
+    out[outOff + 1] = lengthPrefix[1];
+    return LENGTH_PREFIX
+        + aead.seal(nonce, lengthPrefix, in, inOff, length, out, outOff + LENGTH_PREFIX);
+  }
+
+  /**
+   * Verifies and decrypts a frame of up to {@link #MAX_FRAME_LENGTH} bytes. The output may be the
+   * same array as the input, at an offset not after the ciphertext.
+   *
+   * @param in the ciphertext of the frame followed by its tag, without the length prefix
+   * @param inOff offset of the ciphertext
+   * @param length length of the ciphertext, as given by the length prefix
+   * @param out receives the plaintext, {@code length} bytes
+   * @param outOff offset of the plaintext
+   * @throws IOException if the tag does not match, e.g. as the frame has been tampered with
+   */
+  public void decrypt(byte[] in, int inOff, int length, byte[] out, int outOff) throws IOException {
+    checkEncryption(false, length);
+    initFrame(length);
+    aead.open(nonce, lengthPrefix, in, inOff, length, out, outOff);
+  }
+
+  /**
+   * Skips the nonces of the next frames, e.g. to encrypt them concurrently with other ciphers for
+   * the same key, which are {@link #setCounter(long) set} to the skipped nonces.
+   *
+   * @param frames the number of frames to skip
+   * @return the counter of the first skipped frame
+   */
+  public long skip(int frames) {
+    long first = counter;
+    counter += frames;
+    return first;
+  }
+
+  /**
+   * Sets the counter, i.e. the nonce, of the next frame.
+   *
+   * @param counter the counter of the next frame
+   */
+  public void setCounter(long counter) {
+    this.counter = counter;
+  }
+
+  private void checkEncryption(boolean encrypt, int length) {
+    if (encrypt != forEncryption) {
+      throw new IllegalStateException(
+          "This cipher is for " + (forEncryption ? "encryption" : "decryption"));
+    }
+    if (length < 0 || length > MAX_FRAME_LENGTH) {
+      throw new IllegalArgumentException("Invalid frame length " + length);
+    }
+  }
+
+  /** Sets the length prefix and the nonce of the next frame. */
+  private void initFrame(int length) {
+    lengthPrefix[0] = (byte) length;
+    lengthPrefix[1] = (byte) (length >>> 8);
+    Pack.longToLittleEndian(counter++, nonce, 0);
+  }
+}
@@ -0,0 +1,89 @@
+package io.github.hapjava.server.impl.crypto;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.bouncycastle.crypto.tls.AlertDescription;
+import org.bouncycastle.crypto.tls.TlsFatalAlert;
+
+/**
+ * ChaCha20-Poly1305 of the JDK ({@code Cipher "ChaCha20-Poly1305"}, Java 11 and later), which
+ * recent JVMs back with intrinsics. The HAP nonce is passed as a 12 byte nonce with 4 leading zero
+ * bytes.
+ */
+public class JcaAeadProvider implements AeadProvider {
+
+  private static final String TRANSFORMATION = "ChaCha20-Poly1305";
+
+  @Override
+  public String getName() {
+    return "jca";
+  }
+
+  @Override
+  public boolean isAvailable() {
+    try {
+      Cipher.getInstance(TRANSFORMATION);
+      return true;
+    } catch (GeneralSecurityException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public Aead newAead(byte[] key) {
+    return new JcaAead(key);
+  }
+
+  private static class JcaAead implements Aead {
+
+    private final SecretKeySpec key;
+    private final Cipher cipher;
+    private final byte[] iv = new byte[12];
+
+    JcaAead(byte[] key) {
+      this.key = new SecretKeySpec(key, "ChaCha20");
+      try {
+        this.cipher = Cipher.getInstance(TRANSFORMATION);
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException(TRANSFORMATION + " is not available", e);
+      }
+    }
+
+    @Override
+    public int seal(
+        byte[] nonce, byte[] aad, byte[] in, int inOff, int length, byte[] out, int outOff) {
+      try {
+        init(Cipher.ENCRYPT_MODE, nonce, aad);
+        return cipher.doFinal(in, inOff, length, out, outOff);
+      } catch (GeneralSecurityException e) {
+        throw new IllegalStateException("Could not encrypt", e);
+      }
+    }
+
+    @Override
+    public void open(
+        byte[] nonce, byte[] aad, byte[] in, int inOff, int length, byte[] out, int outOff)
+        throws IOException {
+      try {
+        init(Cipher.DECRYPT_MODE, nonce, aad);
+        cipher.doFinal(in, inOff, length + TAG_LENGTH, out, outOff);
+      } catch (AEADBadTagException e) {
+        throw new TlsFatalAlert(AlertDescription.bad_record_mac);
+      } catch (GeneralSecurityException e) {
+        throw new IOException("Could not decrypt", e);
+      }
+    }
+
+    private void init(int mode, byte[] nonce, byte[] aad) throws GeneralSecurityException {
+      System.arraycopy(nonce, 0, iv, 4, NONCE_LENGTH);
+      cipher.init(mode, key, new IvParameterSpec(iv));
+      if (aad != null) {
+        cipher.updateAAD(aad);
+      }
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package io.github.hapjava.server.impl.http;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link ByteArrayOutputStream} whose content can be handed out as a {@link ByteBuffer} without
+ * the copy made by {@link #toByteArray()}. Used to serialize response bodies.
+ */
+public class ByteBufferOutputStream extends ByteArrayOutputStream {
+
+  public ByteBufferOutputStream() {
+    super();
+  }
+
+  public ByteBufferOutputStream(int size) {
+    super(size);
+  }
+
+  /**
+   * Wraps the bytes written so far. The stream must not be written to afterwards.
+   *
+   * @return a buffer backed by the internal array of this stream
+   */
+  public synchronized ByteBuffer toByteBuffer() {
+    return ByteBuffer.wrap(buf, 0, count);
+  }
+}
@@ -0,0 +1,39 @@
+package io.github.hapjava.server.impl.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A response whose body is only serialized when the response is written, directly into the outbound
+ * buffer of the connection. Unlike {@link HttpResponse#getBody()}, this needs no array of its own
+ * for the body, nor a copy of it into the outbound buffer.
+ */
+public interface DeferredHttpResponse extends HttpResponse {
+
+  /**
+   * Serializes the body. Called once for each connection the response is written to, possibly on
+   * several event loops at the same time.
+   *
+   * @param out receives the body, and is not closed
+   * @throws IOException if the body cannot be written
+   */
+  void writeBody(OutputStream out) throws IOException;
+
+  /**
+   * Serializes the body into a buffer of its own, for callers other than the encoder.
+   *
+   * @return the body
+   */
+  @Override
+  default ByteBuffer getBody() {
+    ByteBufferOutputStream out = new ByteBufferOutputStream();
+    try {
+      writeBody(out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteBuffer();
+  }
+}
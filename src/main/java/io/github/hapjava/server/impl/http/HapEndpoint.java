@@ -0,0 +1,47 @@
+package io.github.hapjava.server.impl.http;
+
+/** The endpoints of the HomeKit accessory protocol, as used to route and measure requests. */
+public enum HapEndpoint {
+  ACCESSORIES,
+  CHARACTERISTICS_GET,
+  CHARACTERISTICS_PUT,
+  PAIRINGS,
+  PAIR_SETUP,
+  PAIR_VERIFY,
+  /** Any request not matching a HomeKit endpoint. */
+  UNKNOWN;
+
+  /**
+   * Determines the endpoint of a request.
+   *
+   * @param method the request method
+   * @param uri the request uri, including the query
+   * @return the endpoint, or {@link #UNKNOWN}
+   */
+  public static HapEndpoint of(HttpMethod method, String uri) {
+    int query = uri.indexOf('?');
+    String path = query < 0 ? uri : uri.substring(0, query);
+    switch (path) {
+      case "/accessories":
+        return ACCESSORIES;
+
+      case "/characteristics":
+        if (method == HttpMethod.PUT) {
+          return CHARACTERISTICS_PUT;
+        }
+        return query < 0 ? UNKNOWN : CHARACTERISTICS_GET;
+
+      case "/pairings":
+        return PAIRINGS;
+
+      case "/pair-setup":
+        return PAIR_SETUP;
+
+      case "/pair-verify":
+        return PAIR_VERIFY;
+
+      default:
+        return UNKNOWN;
+    }
+  }
+}
@@ -1,16 +1,43 @@
 package io.github.hapjava.server.impl.http;
 
+import io.netty.buffer.ByteBuf;
 import java.io.IOException;
+import java.net.SocketAddress;
+import java.util.concurrent.CompletableFuture;
 
 public interface HomekitClientConnection {
 
-  HttpResponse handleRequest(HttpRequest request) throws IOException;
+  /**
+   * Handles a request. The request body is consumed before this method returns, but the response
+   * completes asynchronously, without holding a thread while waiting for accessories.
+   *
+   * @param request the request to handle
+   * @return the future response
+   * @throws IOException if the request could not be handled
+   */
+  CompletableFuture<HttpResponse> handleRequest(HttpRequest request) throws IOException;
 
-  byte[] decryptRequest(byte[] ciphertext);
+  /**
+   * Verifies and decrypts a frame of an upgraded connection in place.
+   *
+   * @param frame the length prefix, ciphertext and tag of a complete frame
+   * @return the plaintext, a slice of the frame that shares its reference count
+   * @throws IOException if the frame could not be decrypted, e.g. as it has been tampered with
+   */
+  ByteBuf decryptRequest(ByteBuf frame) throws IOException;
 
-  byte[] encryptResponse(byte[] plaintext) throws IOException;
+  /**
+   * Encrypts the readable bytes of a response into frames, written to the end of the output buffer.
+   *
+   * @param plaintext the response, which is read completely
+   * @param out receives the frames
+   * @throws IOException if the response could not be encrypted
+   */
+  void encryptResponse(ByteBuf plaintext, ByteBuf out) throws IOException;
 
   void close();
 
+  SocketAddress getRemoteAddress();
+
   void outOfBand(HttpResponse message);
 }
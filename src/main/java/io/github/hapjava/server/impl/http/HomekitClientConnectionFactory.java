@@ -1,8 +1,20 @@
 package io.github.hapjava.server.impl.http;
 
+import io.github.hapjava.server.HomekitMetrics;
+import java.net.SocketAddress;
 import java.util.function.Consumer;
 
 public interface HomekitClientConnectionFactory {
 
-  HomekitClientConnection createConnection(Consumer<HttpResponse> outOfBandMessageCallback);
+  HomekitClientConnection createConnection(
+      SocketAddress remoteAddress, Consumer<HttpResponse> outOfBandMessageCallback);
+
+  /**
+   * The metrics receiving the measurements of the connections.
+   *
+   * @return the metrics of the root serving the connections
+   */
+  default HomekitMetrics getMetrics() {
+    return HomekitMetrics.NONE;
+  }
 }
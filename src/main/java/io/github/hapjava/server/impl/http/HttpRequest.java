@@ -1,10 +1,32 @@
 package io.github.hapjava.server.impl.http;
 
+import java.nio.ByteBuffer;
+
 public interface HttpRequest {
 
   String getUri();
 
   byte[] getBody();
 
+  /**
+   * A read-only view of the request body. Unlike {@link #getBody()}, this does not copy the body
+   * out of the buffer it was received in, so the view is only valid until {@link
+   * HomekitClientConnection#handleRequest(HttpRequest)} returns.
+   *
+   * @return the request body
+   */
+  default ByteBuffer getBodyBuffer() {
+    return ByteBuffer.wrap(getBody()).asReadOnlyBuffer();
+  }
+
   HttpMethod getMethod();
+
+  /**
+   * The HomeKit endpoint the request is addressed to.
+   *
+   * @return the endpoint, or {@link HapEndpoint#UNKNOWN}
+   */
+  default HapEndpoint getEndpoint() {
+    return HapEndpoint.of(getMethod(), getUri());
+  }
 }
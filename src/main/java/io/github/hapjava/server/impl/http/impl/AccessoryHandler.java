@@ -1,93 +1,270 @@
 package io.github.hapjava.server.impl.http.impl;
 
+import io.github.hapjava.server.HomekitMetrics;
+import io.github.hapjava.server.impl.http.HapEndpoint;
 import io.github.hapjava.server.impl.http.HomekitClientConnection;
 import io.github.hapjava.server.impl.http.HomekitClientConnectionFactory;
 import io.github.hapjava.server.impl.http.HttpResponse;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelPipeline;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.handler.codec.http.*;
+import io.netty.handler.timeout.IdleStateEvent;
 import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-class AccessoryHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+class AccessoryHandler extends SimpleChannelInboundHandler<HapRequest> {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(AccessoryHandler.class);
 
   private HomekitClientConnection connection;
   private final HomekitClientConnectionFactory homekitClientConnectionFactory;
+  private final HomekitMetrics metrics;
+  private final Executor handshakeExecutor;
+  private SocketAddress remoteAddress;
 
-  public AccessoryHandler(HomekitClientConnectionFactory homekitClientConnectionFactory) {
+  /**
+   * Completes once the response to the latest request has been written. Responses may complete out
+   * of order, but must be sent in the order of the requests. Only accessed on the handler executor.
+   */
+  private CompletableFuture<Void> lastResponse = CompletableFuture.completedFuture(null);
+
+  /**
+   * Requests whose responses have not been written yet, and whether a read batch is still being
+   * decoded. Pipelined requests, e.g. several requests decrypted from one batch of frames, are
+   * answered with a single flush once all of their responses are written. Only accessed on the
+   * handler executor.
+   */
+  private int pendingResponses = 0;
+
+  private boolean reading = false;
+
+  /**
+   * The pairing or pair verification whose response has not been written yet. Requests arriving
+   * meanwhile were sent before the controller received that response, so they are plaintext and
+   * handled once that response has been sent. Only accessed on the handler executor.
+   */
+  private CompletableFuture<HttpResponse> pendingHandshake;
+
+  /**
+   * Completes once the latest pairing or pair verification has been handled. The pairing state of a
+   * connection is not thread safe, so its handshakes run one after another, even if the controller
+   * pipelines them. Only accessed on the handler executor.
+   */
+  private CompletableFuture<HttpResponse> lastHandshake = CompletableFuture.completedFuture(null);
+
+  /** Whether the connection is an encrypted session. Only accessed on the handler executor. */
+  private boolean upgraded = false;
+
+  /**
+   * Constructor
+   *
+   * @param homekitClientConnectionFactory creates the connection of the channel
+   * @param handshakeExecutor runs pairing and pair verification, off the request handling threads
+   */
+  public AccessoryHandler(
+      HomekitClientConnectionFactory homekitClientConnectionFactory, Executor handshakeExecutor) {
     this.homekitClientConnectionFactory = homekitClientConnectionFactory;
+    this.metrics = homekitClientConnectionFactory.getMetrics();
+    this.handshakeExecutor = handshakeExecutor;
   }
 
   @Override
   public void channelActive(ChannelHandlerContext ctx) throws Exception {
     final Channel channel = ctx.pipeline().channel();
+    this.remoteAddress = channel.remoteAddress();
     this.connection =
         homekitClientConnectionFactory.createConnection(
+            remoteAddress,
             response -> {
               if (!channel.isActive()) {
                 return;
               }
-              channel.writeAndFlush(NettyResponseUtil.createResponse(response));
+              channel.writeAndFlush(response);
             });
-    LOGGER.trace("New HomeKit connection from " + ctx.channel().remoteAddress().toString());
+    metrics.connectionOpened(remoteAddress);
+    LOGGER.trace("New HomeKit connection from {}", remoteAddress);
     super.channelActive(ctx);
   }
 
   @Override
   public void channelInactive(ChannelHandlerContext ctx) throws Exception {
-    LOGGER.trace("Terminated HomeKit connection from " + ctx.channel().remoteAddress().toString());
+    LOGGER.trace("Terminated HomeKit connection from {}", remoteAddress);
+    if (connection != null) {
+      connection.close();
+      metrics.connectionClosed(remoteAddress);
+    }
     super.channelInactive(ctx);
   }
 
   @Override
-  public void channelRead0(ChannelHandlerContext ctx, FullHttpRequest req) throws Exception {
-    try {
-      HttpResponse response = connection.handleRequest(new FullRequestHttpRequestImpl(req));
-      if (response.doUpgrade()) {
-        ChannelPipeline pipeline = ctx.channel().pipeline();
-        pipeline.addBefore(
-            ServerInitializer.HTTP_HANDLER_NAME, "binary", new BinaryHandler(connection));
+  public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+    if (evt instanceof IdleStateEvent) {
+      LOGGER.debug(
+          "Closing idle HomeKit connection from {} ({})", ctx.channel().remoteAddress(), evt);
+      ctx.close();
+      return;
+    }
+    super.userEventTriggered(ctx, evt);
+  }
+
+  @Override
+  public void channelRead0(ChannelHandlerContext ctx, HapRequest request) throws Exception {
+    long start = System.nanoTime();
+    reading = true;
+    pendingResponses++;
+    HapEndpoint endpoint = request.getEndpoint();
+    CompletableFuture<HttpResponse> response;
+    if (endpoint == HapEndpoint.PAIR_SETUP || endpoint == HapEndpoint.PAIR_VERIFY) {
+      response = handleHandshake(request, endpoint);
+      pendingHandshake = response;
+    } else if (pendingHandshake != null) {
+      response = handleAfterHandshake(lastResponse, request, ctx);
+    } else {
+      try {
+        // the request is released when this returns, so its body is consumed synchronously
+        response = connection.handleRequest(request);
+      } catch (Exception e) {
+        response = new CompletableFuture<>();
+        response.completeExceptionally(e);
       }
-      sendResponse(response, ctx);
-    } catch (Exception e) {
-      LOGGER.warn("Error handling homekit http request", e);
-      sendResponse(HttpResponseStatus.INTERNAL_SERVER_ERROR, "Error: " + e.getMessage(), ctx);
     }
+    CompletableFuture<HttpResponse> handled = response;
+    lastResponse =
+        lastResponse
+            .thenCombine(response.exceptionally(AccessoryHandler::errorResponse), (v, r) -> r)
+            .thenAcceptAsync(
+                r -> {
+                  if (pendingHandshake == handled) {
+                    pendingHandshake = null;
+                  }
+                  // the controller only sends encrypted data once it has received this response
+                  if (r.doUpgrade()) {
+                    ServerInitializer.addBinaryHandler(
+                        ctx.channel().pipeline(), new BinaryHandler(connection, metrics));
+                    upgraded = true;
+                  }
+                  try {
+                    metrics.requestHandled(
+                        remoteAddress, endpoint, r.getStatusCode(), System.nanoTime() - start);
+                  } catch (RuntimeException e) {
+                    LOGGER.warn("Error recording homekit request metrics", e);
+                  }
+                  sendResponse(r, ctx);
+                },
+                ctx.executor())
+            // a failed response must not keep the responses to later requests from being sent
+            .exceptionally(t -> closeOnError(ctx, t));
+  }
+
+  /**
+   * Runs a pairing or pair verification on the handshake executor, so that its cryptography does
+   * not hold up the requests of verified connections sharing the request handling threads. It is
+   * only submitted once the previous handshake of the connection has been handled.
+   */
+  private CompletableFuture<HttpResponse> handleHandshake(
+      HapRequest request, HapEndpoint endpoint) {
+    CompletableFuture<HttpResponse> response = new CompletableFuture<>();
+    request.retain();
+    lastHandshake.whenComplete((r, t) -> submitHandshake(request, endpoint, response));
+    lastHandshake = response;
+    return response;
   }
 
-  private void sendResponse(
-      HttpResponseStatus status, String responseBody, ChannelHandlerContext ctx) {
-    if (responseBody == null) {
-      responseBody = "";
+  private void submitHandshake(
+      HapRequest request, HapEndpoint endpoint, CompletableFuture<HttpResponse> response) {
+    long queued = System.nanoTime();
+    try {
+      handshakeExecutor.execute(
+          () -> {
+            long start = System.nanoTime();
+            try {
+              connection
+                  .handleRequest(request)
+                  .whenComplete(
+                      (r, t) -> {
+                        if (t != null) {
+                          response.completeExceptionally(t);
+                        } else {
+                          response.complete(r);
+                        }
+                      });
+            } catch (Exception e) {
+              response.completeExceptionally(e);
+            } finally {
+              request.release();
+              metrics.handshakeHandled(
+                  remoteAddress, endpoint, start - queued, System.nanoTime() - start);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      request.release();
+      metrics.handshakeRejected(remoteAddress);
+      response.completeExceptionally(e);
     }
-    FullHttpResponse response =
-        new DefaultFullHttpResponse(
-            HttpVersion.HTTP_1_1,
-            status,
-            Unpooled.copiedBuffer(responseBody.getBytes(StandardCharsets.UTF_8)));
-    response.headers().set(HttpHeaders.Names.CONTENT_TYPE, "text/plain");
-    response.headers().set(HttpHeaders.Names.CONTENT_LENGTH, response.content().readableBytes());
-    response.headers().set(HttpHeaders.Names.CONNECTION, HttpHeaders.Values.KEEP_ALIVE);
-    ctx.write(response);
-    ctx.flush();
+  }
+
+  /**
+   * Handles a request that arrived while a handshake was pending, once the response to the
+   * handshake has been sent. The request was decoded as plaintext, so if the handshake upgraded the
+   * connection to an encrypted session, it is not handled and the connection is closed.
+   */
+  private CompletableFuture<HttpResponse> handleAfterHandshake(
+      CompletableFuture<Void> handshakeSent, HapRequest request, ChannelHandlerContext ctx) {
+    request.retain();
+    return handshakeSent.thenComposeAsync(
+        v -> {
+          try {
+            if (upgraded) {
+              ctx.flush();
+              ctx.close();
+              throw new IOException("Plaintext request on an encrypted session");
+            }
+            return connection.handleRequest(request);
+          } catch (IOException e) {
+            throw new CompletionException(e);
+          } finally {
+            request.release();
+          }
+        },
+        ctx.executor());
+  }
+
+  private static HttpResponse errorResponse(Throwable t) {
+    Throwable cause = t instanceof CompletionException ? t.getCause() : t;
+    LOGGER.warn("Error handling homekit http request", cause);
+    return new ErrorResponse("Error: " + cause.getMessage());
+  }
+
+  private static Void closeOnError(ChannelHandlerContext ctx, Throwable t) {
+    Throwable cause = t instanceof CompletionException ? t.getCause() : t;
+    LOGGER.warn("Error sending homekit http response, closing connection", cause);
+    ctx.close();
+    return null;
   }
 
   private void sendResponse(HttpResponse homekitResponse, ChannelHandlerContext ctx) {
-    FullHttpResponse response = NettyResponseUtil.createResponse(homekitResponse);
-    ctx.write(response);
-    ctx.flush();
+    ctx.write(homekitResponse);
+    if (--pendingResponses == 0 && !reading) {
+      ctx.flush();
+    }
   }
 
   @Override
   public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
-    ctx.flush();
+    reading = false;
+    if (pendingResponses == 0) {
+      ctx.flush();
+    }
     super.channelReadComplete(ctx);
   }
 
@@ -101,4 +278,31 @@ class AccessoryHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
     }
     ctx.close();
   }
+
+  private static class ErrorResponse implements HttpResponse {
+
+    private static final Map<String, String> headers =
+        Collections.singletonMap("Content-Type", "text/plain");
+
+    private final ByteBuffer body;
+
+    ErrorResponse(String message) {
+      this.body = ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public int getStatusCode() {
+      return 500;
+    }
+
+    @Override
+    public ByteBuffer getBody() {
+      return body;
+    }
+
+    @Override
+    public Map<String, String> getHeaders() {
+      return headers;
+    }
+  }
 }
@@ -1,10 +1,12 @@
 package io.github.hapjava.server.impl.http.impl;
 
+import io.github.hapjava.server.HomekitMetrics;
+import io.github.hapjava.server.impl.crypto.HapSessionCipher;
 import io.github.hapjava.server.impl.http.HomekitClientConnection;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageCodec;
+import io.netty.handler.codec.CorruptedFrameException;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
@@ -16,32 +18,59 @@ public class BinaryHandler extends ByteToMessageCodec<ByteBuf> {
   private static final Logger logger = LoggerFactory.getLogger(BinaryHandler.class);
 
   private final HomekitClientConnection connection;
+  private final HomekitMetrics metrics;
   private boolean started = false;
 
   public BinaryHandler(HomekitClientConnection connection) {
+    this(connection, HomekitMetrics.NONE);
+  }
+
+  public BinaryHandler(HomekitClientConnection connection, HomekitMetrics metrics) {
     this.connection = connection;
+    this.metrics = metrics;
   }
 
   @Override
   protected void encode(ChannelHandlerContext ctx, ByteBuf msg, ByteBuf out) throws Exception {
     if (started) {
       debugData("Sending data", msg, ctx);
-      byte[] b = new byte[msg.readableBytes()];
-      msg.readBytes(b);
-      out.writeBytes(connection.encryptResponse(b));
+      int writerIndex = out.writerIndex();
+      connection.encryptResponse(msg, out);
+      metrics.bytesSent(connection.getRemoteAddress(), out.writerIndex() - writerIndex);
     } else {
       out.writeBytes(msg);
     }
   }
 
+  /**
+   * Slices the next complete frame from the cumulation and decrypts it in place, emitting its
+   * plaintext. Netty calls this for each frame, so the HTTP decoder receives the frames one by one,
+   * and keeps incomplete frames in the cumulation until the rest arrives.
+   */
   @Override
   protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
-    byte[] b = new byte[in.readableBytes()];
-    in.readBytes(b);
-    byte[] decrypted = connection.decryptRequest(b);
-    ByteBuf outBuf = Unpooled.copiedBuffer(decrypted);
-    debugData("Received data", outBuf, ctx);
-    out.add(outBuf);
+    if (in.readableBytes() < HapSessionCipher.LENGTH_PREFIX) {
+      return;
+    }
+    int length = in.getUnsignedShortLE(in.readerIndex());
+    if (length > HapSessionCipher.MAX_FRAME_LENGTH) {
+      throw new CorruptedFrameException("Invalid frame length " + length);
+    }
+    int frameLength = HapSessionCipher.LENGTH_PREFIX + length + HapSessionCipher.TAG_LENGTH;
+    if (in.readableBytes() < frameLength) {
+      return;
+    }
+    metrics.bytesReceived(connection.getRemoteAddress(), frameLength);
+    ByteBuf frame = in.readRetainedSlice(frameLength);
+    ByteBuf decrypted;
+    try {
+      decrypted = connection.decryptRequest(frame);
+    } catch (Exception e) {
+      frame.release();
+      throw e;
+    }
+    debugData("Received data", decrypted, ctx);
+    out.add(decrypted);
     started = true;
   }
 
@@ -0,0 +1,95 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPipeline;
+import java.net.SocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Installs the {@link LoggingHandler} on connections on demand, so that connections without
+ * diagnostics do not pay for an additional handler. Keeps the wire captures of the most recent
+ * connections, including closed ones, for post-mortem debugging.
+ */
+class Diagnostics {
+
+  static final String HANDLER_NAME = "diagnostics";
+
+  private static final int MAX_CAPTURES = 32;
+  private static final int CAPTURE_CAPACITY = 32;
+  private static final int MAX_MESSAGE_LENGTH = 16 * 1024;
+
+  private volatile boolean enabled = false;
+
+  private final Map<SocketAddress, WireCapture> captures = new RecentCaptures();
+
+  /**
+   * Whether new connections get diagnostics. This is also the case while trace logging is enabled
+   * for the {@link LoggingHandler}.
+   *
+   * @return true to install diagnostics on new connections
+   */
+  boolean isEnabled() {
+    return enabled || LoggingHandler.isTraceEnabled();
+  }
+
+  void setEnabled(boolean enabled, Iterable<Channel> channels) {
+    this.enabled = enabled;
+    for (Channel channel : channels) {
+      setEnabled(channel, enabled);
+    }
+  }
+
+  void setEnabled(Channel channel, boolean enabled) {
+    if (enabled) {
+      install(channel);
+    } else {
+      uninstall(channel);
+    }
+  }
+
+  void install(Channel channel) {
+    ChannelPipeline pipeline = channel.pipeline();
+    // the pipeline lock orders this against the installation of the binary handler
+    synchronized (pipeline) {
+      if (pipeline.get(HANDLER_NAME) == null
+          && pipeline.get(ServerInitializer.HTTP_HANDLER_NAME) != null) {
+        WireCapture capture = new WireCapture(CAPTURE_CAPACITY, MAX_MESSAGE_LENGTH);
+        synchronized (captures) {
+          captures.put(channel.remoteAddress(), capture);
+        }
+        pipeline.addBefore(
+            ServerInitializer.HTTP_HANDLER_NAME, HANDLER_NAME, new LoggingHandler(capture));
+      }
+    }
+  }
+
+  void uninstall(Channel channel) {
+    ChannelPipeline pipeline = channel.pipeline();
+    synchronized (pipeline) {
+      try {
+        pipeline.remove(HANDLER_NAME);
+      } catch (NoSuchElementException e) {
+        // not installed
+      }
+    }
+  }
+
+  Map<SocketAddress, WireCapture> getCaptures() {
+    synchronized (captures) {
+      return new LinkedHashMap<>(captures);
+    }
+  }
+
+  /** The captures of the most recent connections, dropping the oldest beyond the limit. */
+  private static class RecentCaptures extends LinkedHashMap<SocketAddress, WireCapture> {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<SocketAddress, WireCapture> eldest) {
+      return size() > MAX_CAPTURES;
+    }
+  }
+}
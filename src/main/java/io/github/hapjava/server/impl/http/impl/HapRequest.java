@@ -0,0 +1,54 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import io.github.hapjava.server.impl.http.HapEndpoint;
+import io.github.hapjava.server.impl.http.HttpMethod;
+import io.github.hapjava.server.impl.http.HttpRequest;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.DefaultByteBufHolder;
+import java.nio.ByteBuffer;
+
+/** A request decoded by {@link HapRequestDecoder}. The body is a slice of the received buffer. */
+class HapRequest extends DefaultByteBufHolder implements HttpRequest {
+
+  private final HttpMethod method;
+  private final String uri;
+  private final HapEndpoint endpoint;
+
+  HapRequest(HttpMethod method, String uri, ByteBuf body) {
+    super(body);
+    this.method = method;
+    this.uri = uri;
+    this.endpoint = HapEndpoint.of(method, uri);
+  }
+
+  @Override
+  public String getUri() {
+    return uri;
+  }
+
+  @Override
+  public HttpMethod getMethod() {
+    return method;
+  }
+
+  @Override
+  public HapEndpoint getEndpoint() {
+    return endpoint;
+  }
+
+  @Override
+  public byte[] getBody() {
+    return ByteBufUtil.getBytes(content());
+  }
+
+  @Override
+  public ByteBuffer getBodyBuffer() {
+    return content().nioBuffer().asReadOnlyBuffer();
+  }
+
+  @Override
+  public String toString() {
+    return method + " " + uri;
+  }
+}
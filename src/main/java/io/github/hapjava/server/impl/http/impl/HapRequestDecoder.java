@@ -0,0 +1,209 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import io.github.hapjava.server.impl.http.HttpMethod;
+import io.github.hapjava.server.impl.responses.BadRequestResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes the requests of the HomeKit accessory protocol into {@link HapRequest}s. HAP only uses
+ * GET, PUT and POST on a handful of URIs with small bodies, so unlike the generic netty decoder and
+ * aggregator, this parses the request line and the Content-Length header directly, skips all other
+ * headers without allocating them, and passes the body as a slice of the received buffer. A
+ * malformed request is answered with 400 Bad Request and closes the connection.
+ */
+class HapRequestDecoder extends ByteToMessageDecoder {
+
+  private static final Logger logger = LoggerFactory.getLogger(HapRequestDecoder.class);
+
+  static final int MAX_HEADER_LENGTH = 8192;
+  static final int MAX_BODY_LENGTH = 1000000;
+
+  private static final byte[] CONTENT_LENGTH =
+      "content-length:".getBytes(StandardCharsets.US_ASCII);
+
+  private enum State {
+    REQUEST_LINE,
+    HEADERS,
+    BODY,
+    REJECTED
+  }
+
+  private State state = State.REQUEST_LINE;
+  private int headerLength;
+  private HttpMethod method;
+  private String uri;
+  private int contentLength;
+
+  @Override
+  protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+    if (state == State.REJECTED) {
+      in.skipBytes(in.readableBytes());
+      return;
+    }
+    try {
+      HapRequest request = decodeRequest(in);
+      if (request != null) {
+        out.add(request);
+      }
+    } catch (CorruptedFrameException | TooLongFrameException e) {
+      reject(ctx, in, e);
+    }
+  }
+
+  /** Decodes the next request, or returns null if it has not been received completely. */
+  private HapRequest decodeRequest(ByteBuf in) {
+    if (state == State.REQUEST_LINE) {
+      int lineEnd = findLineEnd(in);
+      if (lineEnd < 0) {
+        return null;
+      }
+      parseRequestLine(in, lineEnd);
+      headerLength = lineEnd - in.readerIndex();
+      contentLength = -1;
+      in.readerIndex(lineEnd + 1);
+      state = State.HEADERS;
+    }
+    while (state == State.HEADERS) {
+      int lineEnd = findLineEnd(in);
+      if (lineEnd < 0) {
+        return null;
+      }
+      headerLength += lineEnd - in.readerIndex();
+      if (lineLength(in, lineEnd) == 0) {
+        state = State.BODY;
+      } else {
+        parseHeader(in, lineEnd);
+      }
+      in.readerIndex(lineEnd + 1);
+    }
+    int length = Math.max(contentLength, 0);
+    if (in.readableBytes() < length) {
+      return null;
+    }
+    ByteBuf body = length == 0 ? Unpooled.EMPTY_BUFFER : in.readRetainedSlice(length);
+    HapRequest request = new HapRequest(method, uri, body);
+    method = null;
+    uri = null;
+    headerLength = 0;
+    state = State.REQUEST_LINE;
+    return request;
+  }
+
+  /**
+   * Answers a malformed request with 400 Bad Request and closes the connection, as the start of the
+   * next request is unknown.
+   */
+  private void reject(ChannelHandlerContext ctx, ByteBuf in, Exception cause) {
+    logger.debug("Rejecting malformed request from {}", ctx.channel().remoteAddress(), cause);
+    state = State.REJECTED;
+    in.skipBytes(in.readableBytes());
+    ctx.writeAndFlush(new BadRequestResponse()).addListener(ChannelFutureListener.CLOSE);
+  }
+
+  /** Finds the next line feed, failing if the head of the request gets too long. */
+  private int findLineEnd(ByteBuf in) {
+    int lineEnd = in.indexOf(in.readerIndex(), in.writerIndex(), (byte) '\n');
+    int length = lineEnd < 0 ? in.readableBytes() : lineEnd - in.readerIndex();
+    if (headerLength + length > MAX_HEADER_LENGTH) {
+      throw new TooLongFrameException("HTTP header is larger than " + MAX_HEADER_LENGTH + " bytes");
+    }
+    return lineEnd;
+  }
+
+  /** The length of the line ending at the line feed, without the carriage return. */
+  private static int lineLength(ByteBuf in, int lineEnd) {
+    int length = lineEnd - in.readerIndex();
+    return length > 0 && in.getByte(lineEnd - 1) == '\r' ? length - 1 : length;
+  }
+
+  private void parseRequestLine(ByteBuf in, int lineEnd) {
+    int start = in.readerIndex();
+    int end = start + lineLength(in, lineEnd);
+    int methodEnd = in.indexOf(start, end, (byte) ' ');
+    int uriEnd = methodEnd < 0 ? -1 : in.indexOf(methodEnd + 1, end, (byte) ' ');
+    if (uriEnd < 0) {
+      throw new CorruptedFrameException("Invalid HTTP request line");
+    }
+    method = parseMethod(in, start, methodEnd - start);
+    uri = in.toString(methodEnd + 1, uriEnd - methodEnd - 1, StandardCharsets.US_ASCII);
+  }
+
+  private static HttpMethod parseMethod(ByteBuf in, int index, int length) {
+    switch (length) {
+      case 3:
+        if (matches(in, index, "GET")) {
+          return HttpMethod.GET;
+        }
+        if (matches(in, index, "PUT")) {
+          return HttpMethod.PUT;
+        }
+        break;
+
+      case 4:
+        if (matches(in, index, "POST")) {
+          return HttpMethod.POST;
+        }
+        break;
+    }
+    throw new CorruptedFrameException(
+        "Unsupported HTTP method " + in.toString(index, length, StandardCharsets.US_ASCII));
+  }
+
+  private static boolean matches(ByteBuf in, int index, String s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (in.getByte(index + i) != s.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void parseHeader(ByteBuf in, int lineEnd) {
+    int start = in.readerIndex();
+    int end = start + lineLength(in, lineEnd);
+    if (end - start < CONTENT_LENGTH.length) {
+      return;
+    }
+    for (int i = 0; i < CONTENT_LENGTH.length; i++) {
+      byte b = in.getByte(start + i);
+      if (b >= 'A' && b <= 'Z') {
+        b += 'a' - 'A';
+      }
+      if (b != CONTENT_LENGTH[i]) {
+        return; // a header HAP does not need
+      }
+    }
+    long length = 0;
+    boolean digits = false;
+    for (int i = start + CONTENT_LENGTH.length; i < end; i++) {
+      byte b = in.getByte(i);
+      if (b >= '0' && b <= '9') {
+        length = length * 10 + (b - '0');
+        digits = true;
+        if (length > MAX_BODY_LENGTH) {
+          throw new TooLongFrameException("HTTP body is larger than " + MAX_BODY_LENGTH + " bytes");
+        }
+      } else if (b != ' ' && b != '\t') {
+        throw new CorruptedFrameException("Invalid Content-Length");
+      }
+    }
+    if (!digits) {
+      throw new CorruptedFrameException("Invalid Content-Length");
+    }
+    // repeated headers would let a proxy and this decoder disagree on where the body ends
+    if (contentLength >= 0 && contentLength != length) {
+      throw new CorruptedFrameException("Conflicting Content-Length headers");
+    }
+    contentLength = (int) length;
+  }
+}
@@ -0,0 +1,181 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import io.github.hapjava.server.impl.http.DeferredHttpResponse;
+import io.github.hapjava.server.impl.http.HttpResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encodes a {@link HttpResponse} into a single buffer, sized exactly to the encoded response. The
+ * status line and the header block of each response type are encoded once and reused, so writing a
+ * response copies each body byte exactly once. The body of a {@link DeferredHttpResponse} is not
+ * copied at all, but serialized straight into the buffer, behind room left for the head. The
+ * encoder owns the {@code Content-Length} and {@code Connection} headers; the ones of the response
+ * are ignored.
+ */
+class HapResponseEncoder extends MessageToByteEncoder<HttpResponse> {
+
+  private static final byte[] CONTENT_LENGTH = bytes("Content-Length: ");
+  private static final byte[] KEEP_ALIVE = bytes("Connection: keep-alive\r\n\r\n");
+  private static final int MAX_CACHED_HEADER_BLOCKS = 64;
+  private static final int MAX_LENGTH_DIGITS = digits(Integer.MAX_VALUE);
+  // most bodies are a few characteristics, the buffer grows for larger ones
+  private static final int INITIAL_DEFERRED_BODY_CAPACITY = 1024;
+
+  private static final Map<Integer, byte[]> httpStatusLines = new ConcurrentHashMap<>();
+  private static final Map<Integer, byte[]> eventStatusLines = new ConcurrentHashMap<>();
+  private static final Map<Map<String, String>, byte[]> headerBlocks = new ConcurrentHashMap<>();
+
+  HapResponseEncoder() {
+    super(HttpResponse.class);
+  }
+
+  @Override
+  protected ByteBuf allocateBuffer(
+      ChannelHandlerContext ctx, HttpResponse msg, boolean preferDirect) {
+    if (msg instanceof DeferredHttpResponse && hasContentLength(msg)) {
+      int size = maxHeadLength(msg) + INITIAL_DEFERRED_BODY_CAPACITY;
+      return preferDirect ? ctx.alloc().ioBuffer(size) : ctx.alloc().heapBuffer(size);
+    }
+    int bodyLength = msg.getBody().remaining();
+    int size = statusLine(msg).length + headerBlock(msg.getHeaders()).length + KEEP_ALIVE.length;
+    if (hasContentLength(msg)) {
+      size += CONTENT_LENGTH.length + digits(bodyLength) + 2 + bodyLength;
+    }
+    return preferDirect ? ctx.alloc().ioBuffer(size, size) : ctx.alloc().heapBuffer(size, size);
+  }
+
+  @Override
+  protected void encode(ChannelHandlerContext ctx, HttpResponse msg, ByteBuf out)
+      throws IOException {
+    if (msg instanceof DeferredHttpResponse && hasContentLength(msg)) {
+      encodeDeferred((DeferredHttpResponse) msg, out);
+      return;
+    }
+    ByteBuffer body = msg.getBody().duplicate();
+    out.writeBytes(statusLine(msg));
+    out.writeBytes(headerBlock(msg.getHeaders()));
+    if (hasContentLength(msg)) {
+      out.writeBytes(CONTENT_LENGTH);
+      writeDecimal(out, body.remaining());
+      out.writeByte('\r').writeByte('\n');
+    }
+    out.writeBytes(KEEP_ALIVE);
+    if (hasContentLength(msg)) {
+      out.writeBytes(body);
+    }
+  }
+
+  /**
+   * Serializes the body behind room for the longest possible head, then writes the head right in
+   * front of the body. The few bytes of the room not needed are skipped.
+   */
+  private static void encodeDeferred(DeferredHttpResponse msg, ByteBuf out) throws IOException {
+    byte[] statusLine = statusLine(msg);
+    byte[] headerBlock = headerBlock(msg.getHeaders());
+    int fixedHeadLength =
+        statusLine.length + headerBlock.length + CONTENT_LENGTH.length + 2 + KEEP_ALIVE.length;
+    out.ensureWritable(fixedHeadLength + MAX_LENGTH_DIGITS);
+    int bodyStart = out.writerIndex() + fixedHeadLength + MAX_LENGTH_DIGITS;
+    out.writerIndex(bodyStart);
+    msg.writeBody(new ByteBufOutputStream(out));
+    int end = out.writerIndex();
+    int bodyLength = end - bodyStart;
+    int headStart = bodyStart - fixedHeadLength - digits(bodyLength);
+    out.writerIndex(headStart);
+    out.readerIndex(headStart);
+    out.writeBytes(statusLine);
+    out.writeBytes(headerBlock);
+    out.writeBytes(CONTENT_LENGTH);
+    writeDecimal(out, bodyLength);
+    out.writeByte('\r').writeByte('\n');
+    out.writeBytes(KEEP_ALIVE);
+    out.writerIndex(end);
+  }
+
+  private static int maxHeadLength(HttpResponse msg) {
+    return statusLine(msg).length
+        + headerBlock(msg.getHeaders()).length
+        + CONTENT_LENGTH.length
+        + MAX_LENGTH_DIGITS
+        + 2
+        + KEEP_ALIVE.length;
+  }
+
+  /** Like the netty encoder, a 204 or 1xx response carries neither a body nor a length. */
+  private static boolean hasContentLength(HttpResponse msg) {
+    int status = msg.getStatusCode();
+    return status != 204 && (status < 100 || status >= 200);
+  }
+
+  private static byte[] statusLine(HttpResponse msg) {
+    if (msg.getVersion() == HttpResponse.HttpVersion.EVENT_1_0) {
+      return eventStatusLines.computeIfAbsent(
+          msg.getStatusCode(), code -> encodeStatusLine("EVENT/1.0", code));
+    }
+    return httpStatusLines.computeIfAbsent(
+        msg.getStatusCode(), code -> encodeStatusLine("HTTP/1.1", code));
+  }
+
+  private static byte[] encodeStatusLine(String version, int code) {
+    return bytes(version + " " + HttpResponseStatus.valueOf(code) + "\r\n");
+  }
+
+  private static byte[] headerBlock(Map<String, String> headers) {
+    if (headers.isEmpty()) {
+      return new byte[0];
+    }
+    byte[] block = headerBlocks.get(headers);
+    if (block == null) {
+      StringBuilder sb = new StringBuilder();
+      for (Entry<String, String> header : headers.entrySet()) {
+        // written by the encoder itself, so a handler setting them does not duplicate them
+        if (header.getKey().equalsIgnoreCase("Content-Length")
+            || header.getKey().equalsIgnoreCase("Connection")) {
+          continue;
+        }
+        sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+      }
+      block = bytes(sb.toString());
+      if (headerBlocks.size() < MAX_CACHED_HEADER_BLOCKS) {
+        // a copy, as the handler may still change its map
+        headerBlocks.put(Collections.unmodifiableMap(new HashMap<>(headers)), block);
+      }
+    }
+    return block;
+  }
+
+  private static int digits(int value) {
+    int digits = 1;
+    while (value >= 10) {
+      value /= 10;
+      digits++;
+    }
+    return digits;
+  }
+
+  private static void writeDecimal(ByteBuf out, int value) {
+    int digits = digits(value);
+    int index = out.writerIndex() + digits;
+    out.writerIndex(index);
+    do {
+      out.setByte(--index, '0' + value % 10);
+      value /= 10;
+    } while (value > 0);
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+}
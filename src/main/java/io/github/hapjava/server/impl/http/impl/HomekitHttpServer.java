@@ -1,42 +1,203 @@
 package io.github.hapjava.server.impl.http.impl;
 
 import io.github.hapjava.server.HomekitWebHandler;
+import io.github.hapjava.server.impl.HomekitRuntime;
+import io.github.hapjava.server.impl.HomekitTransport;
 import io.github.hapjava.server.impl.http.HomekitClientConnectionFactory;
 import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 public class HomekitHttpServer implements HomekitWebHandler {
 
-  private NettyHomekitHttpService service = null;
-  private final InetAddress localAddress;
+  private volatile NettyHomekitHttpService service = null;
+  private final CompletableFuture<InetAddress> localAddress;
   private final int port;
-  private final int nThreads;
+  private final HomekitRuntime runtime;
+  private final boolean ownsRuntime;
+  private int readTimeout = 0;
+  private int idleTimeout = 0;
+  private int maxConnections = 0;
+  private int listeners = 1;
+  private int backlog = 128;
+  private boolean diagnostics = false;
+  private boolean started = false;
+  private volatile boolean stopped = false;
 
   @Override
   public void stop() {
+    stopped = true;
     if (this.service != null) {
       this.service.shutdown();
     }
+    if (ownsRuntime) {
+      runtime.shutdown();
+    }
   }
 
   public HomekitHttpServer(InetAddress localAddress, int port, int nThreads) {
+    this(
+        CompletableFuture.completedFuture(localAddress),
+        port,
+        new HomekitRuntime(HomekitTransport.AUTO, 1, 0, nThreads),
+        true);
+  }
+
+  /**
+   * Creates a server using a shared runtime. The runtime is not shut down when the server stops.
+   *
+   * @param localAddress local address to bind to
+   * @param port local port to bind to
+   * @param runtime the threads serving this and possibly other servers
+   */
+  public HomekitHttpServer(InetAddress localAddress, int port, HomekitRuntime runtime) {
+    this(CompletableFuture.completedFuture(localAddress), port, runtime, false);
+  }
+
+  /**
+   * Creates a server using a shared runtime, binding once the local address has been resolved.
+   *
+   * @param localAddress future local address to bind to
+   * @param port local port to bind to
+   * @param runtime the threads serving this and possibly other servers
+   */
+  public HomekitHttpServer(
+      CompletableFuture<InetAddress> localAddress, int port, HomekitRuntime runtime) {
+    this(localAddress, port, runtime, false);
+  }
+
+  /**
+   * Creates a server, binding once the local address has been resolved. A runtime owned by the
+   * server is shut down when the server stops, so stopping the accessories served by it releases
+   * its threads.
+   *
+   * @param localAddress future local address to bind to
+   * @param port local port to bind to
+   * @param runtime the threads serving this and possibly other servers
+   * @param ownsRuntime whether to shut down the runtime when the server stops
+   */
+  public HomekitHttpServer(
+      CompletableFuture<InetAddress> localAddress,
+      int port,
+      HomekitRuntime runtime,
+      boolean ownsRuntime) {
     this.localAddress = localAddress;
     this.port = port;
-    this.nThreads = nThreads;
+    this.runtime = runtime;
+    this.ownsRuntime = ownsRuntime;
   }
 
   @Override
   public CompletableFuture<Integer> start(HomekitClientConnectionFactory clientConnectionFactory) {
-    if (service == null) {
-      this.service = NettyHomekitHttpService.create(localAddress, port, nThreads);
-      return this.service.create(clientConnectionFactory);
-    } else {
+    if (started) {
       throw new RuntimeException("HomekitHttpServer can only be started once");
     }
+    started = true;
+    return localAddress.thenCompose(
+        address -> {
+          NettyHomekitHttpService service = NettyHomekitHttpService.create(address, port, runtime);
+          service.setTimeouts(readTimeout, idleTimeout);
+          service.setMaxConnections(maxConnections);
+          service.setListeners(listeners, backlog);
+          service.setDiagnostics(diagnostics);
+          this.service = service;
+          if (stopped) {
+            throw new IllegalStateException("HomekitHttpServer has been stopped");
+          }
+          return service.create(clientConnectionFactory);
+        });
+  }
+
+  /**
+   * Closes connections of controllers that have gone away without closing them, e.g. phones that
+   * left the network. Such connections otherwise keep their subscriptions and receive events until
+   * TCP gives up. Takes effect when the server is started.
+   *
+   * @param readTimeout seconds without a request after which a connection is closed, or 0 to
+   *     disable
+   * @param idleTimeout seconds without any traffic in either direction after which a connection is
+   *     closed, or 0 to disable
+   */
+  public void setTimeouts(int readTimeout, int idleTimeout) {
+    if (readTimeout < 0 || idleTimeout < 0) {
+      throw new IllegalArgumentException("timeouts must not be negative");
+    }
+    this.readTimeout = readTimeout;
+    this.idleTimeout = idleTimeout;
+  }
+
+  /**
+   * Limits the number of open connections. Further connections are closed right after they are
+   * accepted. Takes effect when the server is started.
+   *
+   * @param maxConnections maximum number of open connections, or 0 for no limit
+   */
+  public void setMaxConnections(int maxConnections) {
+    if (maxConnections < 0) {
+      throw new IllegalArgumentException("maxConnections must not be negative");
+    }
+    this.maxConnections = maxConnections;
+  }
+
+  /**
+   * Accepts connections on several listening sockets sharing the port with SO_REUSEPORT, each on
+   * its own thread of the boss group, so that reconnect storms are accepted on several cores. This
+   * needs a native transport; with NIO a single listener is used. Takes effect when the server is
+   * started.
+   *
+   * @param listeners number of listening sockets, at most the number of boss threads to be useful
+   * @param backlog length of the accept queue of each listening socket
+   */
+  public void setListeners(int listeners, int backlog) {
+    if (listeners < 1 || backlog < 1) {
+      throw new IllegalArgumentException("listeners and backlog must be positive");
+    }
+    this.listeners = listeners;
+    this.backlog = backlog;
+  }
+
+  /**
+   * Enables or disables diagnostics on all open and new connections. Diagnostics keep the last
+   * decrypted messages of each connection in a {@link WireCapture}, and log them if trace logging
+   * is enabled for {@link LoggingHandler}. Without diagnostics, connections have no logging
+   * overhead.
+   *
+   * @param enabled whether to enable diagnostics
+   */
+  public void setDiagnostics(boolean enabled) {
+    diagnostics = enabled;
+    if (service != null) {
+      service.setDiagnostics(enabled);
+    }
+  }
+
+  /**
+   * Enables or disables diagnostics on a single open connection.
+   *
+   * @param connection the remote address of the connection
+   * @param enabled whether to enable diagnostics
+   * @return false if there is no open connection from the address
+   */
+  public boolean setDiagnostics(SocketAddress connection, boolean enabled) {
+    return service != null && service.setDiagnostics(connection, enabled);
+  }
+
+  /**
+   * The wire captures of the connections that had diagnostics enabled most recently, including
+   * connections that have been closed since.
+   *
+   * @return the captures by the remote address of the connection
+   */
+  public Map<SocketAddress, WireCapture> getWireCaptures() {
+    return service != null ? service.getWireCaptures() : Collections.emptyMap();
   }
 
   @Override
   public void resetConnections() {
-    service.resetConnections();
+    if (service != null) {
+      service.resetConnections();
+    }
   }
 }
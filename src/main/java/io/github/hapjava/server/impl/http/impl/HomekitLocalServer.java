@@ -0,0 +1,145 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import io.github.hapjava.server.HomekitWebHandler;
+import io.github.hapjava.server.impl.HomekitRuntime;
+import io.github.hapjava.server.impl.http.HomekitClientConnectionFactory;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Serves HomeKit connections within the JVM, on netty's local transport. Connections run through
+ * the same pipeline as those of {@link HomekitHttpServer}, including encryption once paired, but
+ * without sockets or mDNS. Benchmarks and integration tests use this to drive many simulated
+ * controllers in-process and measure the protocol overhead without kernel networking.
+ *
+ * <p>Controllers connect with {@link #connect(ChannelHandler)}, or with a {@link LocalChannel} of
+ * their own to {@link #getLocalAddress()}.
+ */
+public class HomekitLocalServer implements HomekitWebHandler {
+
+  private final LocalAddress localAddress;
+  private final HomekitRuntime runtime;
+  private final ChannelGroup allChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+  private final Diagnostics diagnostics = new Diagnostics();
+  private volatile Channel serverChannel;
+
+  /**
+   * Creates a server with a unique local address.
+   *
+   * @param runtime the threads serving this and possibly other servers, not shut down on stop
+   */
+  public HomekitLocalServer(HomekitRuntime runtime) {
+    this(LocalAddress.ANY, runtime);
+  }
+
+  /**
+   * Creates a server bound to a given local address.
+   *
+   * @param localAddress the address controllers connect to, or {@link LocalAddress#ANY} for a
+   *     unique one
+   * @param runtime the threads serving this and possibly other servers, not shut down on stop
+   */
+  public HomekitLocalServer(LocalAddress localAddress, HomekitRuntime runtime) {
+    this.localAddress = localAddress;
+    this.runtime = runtime;
+  }
+
+  /**
+   * Starts accepting connections.
+   *
+   * @param clientConnectionFactory factory of the connections
+   * @return a future completing with 0 once the server is bound, as there is no port
+   */
+  @Override
+  public CompletableFuture<Integer> start(HomekitClientConnectionFactory clientConnectionFactory) {
+    if (serverChannel != null) {
+      throw new RuntimeException("HomekitLocalServer can only be started once");
+    }
+    CompletableFuture<Integer> bound = new CompletableFuture<>();
+    // the local transport runs on any single threaded event loop, so the runtime's loops are used
+    ServerBootstrap b = new ServerBootstrap();
+    b.group(runtime.getBossGroup(), runtime.getWorkerGroup())
+        .channel(LocalServerChannel.class)
+        .childHandler(
+            new ServerInitializer(
+                clientConnectionFactory, allChannels, runtime, 0, 0, 0, diagnostics))
+        .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+    ChannelFuture bindFuture = b.bind(localAddress);
+    serverChannel = bindFuture.channel();
+    bindFuture.addListener(
+        future -> {
+          if (future.isSuccess()) {
+            bound.complete(0);
+          } else {
+            bound.completeExceptionally(future.cause());
+          }
+        });
+    return bound;
+  }
+
+  /**
+   * The address controllers connect to. Only known once the server has been started.
+   *
+   * @return the bound local address
+   */
+  public LocalAddress getLocalAddress() {
+    return serverChannel != null ? (LocalAddress) serverChannel.localAddress() : localAddress;
+  }
+
+  /**
+   * Opens a controller connection to this server.
+   *
+   * @param clientHandler the handler of the controller side, receiving the plaintext responses
+   *     until the controller installs encryption of its own
+   * @return the future of the connection
+   */
+  public ChannelFuture connect(ChannelHandler clientHandler) {
+    return new Bootstrap()
+        .group(runtime.getWorkerGroup())
+        .channel(LocalChannel.class)
+        .handler(clientHandler)
+        .connect(getLocalAddress());
+  }
+
+  /**
+   * Enables or disables diagnostics on all open and new connections, see {@link
+   * HomekitHttpServer#setDiagnostics(boolean)}.
+   *
+   * @param enabled whether to enable diagnostics
+   */
+  public void setDiagnostics(boolean enabled) {
+    diagnostics.setEnabled(enabled, allChannels);
+  }
+
+  public Map<SocketAddress, WireCapture> getWireCaptures() {
+    return serverChannel != null ? diagnostics.getCaptures() : Collections.emptyMap();
+  }
+
+  @Override
+  public void stop() {
+    if (serverChannel != null) {
+      serverChannel.close();
+    }
+    allChannels.close();
+  }
+
+  @Override
+  public void resetConnections() {
+    allChannels.close();
+  }
+}
@@ -6,15 +6,33 @@ import java.io.IOException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Diagnostics of a single connection. Sits behind the decryption, so it sees the plaintext http
+ * messages. They are logged at trace level, and kept in a {@link WireCapture}, both without the key
+ * material of pairings. Only installed on demand, see {@link Diagnostics}.
+ */
 public class LoggingHandler extends ChannelDuplexHandler {
 
   private static final Logger logger = LoggerFactory.getLogger(LoggingHandler.class);
   private static final char[] HEX_ARRAY = "0123456789ABCDEF".toCharArray();
 
+  private final WireCapture capture;
+
+  LoggingHandler(WireCapture capture) {
+    this.capture = capture;
+  }
+
+  static boolean isTraceEnabled() {
+    return logger.isTraceEnabled();
+  }
+
   @Override
   public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-    if (logger.isTraceEnabled() && msg instanceof ByteBuf) {
-      logBytes("READ", (ByteBuf) msg, ctx);
+    if (msg instanceof ByteBuf && ((ByteBuf) msg).isReadable()) {
+      capture.add(true, (ByteBuf) msg);
+      if (logger.isTraceEnabled()) {
+        logBytes("READ", (ByteBuf) msg, ctx);
+      }
     }
     super.channelRead(ctx, msg);
   }
@@ -22,8 +40,11 @@ public class LoggingHandler extends ChannelDuplexHandler {
   @Override
   public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
       throws Exception {
-    if (logger.isTraceEnabled() && msg instanceof ByteBuf) {
-      logBytes("WRITE", (ByteBuf) msg, ctx);
+    if (msg instanceof ByteBuf && ((ByteBuf) msg).isReadable()) {
+      capture.add(false, (ByteBuf) msg);
+      if (logger.isTraceEnabled()) {
+        logBytes("WRITE", (ByteBuf) msg, ctx);
+      }
     }
     super.write(ctx, msg, promise);
   }
@@ -31,11 +52,19 @@ public class LoggingHandler extends ChannelDuplexHandler {
   private void logBytes(String type, ByteBuf buf, ChannelHandlerContext ctx) throws IOException {
     if (buf.readableBytes() > 0) {
       byte[] bytes = new byte[buf.readableBytes()];
-      buf.getBytes(0, bytes, 0, bytes.length);
+      buf.getBytes(buf.readerIndex(), bytes, 0, bytes.length);
+      // like the capture, the log never contains the key material of pairings
+      byte[] kept = WireCapture.redact(bytes);
       logger.trace(
           String.format(
-              "%s %s [%s]:%n%s%n",
-              type, buf, ctx.channel().remoteAddress().toString(), bytesToHex(bytes)));
+              "%s %s [%s]:%n%s%s%n",
+              type,
+              buf,
+              ctx.channel().remoteAddress().toString(),
+              bytesToHex(kept),
+              kept.length < bytes.length
+                  ? " [" + (bytes.length - kept.length) + " bytes redacted]"
+                  : ""));
     }
   }
 
@@ -1,55 +1,109 @@
 package io.github.hapjava.server.impl.http.impl;
 
+import io.github.hapjava.server.impl.HomekitRuntime;
 import io.github.hapjava.server.impl.http.HomekitClientConnectionFactory;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
 import io.netty.channel.group.ChannelGroup;
 import io.netty.channel.group.DefaultChannelGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.util.concurrent.*;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 class NettyHomekitHttpService {
 
-  private final EventLoopGroup bossGroup;
-  private final EventLoopGroup workerGroup;
+  private final HomekitRuntime runtime;
 
   private static final Logger logger = LoggerFactory.getLogger(NettyHomekitHttpService.class);
   private final ChannelGroup allChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
   private final InetAddress localAddress;
   private final int port;
-  private final int nThreads;
+  private final ChannelGroup serverChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+  private int listeners = 1;
+  private int backlog = 128;
+  private int readTimeout = 0;
+  private int idleTimeout = 0;
+  private int maxConnections = 0;
+  private final Diagnostics diagnostics = new Diagnostics();
 
-  public static NettyHomekitHttpService create(InetAddress localAddress, int port, int nThreads) {
-    return new NettyHomekitHttpService(localAddress, port, nThreads);
+  public static NettyHomekitHttpService create(
+      InetAddress localAddress, int port, HomekitRuntime runtime) {
+    return new NettyHomekitHttpService(localAddress, port, runtime);
   }
 
-  private NettyHomekitHttpService(InetAddress localAddress, int port, int nThreads) {
-    bossGroup = new NioEventLoopGroup();
-    workerGroup = new NioEventLoopGroup();
+  private NettyHomekitHttpService(InetAddress localAddress, int port, HomekitRuntime runtime) {
+    this.runtime = runtime;
     this.localAddress = localAddress;
     this.port = port;
-    this.nThreads = nThreads;
+  }
+
+  public void setTimeouts(int readTimeout, int idleTimeout) {
+    this.readTimeout = readTimeout;
+    this.idleTimeout = idleTimeout;
+  }
+
+  public void setMaxConnections(int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+
+  public void setListeners(int listeners, int backlog) {
+    this.listeners = listeners;
+    this.backlog = backlog;
   }
 
   public CompletableFuture<Integer> create(HomekitClientConnectionFactory connectionFactory) {
-    final CompletableFuture<Integer> portFuture = new CompletableFuture<Integer>();
     ServerBootstrap b = new ServerBootstrap();
-    b.group(bossGroup, workerGroup)
-        .channel(NioServerSocketChannel.class)
+    b.group(runtime.getBossGroup(), runtime.getWorkerGroup())
+        .channel(runtime.getTransport().getServerChannelClass())
         .handler(new LoggingHandler(LogLevel.INFO))
-        .childHandler(new ServerInitializer(connectionFactory, allChannels, nThreads))
-        .option(ChannelOption.SO_BACKLOG, 128)
-        .childOption(ChannelOption.SO_KEEPALIVE, true);
+        .childHandler(
+            new ServerInitializer(
+                connectionFactory,
+                allChannels,
+                runtime,
+                readTimeout,
+                idleTimeout,
+                maxConnections,
+                diagnostics))
+        .option(ChannelOption.SO_BACKLOG, backlog)
+        .childOption(ChannelOption.SO_KEEPALIVE, true)
+        .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+    int n = listeners;
+    ChannelOption<Boolean> reusePort = runtime.getTransport().getReusePortOption();
+    if (n > 1 && reusePort == null) {
+      logger.warn(
+          "Transport {} does not support SO_REUSEPORT, using a single listener",
+          runtime.getTransport());
+      n = 1;
+    }
+    if (n > 1) {
+      b.option(reusePort, true);
+    }
+    // the first listener resolves an ephemeral port, which the others then share
+    CompletableFuture<Integer> portFuture = bind(b, port);
+    for (int i = 1; i < n; i++) {
+      portFuture = portFuture.thenCompose(boundPort -> bind(b, boundPort));
+    }
+    return portFuture;
+  }
+
+  /**
+   * Binds one listener. Each listener is registered on the next event loop of the boss group, so
+   * with SO_REUSEPORT, connections are accepted on as many threads as there are listeners, up to
+   * the number of boss threads.
+   */
+  private CompletableFuture<Integer> bind(ServerBootstrap b, int port) {
+    final CompletableFuture<Integer> portFuture = new CompletableFuture<Integer>();
     final ChannelFuture bindFuture = b.bind(localAddress, port);
+    serverChannels.add(bindFuture.channel());
     bindFuture.addListener(
         new GenericFutureListener<Future<? super Void>>() {
 
@@ -59,7 +113,7 @@ class NettyHomekitHttpService {
               future.get();
               SocketAddress socketAddress = bindFuture.channel().localAddress();
               if (socketAddress instanceof InetSocketAddress) {
-                logger.trace("Bound homekit listener to " + socketAddress.toString());
+                logger.trace("Bound homekit listener to {}", socketAddress);
                 portFuture.complete(((InetSocketAddress) socketAddress).getPort());
               } else {
                 throw new RuntimeException(
@@ -73,9 +127,28 @@ class NettyHomekitHttpService {
     return portFuture;
   }
 
+  /** Closes the listeners and all connections. The runtime is left running, as it may be shared. */
   public void shutdown() {
-    workerGroup.shutdownGracefully();
-    bossGroup.shutdownGracefully();
+    serverChannels.close();
+    allChannels.close();
+  }
+
+  public void setDiagnostics(boolean enabled) {
+    diagnostics.setEnabled(enabled, allChannels);
+  }
+
+  public boolean setDiagnostics(SocketAddress connection, boolean enabled) {
+    for (Channel channel : allChannels) {
+      if (connection.equals(channel.remoteAddress())) {
+        diagnostics.setEnabled(channel, enabled);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public Map<SocketAddress, WireCapture> getWireCaptures() {
+    return diagnostics.getCaptures();
   }
 
   public void resetConnections() {
@@ -1,40 +1,103 @@
 package io.github.hapjava.server.impl.http.impl;
 
+import io.github.hapjava.server.impl.HomekitRuntime;
 import io.github.hapjava.server.impl.http.HomekitClientConnectionFactory;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.group.ChannelGroup;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.http.HttpObjectAggregator;
-import io.netty.handler.codec.http.HttpRequestDecoder;
-import io.netty.util.concurrent.DefaultEventExecutorGroup;
-import io.netty.util.concurrent.EventExecutorGroup;
+import io.netty.handler.timeout.IdleStateHandler;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-class ServerInitializer extends ChannelInitializer<SocketChannel> {
+class ServerInitializer extends ChannelInitializer<Channel> {
 
-  private static final int MAX_POST = 1000000;
+  private static final Logger logger = LoggerFactory.getLogger(ServerInitializer.class);
 
   public static final String HTTP_HANDLER_NAME = "http";
 
   private final HomekitClientConnectionFactory homekit;
   private final ChannelGroup allChannels;
-  private final EventExecutorGroup blockingExecutorGroup;
+  private final HomekitRuntime runtime;
+  private final int readTimeout;
+  private final int idleTimeout;
+  private final int maxConnections;
+  private final Diagnostics diagnostics;
+  private final AtomicInteger openConnections = new AtomicInteger();
 
+  /**
+   * Constructor
+   *
+   * @param homekit factory of the connections
+   * @param allChannels the open connections of the server
+   * @param runtime threads serving the connections
+   * @param readTimeout seconds without a request after which a connection is closed, or 0
+   * @param idleTimeout seconds without any traffic after which a connection is closed, or 0
+   * @param maxConnections maximum number of open connections, or 0 for no limit
+   * @param diagnostics installs diagnostics on new connections if enabled
+   */
   public ServerInitializer(
-      HomekitClientConnectionFactory homekit, ChannelGroup allChannels, int nThreads) {
+      HomekitClientConnectionFactory homekit,
+      ChannelGroup allChannels,
+      HomekitRuntime runtime,
+      int readTimeout,
+      int idleTimeout,
+      int maxConnections,
+      Diagnostics diagnostics) {
     this.homekit = homekit;
     this.allChannels = allChannels;
-    this.blockingExecutorGroup = new DefaultEventExecutorGroup(nThreads);
+    this.runtime = runtime;
+    this.readTimeout = readTimeout;
+    this.idleTimeout = idleTimeout;
+    this.maxConnections = maxConnections;
+    this.diagnostics = diagnostics;
+  }
+
+  /**
+   * Installs the decryption of an upgraded connection, in front of the diagnostics if present.
+   *
+   * @param pipeline the pipeline of the connection
+   * @param binaryHandler the handler encrypting the connection
+   */
+  static void addBinaryHandler(ChannelPipeline pipeline, BinaryHandler binaryHandler) {
+    synchronized (pipeline) {
+      String before =
+          pipeline.get(Diagnostics.HANDLER_NAME) != null
+              ? Diagnostics.HANDLER_NAME
+              : HTTP_HANDLER_NAME;
+      pipeline.addBefore(before, "binary", binaryHandler);
+    }
   }
 
   @Override
-  protected void initChannel(SocketChannel ch) throws Exception {
+  protected void initChannel(Channel ch) throws Exception {
+    if (maxConnections > 0) {
+      // counted on accept, as connections are initialized concurrently on several event loops
+      if (openConnections.incrementAndGet() > maxConnections) {
+        openConnections.decrementAndGet();
+        logger.warn(
+            "Rejecting connection from {}, limit of {} connections reached",
+            ch.remoteAddress(),
+            maxConnections);
+        ch.close();
+        return;
+      }
+      ch.closeFuture().addListener(future -> openConnections.decrementAndGet());
+    }
     ChannelPipeline pipeline = ch.pipeline();
-    pipeline.addLast(new LoggingHandler());
-    pipeline.addLast(HTTP_HANDLER_NAME, new HttpResponseEncoderAggregate());
-    pipeline.addLast(new HttpRequestDecoder());
-    pipeline.addLast(new HttpObjectAggregator(MAX_POST));
-    pipeline.addLast(blockingExecutorGroup, new AccessoryHandler(homekit));
+    if (readTimeout > 0 || idleTimeout > 0) {
+      // AccessoryHandler closes the connection once it becomes idle
+      pipeline.addLast(new IdleStateHandler(readTimeout, 0, idleTimeout));
+    }
+    pipeline.addLast(HTTP_HANDLER_NAME, new HapResponseEncoder());
+    if (diagnostics.isEnabled()) {
+      diagnostics.install(ch);
+    }
+    pipeline.addLast(new HapRequestDecoder());
+    pipeline.addLast(
+        runtime.getConnectionExecutor(ch),
+        new AccessoryHandler(homekit, runtime.getHandshakeExecutor()));
     allChannels.add(ch);
   }
 }
@@ -0,0 +1,184 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import io.netty.buffer.ByteBuf;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The last messages exchanged on a connection, after decryption, kept for post-mortem debugging.
+ * Older messages are dropped once the capacity is reached, and long messages are truncated. The key
+ * material of pairings is never kept: the bodies of pairing requests and responses, and any other
+ * binary content, are {@link #redact(byte[]) redacted}.
+ */
+public class WireCapture {
+
+  private final int capacity;
+  private final int maxMessageLength;
+  private final Deque<Message> messages;
+
+  WireCapture(int capacity, int maxMessageLength) {
+    this.capacity = capacity;
+    this.maxMessageLength = maxMessageLength;
+    this.messages = new ArrayDeque<>(capacity);
+  }
+
+  void add(boolean inbound, ByteBuf buf) {
+    int length = Math.min(buf.readableBytes(), maxMessageLength);
+    byte[] content = new byte[length];
+    buf.getBytes(buf.readerIndex(), content);
+    byte[] kept = redact(content);
+    Message message =
+        new Message(
+            Instant.now(),
+            inbound,
+            kept,
+            length - kept.length,
+            buf.readableBytes() > maxMessageLength);
+    synchronized (messages) {
+      if (messages.size() == capacity) {
+        messages.removeFirst();
+      }
+      messages.addLast(message);
+    }
+  }
+
+  /**
+   * Removes the key material of pairings from a message. Pairing requests and responses keep their
+   * request or status line and headers, but not their TLV8 body. Other binary content, like a
+   * fragment of such a body, is removed completely. Text, i.e. http and json, is kept.
+   *
+   * @param content the message, or a fragment of it
+   * @return the part of the message that may be kept
+   */
+  static byte[] redact(byte[] content) {
+    int headLength = headLength(content);
+    if (headLength < 0) {
+      return isText(content) ? content : new byte[0];
+    }
+    String head = new String(content, 0, headLength, StandardCharsets.US_ASCII);
+    if (isPairing(head) || !isText(content)) {
+      return Arrays.copyOf(content, headLength);
+    }
+    return content;
+  }
+
+  /** The length of the http head including the empty line, or -1 if there is none. */
+  private static int headLength(byte[] content) {
+    for (int i = 0; i + 3 < content.length; i++) {
+      if (content[i] == '\r'
+          && content[i + 1] == '\n'
+          && content[i + 2] == '\r'
+          && content[i + 3] == '\n') {
+        return i + 4;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isPairing(String head) {
+    return head.startsWith("POST /pair")
+        || head.toLowerCase(Locale.ROOT).contains("application/pairing+tlv8");
+  }
+
+  /** Pairing messages are binary TLV, everything else is http and json. */
+  private static boolean isText(byte[] content) {
+    for (byte b : content) {
+      if (b >= 0 && b < 0x20 && b != '\r' && b != '\n' && b != '\t') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * The captured messages, oldest first.
+   *
+   * @return a copy of the captured messages
+   */
+  public List<Message> getMessages() {
+    synchronized (messages) {
+      return Collections.unmodifiableList(new ArrayList<>(messages));
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Message message : getMessages()) {
+      sb.append(message).append('\n');
+    }
+    return sb.toString();
+  }
+
+  /** A message received from or sent to the controller. */
+  public static class Message {
+
+    private final Instant timestamp;
+    private final boolean inbound;
+    private final byte[] content;
+    private final int redactedLength;
+    private final boolean truncated;
+
+    Message(
+        Instant timestamp, boolean inbound, byte[] content, int redactedLength, boolean truncated) {
+      this.timestamp = timestamp;
+      this.inbound = inbound;
+      this.content = content;
+      this.redactedLength = redactedLength;
+      this.truncated = truncated;
+    }
+
+    public Instant getTimestamp() {
+      return timestamp;
+    }
+
+    /**
+     * Whether the message was received from the controller.
+     *
+     * @return true for requests, false for responses and events
+     */
+    public boolean isInbound() {
+      return inbound;
+    }
+
+    /**
+     * The captured message, without the redacted part.
+     *
+     * @return a copy of the content
+     */
+    public byte[] getContent() {
+      return Arrays.copyOf(content, content.length);
+    }
+
+    /**
+     * The number of bytes removed from the end of the message, as they may contain key material.
+     *
+     * @return the length of the redacted part, or 0
+     */
+    public int getRedactedLength() {
+      return redactedLength;
+    }
+
+    public boolean isTruncated() {
+      return truncated;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s %s %s%s%s",
+          timestamp,
+          inbound ? "<<" : ">>",
+          new String(content, StandardCharsets.UTF_8),
+          redactedLength > 0 ? "[" + redactedLength + " bytes redacted]" : "",
+          truncated ? " [truncated]" : "");
+    }
+  }
+}
@@ -1,20 +1,37 @@
 package io.github.hapjava.server.impl.jmdns;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import javax.jmdns.JmDNS;
 import javax.jmdns.ServiceInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Advertises the accessory over mDNS. Creating the mDNS responder and (re-)registering the service
+ * take seconds, so both happen in the background: JmDNS is created while the server starts, and
+ * changes of the advertised state only update the state and schedule a re-registration. Changes
+ * arriving while a re-registration is pending are collapsed into it. Stopping unregisters the
+ * service and closes the mDNS responder on the calling thread, so it does not depend on the
+ * executor still running.
+ */
 public class JmdnsHomekitAdvertiser {
 
   private static final String SERVICE_TYPE = "_hap._tcp.local.";
 
-  private final JmDNS jmdns;
+  private final CompletableFuture<JmDNS> jmdns;
+  private final Executor executor;
   private boolean discoverable = true;
   private static final Logger logger = LoggerFactory.getLogger(JmdnsHomekitAdvertiser.class);
   private boolean isAdvertising = false;
@@ -24,8 +41,43 @@ public class JmdnsHomekitAdvertiser {
   private int port;
   private int configurationIndex;
 
+  /** Serializes the registrations, which run in the background. Guarded by this. */
+  private CompletableFuture<Void> registration = CompletableFuture.completedFuture(null);
+
+  private boolean registrationPending = false;
+
+  private volatile boolean stopped = false;
+
   public JmdnsHomekitAdvertiser(InetAddress localAddress) throws UnknownHostException, IOException {
-    jmdns = JmDNS.create(localAddress);
+    this(CompletableFuture.completedFuture(localAddress), newExecutor());
+  }
+
+  /**
+   * Creates the advertiser without waiting for the local address to be resolved or for the mDNS
+   * responder to start.
+   *
+   * @param localAddress the future address to advertise on
+   * @param executor runs the blocking mDNS calls, usually {@link
+   *     io.github.hapjava.server.impl.HomekitRuntime#getBackgroundExecutor()}
+   */
+  public JmdnsHomekitAdvertiser(CompletableFuture<InetAddress> localAddress, Executor executor) {
+    this.executor = executor;
+    jmdns =
+        localAddress.thenApplyAsync(
+            address -> {
+              try {
+                return JmDNS.create(address);
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            },
+            executor);
+    jmdns.whenComplete(
+        (j, e) -> {
+          if (e != null) {
+            logger.warn("Could not start mDNS", e);
+          }
+        });
   }
 
   public synchronized void advertise(String label, String mac, int port, int configurationIndex)
@@ -38,31 +90,59 @@ public class JmdnsHomekitAdvertiser {
     this.port = port;
     this.configurationIndex = configurationIndex;
 
-    logger.trace("Advertising accessory " + label);
+    logger.trace("Advertising accessory {}", label);
 
-    registerService();
+    scheduleRegistration();
 
     Runtime.getRuntime()
         .addShutdownHook(
             new Thread(
                 () -> {
                   logger.trace("Stopping advertising in response to shutdown.");
-                  jmdns.unregisterAllServices();
+                  JmDNS j = jmdns.getNow(null);
+                  if (j != null && !stopped) {
+                    j.unregisterAllServices();
+                  }
                 }));
     isAdvertising = true;
   }
 
-  public synchronized void stop() {
-    jmdns.unregisterAllServices();
+  /**
+   * Unregisters the service and closes the mDNS responder. Waits for a registration that is still
+   * running, and for the responder to have started, so that the service is not left advertised.
+   */
+  public void stop() {
+    CompletableFuture<Void> running;
+    synchronized (this) {
+      if (stopped) {
+        return;
+      }
+      stopped = true;
+      running = registration;
+    }
+    try {
+      // registrations not started yet do nothing once stopped
+      running.join();
+    } catch (CompletionException | CancellationException e) {
+      // a rejected registration did not register anything
+    }
+    try {
+      JmDNS j = jmdns.join();
+      j.unregisterAllServices();
+      j.close();
+    } catch (CompletionException e) {
+      // mDNS did not start, so nothing was advertised
+    } catch (Exception e) {
+      logger.warn("Could not stop advertising", e);
+    }
   }
 
   public synchronized void setDiscoverable(boolean discoverable) throws IOException {
     if (this.discoverable != discoverable) {
       this.discoverable = discoverable;
       if (isAdvertising) {
-        logger.trace("Re-creating service due to change in discoverability to " + discoverable);
-        jmdns.unregisterAllServices();
-        registerService();
+        logger.trace("Re-creating service due to change in discoverability to {}", discoverable);
+        scheduleRegistration();
       }
     }
   }
@@ -71,23 +151,64 @@ public class JmdnsHomekitAdvertiser {
     if (this.configurationIndex != revision) {
       this.configurationIndex = revision;
       if (isAdvertising) {
-        logger.trace("Re-creating service due to change in configuration index to " + revision);
-        jmdns.unregisterAllServices();
-        registerService();
+        logger.trace("Re-creating service due to change in configuration index to {}", revision);
+        scheduleRegistration();
       }
     }
   }
 
-  private void registerService() throws IOException {
-    logger.info("Registering " + SERVICE_TYPE + " on port " + port);
+  private void scheduleRegistration() {
+    if (!registrationPending && !stopped) {
+      registrationPending = true;
+      registration = registration.thenRunAsync(this::registerService, executor);
+    }
+  }
+
+  /** Replaces the registered service with one for the current state. */
+  private void registerService() {
     Map<String, String> props = new HashMap<>();
-    props.put("sf", discoverable ? "1" : "0");
-    props.put("id", mac);
-    props.put("md", label);
-    props.put("c#", Integer.toString(configurationIndex));
-    props.put("s#", "1");
-    props.put("ff", "0");
-    props.put("ci", "1");
-    jmdns.registerService(ServiceInfo.create(SERVICE_TYPE, label, port, 1, 1, props));
+    int port;
+    String label;
+    synchronized (this) {
+      registrationPending = false;
+      if (stopped) {
+        return;
+      }
+      port = this.port;
+      label = this.label;
+      props.put("sf", discoverable ? "1" : "0");
+      props.put("id", mac);
+      props.put("md", label);
+      props.put("c#", Integer.toString(configurationIndex));
+      props.put("s#", "1");
+      props.put("ff", "0");
+      props.put("ci", "1");
+    }
+    logger.info("Registering " + SERVICE_TYPE + " on port " + port);
+    try {
+      JmDNS j = jmdns.join();
+      j.unregisterAllServices();
+      j.registerService(ServiceInfo.create(SERVICE_TYPE, label, port, 1, 1, props));
+    } catch (Exception e) {
+      logger.warn("Could not register " + SERVICE_TYPE + " on port " + port, e);
+    }
+  }
+
+  /** A thread of its own, for advertisers created without a runtime. */
+  private static Executor newExecutor() {
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            r -> {
+              Thread thread = new Thread(r, "homekit-mdns");
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
   }
 }
@@ -5,10 +5,9 @@ import io.github.hapjava.characteristics.Characteristic;
 import io.github.hapjava.server.impl.HomekitRegistry;
 import io.github.hapjava.server.impl.http.HttpResponse;
 import io.github.hapjava.services.Service;
-import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -26,40 +25,35 @@ public class AccessoryController {
     this.registry = registry;
   }
 
-  public HttpResponse listing() throws Exception {
-    JsonArrayBuilder accessories = Json.createArrayBuilder();
-
-    Map<Integer, List<CompletableFuture<JsonObject>>> accessoryServiceFutures = new HashMap<>();
+  public CompletableFuture<HttpResponse> listing() throws Exception {
+    Map<Integer, List<CompletableFuture<JsonObject>>> accessoryServiceFutures =
+        new LinkedHashMap<>();
+    List<CompletableFuture<JsonObject>> allServiceFutures = new ArrayList<>();
     for (HomekitAccessory accessory : registry.getAccessories()) {
       List<CompletableFuture<JsonObject>> serviceFutures = new ArrayList<>();
       for (Service service : registry.getServices(accessory.getId())) {
         serviceFutures.add(toJson(service));
       }
       accessoryServiceFutures.put(accessory.getId(), serviceFutures);
+      allServiceFutures.addAll(serviceFutures);
     }
 
-    Map<Integer, JsonArrayBuilder> serviceArrayBuilders = new HashMap<>();
-    for (Entry<Integer, List<CompletableFuture<JsonObject>>> entry :
-        accessoryServiceFutures.entrySet()) {
-      JsonArrayBuilder arr = Json.createArrayBuilder();
-      for (CompletableFuture<JsonObject> future : entry.getValue()) {
-        arr.add(future.join());
-      }
-      serviceArrayBuilders.put(entry.getKey(), arr);
-    }
-
-    for (HomekitAccessory accessory : registry.getAccessories()) {
-      accessories.add(
-          Json.createObjectBuilder()
-              .add("aid", accessory.getId())
-              .add("services", serviceArrayBuilders.get(accessory.getId())));
-    }
-
-    try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-      Json.createWriter(baos)
-          .write(Json.createObjectBuilder().add("accessories", accessories).build());
-      return new HapJsonResponse(baos.toByteArray());
-    }
+    return CompletableFuture.allOf(allServiceFutures.toArray(new CompletableFuture<?>[0]))
+        .thenApply(
+            v -> {
+              JsonArrayBuilder accessories = Json.createArrayBuilder();
+              for (Entry<Integer, List<CompletableFuture<JsonObject>>> entry :
+                  accessoryServiceFutures.entrySet()) {
+                JsonArrayBuilder services = Json.createArrayBuilder();
+                entry.getValue().forEach(future -> services.add(future.join()));
+                accessories.add(
+                    Json.createObjectBuilder()
+                        .add("aid", entry.getKey())
+                        .add("services", services));
+              }
+              return new HapJsonResponse(
+                  Json.createObjectBuilder().add("accessories", accessories).build());
+            });
   }
 
   private CompletableFuture<JsonObject> toJson(Service service) throws Exception {
@@ -4,12 +4,12 @@ import io.github.hapjava.characteristics.Characteristic;
 import io.github.hapjava.characteristics.EventableCharacteristic;
 import io.github.hapjava.server.impl.HomekitRegistry;
 import io.github.hapjava.server.impl.connections.SubscriptionManager;
+import io.github.hapjava.server.impl.http.ByteBufferInputStream;
 import io.github.hapjava.server.impl.http.HomekitClientConnection;
 import io.github.hapjava.server.impl.http.HttpRequest;
 import io.github.hapjava.server.impl.http.HttpResponse;
 import io.github.hapjava.server.impl.responses.NotFoundResponse;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -29,7 +29,7 @@ public class CharacteristicsController {
     this.subscriptions = subscriptions;
   }
 
-  public HttpResponse get(HttpRequest request) throws Exception {
+  public CompletableFuture<HttpResponse> get(HttpRequest request) throws Exception {
     String uri = request.getUri();
     // Characteristics are requested with /characteristics?id=1.1,2.1,3.1
     String query = uri.substring("/characteristics?id=".length());
@@ -39,7 +39,7 @@ public class CharacteristicsController {
       String[] parts = id.split("\\.");
       if (parts.length != 2) {
         logger.warn("Unexpected characteristics request: " + uri);
-        return new NotFoundResponse();
+        return CompletableFuture.completedFuture(new NotFoundResponse());
       }
       int aid = Integer.parseInt(parts[0]);
       int iid = Integer.parseInt(parts[1]);
@@ -67,25 +67,24 @@ public class CharacteristicsController {
             "Accessory " + aid + " has no characteristics or does not exist. Request: " + uri);
       }
     }
-    JsonArrayBuilder characteristics = Json.createArrayBuilder();
-    // transform the happy async world to the sad blocking world again
-    for (CompletableFuture<JsonObject> future : futureObjects) {
-      characteristics.add(
-          future.get()); // here we can block again, as all the futures were already started async
-    }
-    try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-      Json.createWriter(baos)
-          .write(
-              Json.createObjectBuilder().add("characteristics", characteristics.build()).build());
-      return new HapJsonResponse(baos.toByteArray());
-    }
+    // respond once all values are there, without holding a thread while waiting for them
+    return CompletableFuture.allOf(futureObjects.toArray(new CompletableFuture<?>[0]))
+        .thenApply(
+            v -> {
+              JsonArrayBuilder characteristics = Json.createArrayBuilder();
+              futureObjects.forEach(future -> characteristics.add(future.join()));
+              return new HapJsonResponse(
+                  Json.createObjectBuilder()
+                      .add("characteristics", characteristics.build())
+                      .build());
+            });
   }
 
   public HttpResponse put(HttpRequest request, HomekitClientConnection connection)
       throws Exception {
     subscriptions.batchUpdate();
     try {
-      try (ByteArrayInputStream bais = new ByteArrayInputStream(request.getBody())) {
+      try (InputStream bais = new ByteBufferInputStream(request.getBodyBuffer())) {
         JsonArray jsonCharacteristics =
             Json.createReader(bais).readObject().getJsonArray("characteristics");
         for (JsonValue value : jsonCharacteristics) {
@@ -0,0 +1,54 @@
+package io.github.hapjava.server.impl.json;
+
+import io.github.hapjava.server.impl.connections.PendingNotification;
+import io.github.hapjava.server.impl.http.DeferredHttpResponse;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * An event message that is only encoded into JSON when it is first written, i.e. on the event loop
+ * of the connection it is sent to, rather than on the thread that collected the changes. Like any
+ * {@link HapJsonResponse}, it is serialized straight into the outbound buffer.
+ */
+public class DeferredEventResponse implements DeferredHttpResponse {
+
+  private final Collection<PendingNotification> notifications;
+  // written by the thread encoding the response; encoding twice would yield the same message
+  private EventResponse message;
+
+  public DeferredEventResponse(Collection<PendingNotification> notifications) {
+    this.notifications = notifications;
+  }
+
+  private EventResponse message() {
+    if (message == null) {
+      try {
+        message = new EventController().getMessage(notifications);
+      } catch (Exception e) {
+        throw new IllegalStateException("Failed to create new event message", e);
+      }
+    }
+    return message;
+  }
+
+  @Override
+  public int getStatusCode() {
+    return 200;
+  }
+
+  @Override
+  public void writeBody(OutputStream out) {
+    message().writeBody(out);
+  }
+
+  @Override
+  public HttpVersion getVersion() {
+    return HttpVersion.EVENT_1_0;
+  }
+
+  @Override
+  public Map<String, String> getHeaders() {
+    return message().getHeaders();
+  }
+}
@@ -1,8 +1,10 @@
 package io.github.hapjava.server.impl.json;
 
+import javax.json.JsonStructure;
+
 public class EventResponse extends HapJsonResponse {
 
-  public EventResponse(byte[] body) {
+  public EventResponse(JsonStructure body) {
     super(body);
   }
 
@@ -3,7 +3,7 @@ package io.github.hapjava.server.impl.json;
 class HapJsonNoContentResponse extends HapJsonResponse {
 
   public HapJsonNoContentResponse() {
-    super(new byte[0]);
+    super(null);
   }
 
   @Override
@@ -1,11 +1,16 @@
 package io.github.hapjava.server.impl.json;
 
-import io.github.hapjava.server.impl.responses.OkResponse;
+import io.github.hapjava.server.impl.http.DeferredHttpResponse;
+import java.io.OutputStream;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import javax.json.Json;
+import javax.json.JsonStructure;
+import javax.json.JsonWriterFactory;
 
-class HapJsonResponse extends OkResponse {
+/** A JSON response, serialized straight into the outbound buffer of each connection. */
+class HapJsonResponse implements DeferredHttpResponse {
 
   private static final Map<String, String> headers =
       Collections.unmodifiableMap(
@@ -17,8 +22,32 @@ class HapJsonResponse extends OkResponse {
             }
           });
 
-  public HapJsonResponse(byte[] body) {
-    super(body);
+  // looks up the JSON provider once, rather than for every response
+  private static final JsonWriterFactory writerFactory =
+      Json.createWriterFactory(Collections.emptyMap());
+
+  private final JsonStructure body;
+
+  /**
+   * Creates a response.
+   *
+   * @param body the immutable body, or null for none
+   */
+  public HapJsonResponse(JsonStructure body) {
+    this.body = body;
+  }
+
+  @Override
+  public int getStatusCode() {
+    return 200;
+  }
+
+  @Override
+  public void writeBody(OutputStream out) {
+    if (body != null) {
+      // writing flushes, and closing the writer would close the stream
+      writerFactory.createWriter(out).write(body);
+    }
   }
 
   @Override
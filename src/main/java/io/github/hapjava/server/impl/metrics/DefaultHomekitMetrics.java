@@ -0,0 +1,280 @@
+package io.github.hapjava.server.impl.metrics;
+
+import io.github.hapjava.server.HomekitMetrics;
+import io.github.hapjava.server.impl.http.HapEndpoint;
+import java.net.SocketAddress;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the metrics of a root in memory: totals for the root, and counters for each open
+ * connection. Read them at any time, e.g. from a periodic task or a debug endpoint. Subclasses may
+ * override methods to additionally forward measurements, calling the super method.
+ */
+public class DefaultHomekitMetrics implements HomekitMetrics {
+
+  private final Map<HapEndpoint, LatencyHistogram> requests;
+  private final LongAdder errors = new LongAdder();
+  private final LongAdder bytesReceived = new LongAdder();
+  private final LongAdder bytesSent = new LongAdder();
+  private final LatencyHistogram decryption = new LatencyHistogram();
+  private final LatencyHistogram encryption = new LatencyHistogram();
+  private final LatencyHistogram handshakeQueue = new LatencyHistogram();
+  private final LatencyHistogram handshakes = new LatencyHistogram();
+  private final LongAdder handshakesRejected = new LongAdder();
+  private final LongAdder eventsPublished = new LongAdder();
+  private final LongAdder eventsFannedOut = new LongAdder();
+  private final LongAccumulator maxPendingNotifications = new LongAccumulator(Math::max, 0);
+  private final Map<SocketAddress, ConnectionMetrics> connections = new ConcurrentHashMap<>();
+
+  public DefaultHomekitMetrics() {
+    Map<HapEndpoint, LatencyHistogram> requests = new EnumMap<>(HapEndpoint.class);
+    for (HapEndpoint endpoint : HapEndpoint.values()) {
+      requests.put(endpoint, new LatencyHistogram());
+    }
+    this.requests = Collections.unmodifiableMap(requests);
+  }
+
+  @Override
+  public void connectionOpened(SocketAddress connection) {
+    connections.put(connection, new ConnectionMetrics());
+  }
+
+  @Override
+  public void connectionClosed(SocketAddress connection) {
+    connections.remove(connection);
+  }
+
+  @Override
+  public void requestHandled(
+      SocketAddress connection, HapEndpoint endpoint, int statusCode, long nanos) {
+    requests.get(endpoint).record(nanos);
+    if (statusCode >= 500) {
+      errors.increment();
+    }
+    ConnectionMetrics metrics = connections.get(connection);
+    if (metrics != null) {
+      metrics.requests.increment();
+    }
+  }
+
+  @Override
+  public void bytesReceived(SocketAddress connection, int bytes) {
+    bytesReceived.add(bytes);
+    ConnectionMetrics metrics = connections.get(connection);
+    if (metrics != null) {
+      metrics.bytesReceived.add(bytes);
+    }
+  }
+
+  @Override
+  public void bytesSent(SocketAddress connection, int bytes) {
+    bytesSent.add(bytes);
+    ConnectionMetrics metrics = connections.get(connection);
+    if (metrics != null) {
+      metrics.bytesSent.add(bytes);
+    }
+  }
+
+  @Override
+  public void decrypted(SocketAddress connection, int bytes, long nanos) {
+    decryption.record(nanos);
+    ConnectionMetrics metrics = connections.get(connection);
+    if (metrics != null) {
+      metrics.cryptoNanos.add(nanos);
+    }
+  }
+
+  @Override
+  public void encrypted(SocketAddress connection, int bytes, long nanos) {
+    encryption.record(nanos);
+    ConnectionMetrics metrics = connections.get(connection);
+    if (metrics != null) {
+      metrics.cryptoNanos.add(nanos);
+    }
+  }
+
+  @Override
+  public void handshakeHandled(
+      SocketAddress connection, HapEndpoint endpoint, long queuedNanos, long nanos) {
+    handshakeQueue.record(queuedNanos);
+    handshakes.record(nanos);
+  }
+
+  @Override
+  public void handshakeRejected(SocketAddress connection) {
+    handshakesRejected.increment();
+  }
+
+  @Override
+  public void eventPublished(int aid, int iid, int subscribers) {
+    eventsPublished.increment();
+    eventsFannedOut.add(subscribers);
+  }
+
+  @Override
+  public void notificationsPending(SocketAddress connection, int pending) {
+    maxPendingNotifications.accumulate(pending);
+    ConnectionMetrics metrics = connections.get(connection);
+    if (metrics != null) {
+      metrics.maxPendingNotifications.accumulate(pending);
+    }
+  }
+
+  /**
+   * The latencies of the requests to an endpoint.
+   *
+   * @param endpoint the endpoint
+   * @return the histogram of the endpoint
+   */
+  public LatencyHistogram getRequests(HapEndpoint endpoint) {
+    return requests.get(endpoint);
+  }
+
+  public long getErrors() {
+    return errors.sum();
+  }
+
+  public long getBytesReceived() {
+    return bytesReceived.sum();
+  }
+
+  public long getBytesSent() {
+    return bytesSent.sum();
+  }
+
+  public LatencyHistogram getDecryption() {
+    return decryption;
+  }
+
+  public LatencyHistogram getEncryption() {
+    return encryption;
+  }
+
+  /**
+   * The time pairings and pair verifications waited for a handshake thread.
+   *
+   * @return the histogram of the waiting times
+   */
+  public LatencyHistogram getHandshakeQueue() {
+    return handshakeQueue;
+  }
+
+  /**
+   * The time spent handling pairings and pair verifications, without waiting.
+   *
+   * @return the histogram of the handshakes
+   */
+  public LatencyHistogram getHandshakes() {
+    return handshakes;
+  }
+
+  public long getHandshakesRejected() {
+    return handshakesRejected.sum();
+  }
+
+  /**
+   * The number of characteristic changes that had subscribers.
+   *
+   * @return the number of published changes
+   */
+  public long getEventsPublished() {
+    return eventsPublished.sum();
+  }
+
+  /**
+   * The number of changes times the number of their subscribers, i.e. the work of the event
+   * fan-out.
+   *
+   * @return the number of changes delivered to connections
+   */
+  public long getEventsFannedOut() {
+    return eventsFannedOut.sum();
+  }
+
+  public long getMaxPendingNotifications() {
+    return maxPendingNotifications.get();
+  }
+
+  /**
+   * The metrics of the currently open connections.
+   *
+   * @return the metrics by the remote address of the controller
+   */
+  public Map<SocketAddress, ConnectionMetrics> getConnections() {
+    return Collections.unmodifiableMap(connections);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<HapEndpoint, LatencyHistogram> entry : requests.entrySet()) {
+      if (entry.getValue().getCount() > 0) {
+        sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+      }
+    }
+    sb.append("errors=").append(getErrors());
+    sb.append(" bytesReceived=").append(getBytesReceived());
+    sb.append(" bytesSent=").append(getBytesSent());
+    sb.append(" connections=").append(connections.size()).append('\n');
+    sb.append("decryption: ").append(decryption).append('\n');
+    sb.append("encryption: ").append(encryption).append('\n');
+    sb.append("handshakeQueue: ").append(handshakeQueue).append('\n');
+    sb.append("handshakes: ").append(handshakes);
+    sb.append(" rejected=").append(getHandshakesRejected()).append('\n');
+    sb.append("eventsPublished=").append(getEventsPublished());
+    sb.append(" eventsFannedOut=").append(getEventsFannedOut());
+    sb.append(" maxPendingNotifications=").append(getMaxPendingNotifications());
+    return sb.toString();
+  }
+
+  /** Counters of a single connection. */
+  public static class ConnectionMetrics {
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder cryptoNanos = new LongAdder();
+    private final LongAccumulator maxPendingNotifications = new LongAccumulator(Math::max, 0);
+
+    public long getRequests() {
+      return requests.sum();
+    }
+
+    public long getBytesReceived() {
+      return bytesReceived.sum();
+    }
+
+    public long getBytesSent() {
+      return bytesSent.sum();
+    }
+
+    /**
+     * Time spent encrypting and decrypting the traffic of this connection.
+     *
+     * @return the time in nanoseconds
+     */
+    public long getCryptoNanos() {
+      return cryptoNanos.sum();
+    }
+
+    public long getMaxPendingNotifications() {
+      return maxPendingNotifications.get();
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "requests=%d bytesReceived=%d bytesSent=%d cryptoNanos=%d maxPendingNotifications=%d",
+          getRequests(),
+          getBytesReceived(),
+          getBytesSent(),
+          getCryptoNanos(),
+          getMaxPendingNotifications());
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package io.github.hapjava.server.impl.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations. Bucket 0 counts durations below one microsecond, and bucket
+ * {@code i} counts durations of at least {@code 2^(i-1)} and below {@code 2^i} microseconds. The
+ * last bucket also counts all longer durations. Percentiles are accurate to a factor of two, which
+ * is enough to spot slow accessories or expensive endpoints.
+ */
+public class LatencyHistogram {
+
+  private static final int BUCKETS = 32;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+  public void record(long nanos) {
+    // a clock going backwards counts as no time
+    nanos = Math.max(0, nanos);
+    long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+    int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    buckets.incrementAndGet(bucket);
+    count.increment();
+    totalNanos.add(nanos);
+    maxNanos.accumulate(nanos);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getTotalNanos() {
+    return totalNanos.sum();
+  }
+
+  public long getMaxNanos() {
+    return maxNanos.get();
+  }
+
+  public long getMeanNanos() {
+    long count = getCount();
+    return count == 0 ? 0 : getTotalNanos() / count;
+  }
+
+  /**
+   * Estimates a percentile by the upper bound of the bucket it falls into, or by the maximum if
+   * that is lower or the percentile falls into the last bucket.
+   *
+   * @param percentile the percentile, between 0 and 100
+   * @return the upper bound of the percentile in nanoseconds, or 0 if nothing was recorded
+   */
+  public long getPercentileNanos(double percentile) {
+    long count = getCount();
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS - 1; i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(TimeUnit.MICROSECONDS.toNanos(1L << i), getMaxNanos());
+      }
+    }
+    return getMaxNanos();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "count=%d mean=%dus p50=%dus p99=%dus max=%dus",
+        getCount(),
+        TimeUnit.NANOSECONDS.toMicros(getMeanNanos()),
+        TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(50)),
+        TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(99)),
+        TimeUnit.NANOSECONDS.toMicros(getMaxNanos()));
+  }
+}
@@ -0,0 +1,96 @@
+package io.github.hapjava.server.impl.pairing;
+
+import java.math.BigInteger;
+
+/**
+ * Computes powers of a fixed base modulo a fixed modulus, such as {@code g^b mod N} in SRP. The
+ * powers {@code base^(2^(w*i))} are computed once; an exponent is then split into w bit digits and
+ * the power is assembled from the table with Yao's method, which needs about {@code bits/w +
+ * 2^(w+1)} modular multiplications and no squarings, against about {@code bits} squarings for
+ * {@link BigInteger#modPow}. The multiplications reduce with a precomputed Barrett reciprocal,
+ * which is several times cheaper than {@link BigInteger#mod}.
+ *
+ * <p>Instances are immutable and thread safe.
+ */
+final class FixedBaseExponentiation {
+
+  static final int DEFAULT_WINDOW = 6;
+
+  private final BigInteger base;
+  private final BigInteger modulus;
+  private final int modulusBits;
+  private final BigInteger reciprocal;
+  private final int window;
+  private final BigInteger[] powers;
+
+  FixedBaseExponentiation(BigInteger base, BigInteger modulus) {
+    this(base, modulus, DEFAULT_WINDOW);
+  }
+
+  FixedBaseExponentiation(BigInteger base, BigInteger modulus, int window) {
+    if (modulus.signum() <= 0 || base.signum() < 0 || base.compareTo(modulus) >= 0) {
+      throw new IllegalArgumentException("The base must be in [0, modulus)");
+    }
+    if (window < 1 || window > 16) {
+      throw new IllegalArgumentException("The window must be between 1 and 16 bits");
+    }
+    this.base = base;
+    this.modulus = modulus;
+    this.modulusBits = modulus.bitLength();
+    this.reciprocal = BigInteger.ONE.shiftLeft(2 * modulusBits).divide(modulus);
+    this.window = window;
+    this.powers = new BigInteger[(modulusBits + window - 1) / window];
+    BigInteger power = base;
+    for (int i = 0; i < powers.length; i++) {
+      powers[i] = power;
+      for (int j = 0; j < window; j++) {
+        power = reduce(power.multiply(power));
+      }
+    }
+  }
+
+  /**
+   * Computes {@code base^exponent mod modulus}.
+   *
+   * @param exponent a non-negative exponent
+   * @return the power, the same as {@code base.modPow(exponent, modulus)}
+   */
+  BigInteger pow(BigInteger exponent) {
+    if (exponent.signum() < 0 || exponent.bitLength() > powers.length * window) {
+      return base.modPow(exponent, modulus);
+    }
+    int[] digits = new int[powers.length];
+    int maxDigit = 0;
+    for (int i = 0; i < digits.length; i++) {
+      int digit = 0;
+      for (int j = window - 1; j >= 0; j--) {
+        digit = (digit << 1) | (exponent.testBit(i * window + j) ? 1 : 0);
+      }
+      digits[i] = digit;
+      maxDigit = Math.max(maxDigit, digit);
+    }
+    // after step d, partial is the product of the powers with a digit of at least d; multiplying
+    // it into the result at every step counts each power d times
+    BigInteger result = BigInteger.ONE;
+    BigInteger partial = BigInteger.ONE;
+    for (int d = maxDigit; d > 0; d--) {
+      for (int i = 0; i < digits.length; i++) {
+        if (digits[i] == d) {
+          partial = partial == BigInteger.ONE ? powers[i] : reduce(partial.multiply(powers[i]));
+        }
+      }
+      result = result == BigInteger.ONE ? partial : reduce(result.multiply(partial));
+    }
+    return result.mod(modulus);
+  }
+
+  /** Barrett reduction of a product of two values below the modulus. */
+  private BigInteger reduce(BigInteger x) {
+    BigInteger q = x.shiftRight(modulusBits - 1).multiply(reciprocal).shiftRight(modulusBits + 1);
+    BigInteger r = x.subtract(q.multiply(modulus));
+    while (r.compareTo(modulus) >= 0) {
+      r = r.subtract(modulus);
+    }
+    return r;
+  }
+}
@@ -8,6 +8,7 @@ import com.nimbusds.srp6.SRP6ServerEvidenceContext;
 import com.nimbusds.srp6.SRP6Session;
 import com.nimbusds.srp6.URoutineContext;
 import java.math.BigInteger;
+import java.util.function.Supplier;
 
 /**
  * This is a slightly modified version of the SRP6ServerSession class included with nimbus. The only
@@ -74,6 +75,9 @@ public class HomekitSRP6ServerSession extends SRP6Session {
   /** The current SRP-6a auth state. */
   private State state;
 
+  /** The source of pre-generated 'b' and 'g^b' values, or {@code null} to generate them here. */
+  private final Supplier<Ephemeral> ephemerals;
+
   /**
    * Creates a new server-side SRP-6a authentication session and sets its state to {@link
    * State#INIT}.
@@ -85,8 +89,25 @@ public class HomekitSRP6ServerSession extends SRP6Session {
    */
   public HomekitSRP6ServerSession(final SRP6CryptoParams config, final int timeout) {
 
+    this(config, timeout, null);
+  }
+
+  /**
+   * Creates a new server-side SRP-6a authentication session that takes its private value 'b' and
+   * 'g^b' from a supplier, and sets its state to {@link State#INIT}.
+   *
+   * @param config The SRP-6a crypto parameters configuration. Must not be {@code null}.
+   * @param timeout The SRP-6a authentication session timeout in seconds, zero to disable timeouts.
+   * @param ephemerals Supplies a fresh 'b' for the 'N' and 'g' of the configuration, or {@code
+   *     null}.
+   */
+  HomekitSRP6ServerSession(
+      final SRP6CryptoParams config, final int timeout, final Supplier<Ephemeral> ephemerals) {
+
     super(timeout);
 
+    this.ephemerals = ephemerals;
+
     if (config == null)
       throw new IllegalArgumentException("The SRP-6a crypto parameters must not be null");
 
@@ -154,10 +175,14 @@ public class HomekitSRP6ServerSession extends SRP6Session {
     k = SRP6Routines.computeK(digest, config.N, config.g);
     digest.reset();
 
-    b = HomekitSRP6Routines.generatePrivateValue(config.N, random);
-    digest.reset();
-
-    B = SRP6Routines.computePublicServerValue(config.N, config.g, k, v, b);
+    if (ephemerals != null) {
+      Ephemeral ephemeral = ephemerals.get();
+      b = ephemeral.b;
+      B = ephemeral.gb.add(v.multiply(k)).mod(config.N);
+    } else {
+      b = HomekitSRP6Routines.generatePrivateValue(config.N, random);
+      B = SRP6Routines.computePublicServerValue(config.N, config.g, k, v, b);
+    }
 
     state = State.STEP_1;
 
@@ -284,6 +309,18 @@ public class HomekitSRP6ServerSession extends SRP6Session {
     return M2;
   }
 
+  /** A server private value 'b' with 'g^b mod N', which is independent of the user. */
+  static final class Ephemeral {
+
+    final BigInteger b;
+    final BigInteger gb;
+
+    Ephemeral(final BigInteger b, final BigInteger gb) {
+      this.b = b;
+      this.gb = gb;
+    }
+  }
+
   /**
    * Returns the current state of this SRP-6a authentication session.
    *
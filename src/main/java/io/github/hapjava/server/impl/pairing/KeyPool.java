@@ -0,0 +1,153 @@
+package io.github.hapjava.server.impl.pairing;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A small stock of pre-generated ephemeral key material, so handshakes do not wait for key
+ * generation. Each item is handed out once. An empty pool generates on the calling thread instead.
+ *
+ * <p>The stock is refilled on a background thread shared by all pools, but only once no item has
+ * been taken for {@link #QUIET_MILLIS}: during a burst of handshakes the pool drains, and the
+ * refill does not compete with the handshakes for the CPU. Thread safe.
+ */
+final class KeyPool<T> {
+
+  private static final Logger logger = LoggerFactory.getLogger(KeyPool.class);
+
+  static final long QUIET_MILLIS = 100;
+
+  private static final ScheduledThreadPoolExecutor refiller = newRefiller();
+
+  private final BlockingQueue<T> stock;
+  private final Supplier<T> generator;
+  private final String name;
+  private final LongSupplier clock;
+  private final Scheduler scheduler;
+  private long lastTakeNanos;
+  private boolean refillScheduled;
+
+  /**
+   * Creates a pool, which starts filling after the quiet period.
+   *
+   * @param name the key material, for logging
+   * @param capacity the number of items kept in stock, or 0 to always generate on demand
+   * @param generator generates an item, on the refill thread or on a taking thread
+   */
+  KeyPool(String name, int capacity, Supplier<T> generator) {
+    this(
+        name,
+        capacity,
+        generator,
+        System::nanoTime,
+        (task, delayNanos) -> refiller.schedule(task, delayNanos, TimeUnit.NANOSECONDS));
+  }
+
+  /**
+   * Creates a pool with its own time source and refill thread, for tests.
+   *
+   * @param clock the current time in nanoseconds
+   * @param scheduler runs the refills
+   */
+  KeyPool(
+      String name, int capacity, Supplier<T> generator, LongSupplier clock, Scheduler scheduler) {
+    this.name = name;
+    this.generator = generator;
+    this.clock = clock;
+    this.scheduler = scheduler;
+    this.stock = capacity > 0 ? new ArrayBlockingQueue<>(capacity) : null;
+    if (stock != null) {
+      scheduleRefill();
+    }
+  }
+
+  /**
+   * Takes an item from the stock, or generates one if the stock is empty.
+   *
+   * @return an item no other caller gets
+   */
+  T take() {
+    if (stock == null) {
+      return generator.get();
+    }
+    T item = stock.poll();
+    scheduleRefill();
+    return item != null ? item : generator.get();
+  }
+
+  /**
+   * Fills the stock on the calling thread, without waiting for the quiet period. For handshakes
+   * that are expected soon, e.g. after a start.
+   */
+  void fill() {
+    if (stock != null) {
+      while (stock.remainingCapacity() > 0) {
+        stock.offer(generator.get());
+      }
+    }
+  }
+
+  /** Number of items in stock. */
+  int size() {
+    return stock != null ? stock.size() : 0;
+  }
+
+  private synchronized void scheduleRefill() {
+    lastTakeNanos = clock.getAsLong();
+    if (!refillScheduled) {
+      refillScheduled = true;
+      scheduler.schedule(this::refill, TimeUnit.MILLISECONDS.toNanos(QUIET_MILLIS));
+    }
+  }
+
+  private void refill() {
+    try {
+      while (true) {
+        long wait;
+        synchronized (this) {
+          wait = lastTakeNanos + TimeUnit.MILLISECONDS.toNanos(QUIET_MILLIS) - clock.getAsLong();
+          if (wait <= 0 && stock.remainingCapacity() == 0) {
+            refillScheduled = false;
+            return;
+          }
+        }
+        if (wait > 0) {
+          // taken from meanwhile, wait until it is quiet again
+          scheduler.schedule(this::refill, wait);
+          return;
+        }
+        stock.offer(generator.get());
+      }
+    } catch (RuntimeException e) {
+      logger.warn("Could not generate " + name, e);
+      synchronized (this) {
+        refillScheduled = false;
+      }
+    }
+  }
+
+  /** Runs a task after a delay. */
+  interface Scheduler {
+    void schedule(Runnable task, long delayNanos);
+  }
+
+  private static ScheduledThreadPoolExecutor newRefiller() {
+    ScheduledThreadPoolExecutor executor =
+        new ScheduledThreadPoolExecutor(
+            1,
+            r -> {
+              Thread thread = new Thread(r, "homekit-key-pool");
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.setKeepAliveTime(1, TimeUnit.MINUTES);
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+}
@@ -0,0 +1,117 @@
+package io.github.hapjava.server.impl.pairing;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The shared secrets of recently verified sessions by session ID, so that a controller reconnecting
+ * within the lifetime of its session can resume it with pair-resume instead of a full pair-verify.
+ * The number of sessions is bounded, evicting the oldest. Each session can be resumed once, which
+ * yields a new session. Thread safe.
+ */
+public class PairResumeCache {
+
+  /** The default number of sessions kept, enough for a few controllers per home. */
+  public static final int DEFAULT_MAX_SESSIONS = 128;
+
+  /** The default lifetime of a session. */
+  public static final long DEFAULT_LIFETIME_MILLIS = TimeUnit.HOURS.toMillis(8);
+
+  static final int SESSION_ID_LENGTH = 8;
+
+  private final int maxSessions;
+  private final long lifetimeNanos;
+  // in insertion order, which is also the order of expiry
+  private final Map<Long, Session> sessions = new LinkedHashMap<>();
+
+  public PairResumeCache() {
+    this(DEFAULT_MAX_SESSIONS, DEFAULT_LIFETIME_MILLIS);
+  }
+
+  /**
+   * Creates a cache.
+   *
+   * @param maxSessions the number of sessions kept
+   * @param lifetimeMillis the time in which a session can be resumed
+   */
+  public PairResumeCache(int maxSessions, long lifetimeMillis) {
+    if (maxSessions < 1) {
+      throw new IllegalArgumentException("maxSessions must be at least 1");
+    }
+    this.maxSessions = maxSessions;
+    this.lifetimeNanos = TimeUnit.MILLISECONDS.toNanos(lifetimeMillis);
+  }
+
+  synchronized void put(byte[] sessionId, byte[] sharedSecret, String username) {
+    long now = System.nanoTime();
+    removeExpired(now);
+    if (sessions.size() >= maxSessions) {
+      Iterator<Session> oldest = sessions.values().iterator();
+      oldest.next();
+      oldest.remove();
+    }
+    sessions.put(key(sessionId), new Session(sharedSecret, username, now + lifetimeNanos));
+  }
+
+  /**
+   * Looks up a session that has not expired.
+   *
+   * @param sessionId the 8 byte session ID
+   * @return the session, or null
+   */
+  synchronized Session get(byte[] sessionId) {
+    removeExpired(System.nanoTime());
+    return sessions.get(key(sessionId));
+  }
+
+  /**
+   * Removes a session once it has been resumed.
+   *
+   * @param sessionId the 8 byte session ID
+   * @param session the session found by {@link #get(byte[])}
+   * @return false if the session has been resumed or has expired in the meantime
+   */
+  synchronized boolean remove(byte[] sessionId, Session session) {
+    return sessions.remove(key(sessionId), session);
+  }
+
+  synchronized int size() {
+    return sessions.size();
+  }
+
+  private void removeExpired(long now) {
+    Iterator<Session> iterator = sessions.values().iterator();
+    while (iterator.hasNext() && iterator.next().expires - now <= 0) {
+      iterator.remove();
+    }
+  }
+
+  private static Long key(byte[] sessionId) {
+    return ByteBuffer.wrap(sessionId).getLong();
+  }
+
+  static final class Session {
+
+    private final byte[] sharedSecret;
+    private final String username;
+    private final long expires;
+
+    private Session(byte[] sharedSecret, String username, long expires) {
+      this.sharedSecret = sharedSecret;
+      this.username = username;
+      this.expires = expires;
+    }
+
+    byte[] getSharedSecret() {
+      return sharedSecret;
+    }
+
+    /** The username of the controller, as passed to the auth info. */
+    String getUsername() {
+      return username;
+    }
+  }
+}
@@ -3,6 +3,7 @@ package io.github.hapjava.server.impl.pairing;
 import djb.Curve25519;
 import io.github.hapjava.server.HomekitAuthInfo;
 import io.github.hapjava.server.impl.HomekitRegistry;
+import io.github.hapjava.server.impl.crypto.AeadProvider;
 import io.github.hapjava.server.impl.crypto.ChachaDecoder;
 import io.github.hapjava.server.impl.crypto.ChachaEncoder;
 import io.github.hapjava.server.impl.crypto.EdsaSigner;
@@ -15,6 +16,7 @@ import io.github.hapjava.server.impl.pairing.TypeLengthValueUtils.DecodeResult;
 import io.github.hapjava.server.impl.pairing.TypeLengthValueUtils.Encoder;
 import io.github.hapjava.server.impl.responses.NotFoundResponse;
 import io.github.hapjava.server.impl.responses.OkResponse;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import org.bouncycastle.crypto.digests.SHA512Digest;
@@ -30,6 +32,7 @@ public class PairVerificationManager {
 
   private final HomekitAuthInfo authInfo;
   private final HomekitRegistry registry;
+  private final PairResumeCache resumeCache;
 
   private byte[] hkdfKey;
   private byte[] clientPublicKey;
@@ -37,15 +40,38 @@ public class PairVerificationManager {
   private byte[] sharedSecret;
 
   public PairVerificationManager(HomekitAuthInfo authInfo, HomekitRegistry registry) {
+    this(authInfo, registry, null);
+  }
+
+  /**
+   * Creates the pair verification of a connection.
+   *
+   * @param authInfo the auth info
+   * @param registry the registry
+   * @param resumeCache the sessions controllers can resume, shared by all connections, or null to
+   *     always verify in full
+   */
+  public PairVerificationManager(
+      HomekitAuthInfo authInfo, HomekitRegistry registry, PairResumeCache resumeCache) {
     this.authInfo = authInfo;
     this.registry = registry;
+    this.resumeCache = resumeCache;
+  }
+
+  /**
+   * Pre-generates the ephemeral key pairs of pair verification, so the controllers connecting after
+   * a start do not wait for key generation. Worth calling while the accessory is paired.
+   */
+  public static void precompute() {
+    EphemeralKeyPair.POOL.fill();
   }
 
   public HttpResponse handle(HttpRequest rawRequest) throws Exception {
     PairVerificationRequest request = PairVerificationRequest.of(rawRequest.getBody());
     switch (request.getStage()) {
       case ONE:
-        return stage1((Stage1Request) request);
+        Stage1Request stage1 = (Stage1Request) request;
+        return stage1.isResume() && resumeCache != null ? resume(stage1) : stage1(stage1);
 
       case TWO:
         return stage2((Stage2Request) request);
@@ -56,15 +82,13 @@ public class PairVerificationManager {
   }
 
   private HttpResponse stage1(Stage1Request request) throws Exception {
-    logger.trace("Starting pair verification for " + registry.getLabel());
+    logger.trace("Starting pair verification for {}", registry.getLabel());
     clientPublicKey = request.getClientPublicKey();
-    publicKey = new byte[32];
-    byte[] privateKey = new byte[32];
-    getSecureRandom().nextBytes(privateKey);
-    Curve25519.keygen(publicKey, null, privateKey);
+    EphemeralKeyPair keyPair = EphemeralKeyPair.POOL.take();
+    publicKey = keyPair.publicKey;
 
     sharedSecret = new byte[32];
-    Curve25519.curve(sharedSecret, privateKey, clientPublicKey);
+    Curve25519.curve(sharedSecret, keyPair.privateKey, clientPublicKey);
 
     byte[] material =
         ByteUtils.joinBytes(
@@ -72,14 +96,7 @@ public class PairVerificationManager {
 
     byte[] proof = new EdsaSigner(authInfo.getPrivateKey()).sign(material);
 
-    HKDFBytesGenerator hkdf = new HKDFBytesGenerator(new SHA512Digest());
-    hkdf.init(
-        new HKDFParameters(
-            sharedSecret,
-            "Pair-Verify-Encrypt-Salt".getBytes(StandardCharsets.UTF_8),
-            "Pair-Verify-Encrypt-Info".getBytes(StandardCharsets.UTF_8)));
-    hkdfKey = new byte[32];
-    hkdf.generateBytes(hkdfKey, 0, 32);
+    hkdfKey = hkdf(sharedSecret, bytes("Pair-Verify-Encrypt-Salt"), "Pair-Verify-Encrypt-Info", 32);
 
     Encoder encoder = TypeLengthValueUtils.getEncoder();
     encoder.add(MessageType.USERNAME, authInfo.getMac().getBytes(StandardCharsets.UTF_8));
@@ -106,9 +123,8 @@ public class PairVerificationManager {
 
     byte[] material = ByteUtils.joinBytes(clientPublicKey, clientUsername, publicKey);
 
-    byte[] clientLtpk =
-        authInfo.getUserPublicKey(
-            authInfo.getMac() + new String(clientUsername, StandardCharsets.UTF_8));
+    String username = authInfo.getMac() + new String(clientUsername, StandardCharsets.UTF_8);
+    byte[] clientLtpk = authInfo.getUserPublicKey(username);
     if (clientLtpk == null) {
       throw new Exception("Unknown user: " + new String(clientUsername, StandardCharsets.UTF_8));
     }
@@ -116,7 +132,18 @@ public class PairVerificationManager {
     Encoder encoder = TypeLengthValueUtils.getEncoder();
     if (new EdsaVerifier(clientLtpk).verify(material, clientSignature)) {
       encoder.add(MessageType.STATE, (short) 4);
-      logger.trace("Completed pair verification for " + registry.getLabel());
+      logger.trace("Completed pair verification for {}", registry.getLabel());
+      if (resumeCache != null) {
+        // the controller derives the same session ID to resume the session with
+        resumeCache.put(
+            hkdf(
+                sharedSecret,
+                bytes("Pair-Verify-ResumeSessionID-Salt"),
+                "Pair-Verify-ResumeSessionID-Info",
+                PairResumeCache.SESSION_ID_LENGTH),
+            sharedSecret,
+            username);
+      }
       return new UpgradeResponse(
           encoder.toByteArray(),
           createKey("Control-Write-Encryption-Key"),
@@ -128,18 +155,83 @@ public class PairVerificationManager {
     }
   }
 
+  /**
+   * Resumes a session of a previous pair-verify or pair-resume, in a single round trip and without
+   * the Curve25519 and Ed25519 operations of a full pair-verify: the previous shared secret
+   * authenticates both sides, and the new shared secret is derived from it and the new session ID.
+   * If the session is unknown, expired or the request cannot be verified, the request is answered
+   * as the first request of a full pair-verify, with its public key.
+   */
+  private HttpResponse resume(Stage1Request request) throws Exception {
+    byte[] sessionId = request.getSessionId();
+    PairResumeCache.Session session =
+        sessionId.length == PairResumeCache.SESSION_ID_LENGTH ? resumeCache.get(sessionId) : null;
+    // a pairing removed since the session was verified must not resume
+    if (session == null || authInfo.getUserPublicKey(session.getUsername()) == null) {
+      logger.trace("Unknown session, verifying pairing for {} in full", registry.getLabel());
+      return stage1(request);
+    }
+    clientPublicKey = request.getClientPublicKey();
+    byte[] previousSecret = session.getSharedSecret();
+    byte[] requestTag = request.getAuthTagData();
+    // any malformed or unverifiable request is rejected as a resume, never answered with an error
+    try {
+      if (requestTag == null || requestTag.length != AeadProvider.TAG_LENGTH) {
+        throw new IOException("Invalid authentication tag");
+      }
+      byte[] requestKey =
+          hkdf(
+              previousSecret,
+              ByteUtils.joinBytes(clientPublicKey, sessionId),
+              "Pair-Resume-Request-Info",
+              32);
+      new ChachaDecoder(requestKey, bytes("PR-Msg01")).decodeCiphertext(requestTag, new byte[0]);
+    } catch (Exception e) {
+      logger.debug(
+          "Invalid pair resume request, verifying pairing for {} in full", registry.getLabel());
+      return stage1(request);
+    }
+    if (!resumeCache.remove(sessionId, session)) {
+      // resumed by a concurrent connection
+      return stage1(request);
+    }
+
+    byte[] newSessionId = new byte[PairResumeCache.SESSION_ID_LENGTH];
+    getSecureRandom().nextBytes(newSessionId);
+    byte[] salt = ByteUtils.joinBytes(clientPublicKey, newSessionId);
+    byte[] responseKey = hkdf(previousSecret, salt, "Pair-Resume-Response-Info", 32);
+    byte[] authTag =
+        new ChachaEncoder(responseKey, bytes("PR-Msg02")).encodeCiphertext(new byte[0]);
+    sharedSecret = hkdf(previousSecret, salt, "Pair-Resume-Shared-Secret-Info", 32);
+    resumeCache.put(newSessionId, sharedSecret, session.getUsername());
+
+    Encoder encoder = TypeLengthValueUtils.getEncoder();
+    encoder.add(MessageType.STATE, (short) 2);
+    encoder.add(MessageType.SESSION_ID, newSessionId);
+    encoder.add(MessageType.ENCRYPTED_DATA, authTag);
+    logger.trace("Resumed pair verification for {}", registry.getLabel());
+    return new UpgradeResponse(
+        encoder.toByteArray(),
+        createKey("Control-Write-Encryption-Key"),
+        createKey("Control-Read-Encryption-Key"));
+  }
+
   private byte[] createKey(String info) {
+    return hkdf(sharedSecret, bytes("Control-Salt"), info, 32);
+  }
+
+  private static byte[] hkdf(byte[] secret, byte[] salt, String info, int length) {
     HKDFBytesGenerator hkdf = new HKDFBytesGenerator(new SHA512Digest());
-    hkdf.init(
-        new HKDFParameters(
-            sharedSecret,
-            "Control-Salt".getBytes(StandardCharsets.UTF_8),
-            info.getBytes(StandardCharsets.UTF_8)));
-    byte[] key = new byte[32];
-    hkdf.generateBytes(key, 0, 32);
+    hkdf.init(new HKDFParameters(secret, salt, bytes(info)));
+    byte[] key = new byte[length];
+    hkdf.generateBytes(key, 0, length);
     return key;
   }
 
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
   private static SecureRandom getSecureRandom() {
     if (secureRandom == null) {
       synchronized (PairVerificationManager.class) {
@@ -150,4 +242,21 @@ public class PairVerificationManager {
     }
     return secureRandom;
   }
+
+  private static class EphemeralKeyPair {
+
+    // enough for the controllers of a home reconnecting at once
+    static final KeyPool<EphemeralKeyPair> POOL =
+        new KeyPool<>("Curve25519 key pair", 16, EphemeralKeyPair::generate);
+
+    final byte[] privateKey = new byte[32];
+    final byte[] publicKey = new byte[32];
+
+    static EphemeralKeyPair generate() {
+      EphemeralKeyPair keyPair = new EphemeralKeyPair();
+      getSecureRandom().nextBytes(keyPair.privateKey);
+      Curve25519.keygen(keyPair.publicKey, null, keyPair.privateKey);
+      return keyPair;
+    }
+  }
 }
@@ -26,16 +26,42 @@ abstract class PairVerificationRequest {
 
   static class Stage1Request extends PairVerificationRequest {
 
+    private static final short METHOD_PAIR_RESUME = 6;
+
     private final byte[] clientPublicKey;
+    private final boolean resume;
+    private final byte[] sessionId;
+    private final byte[] authTagData;
 
     public Stage1Request(DecodeResult d) {
       clientPublicKey = d.getBytes(MessageType.PUBLIC_KEY);
+      resume =
+          d.contains(MessageType.METHOD)
+              && d.getByte(MessageType.METHOD) == METHOD_PAIR_RESUME
+              && d.contains(MessageType.SESSION_ID)
+              && d.contains(MessageType.ENCRYPTED_DATA);
+      sessionId = resume ? d.getBytes(MessageType.SESSION_ID) : null;
+      // the encrypted data of a resume request is empty, i.e. only the tag
+      authTagData = resume ? d.getBytes(MessageType.ENCRYPTED_DATA) : null;
     }
 
     public byte[] getClientPublicKey() {
       return clientPublicKey;
     }
 
+    /** Whether the controller asks to resume a previous session, with pair-resume. */
+    public boolean isResume() {
+      return resume;
+    }
+
+    public byte[] getSessionId() {
+      return sessionId;
+    }
+
+    public byte[] getAuthTagData() {
+      return authTagData;
+    }
+
     @Override
     Stage getStage() {
       return Stage.ONE;
@@ -23,15 +23,23 @@ public class PairingManager {
     this.registry = registry;
   }
 
+  /**
+   * Computes the tables and pre-generates the key material used by pair-setup, so the first pairing
+   * attempt does not wait for them. Worth calling while the accessory is not paired yet.
+   */
+  public static void precompute() {
+    SrpHandler.precompute();
+  }
+
   public HttpResponse handle(HttpRequest httpRequest) throws Exception {
     PairSetupRequest req = PairSetupRequest.of(httpRequest.getBody());
 
     if (req.getStage() == Stage.ONE) {
-      logger.trace("Starting pair for " + registry.getLabel());
-      srpHandler = new SrpHandler(authInfo.getPin(), authInfo.getSalt());
+      logger.trace("Starting pair for {}", registry.getLabel());
+      srpHandler = new SrpHandler(authInfo);
       return srpHandler.handle(req);
     } else if (req.getStage() == Stage.TWO) {
-      logger.trace("Entering second stage of pair for " + registry.getLabel());
+      logger.trace("Entering second stage of pair for {}", registry.getLabel());
       if (srpHandler == null) {
         logger.warn("Received unexpected stage 2 request for " + registry.getLabel());
         return new UnauthorizedResponse();
@@ -45,7 +53,7 @@ public class PairingManager {
         }
       }
     } else if (req.getStage() == Stage.THREE) {
-      logger.trace("Entering third stage of pair for " + registry.getLabel());
+      logger.trace("Entering third stage of pair for {}", registry.getLabel());
       if (srpHandler == null) {
         logger.warn("Received unexpected stage 3 request for " + registry.getLabel());
         return new UnauthorizedResponse();
@@ -1,7 +1,9 @@
 package io.github.hapjava.server.impl.pairing;
 
 import com.nimbusds.srp6.*;
+import io.github.hapjava.server.HomekitAuthInfo;
 import io.github.hapjava.server.impl.http.HttpResponse;
+import io.github.hapjava.server.impl.pairing.HomekitSRP6ServerSession.Ephemeral;
 import io.github.hapjava.server.impl.pairing.HomekitSRP6ServerSession.State;
 import io.github.hapjava.server.impl.pairing.PairSetupRequest.Stage2Request;
 import io.github.hapjava.server.impl.pairing.TypeLengthValueUtils.Encoder;
@@ -9,7 +11,11 @@ import io.github.hapjava.server.impl.responses.ConflictResponse;
 import io.github.hapjava.server.impl.responses.NotFoundResponse;
 import java.math.BigInteger;
 import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,20 +28,29 @@ class SrpHandler {
   private static final BigInteger G = BigInteger.valueOf(5);
   private static final String IDENTIFIER = "Pair-Setup";
 
+  static final SRP6CryptoParams CONFIG = new SRP6CryptoParams(N_3072, G, "SHA-512");
+  // pair-setup is rare, a few pairing attempts in a row
+  private static final int POOLED_EPHEMERALS = 2;
+
   private static final Logger logger = LoggerFactory.getLogger(SrpHandler.class);
 
+  // The verifier only depends on the pin and salt, which rarely change. One per accessory server,
+  // as a server pairs on several connections, and several servers may share the JVM.
+  private static final Map<HomekitAuthInfo, Verifier> verifiers =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
+  private final HomekitAuthInfo authInfo;
   private final BigInteger salt;
   private final HomekitSRP6ServerSession session;
-  private final SRP6CryptoParams config;
   private final String pin;
 
-  public SrpHandler(String pin, BigInteger salt) {
-    config = new SRP6CryptoParams(N_3072, G, "SHA-512");
-    session = new HomekitSRP6ServerSession(config);
+  public SrpHandler(HomekitAuthInfo authInfo) {
+    session = new HomekitSRP6ServerSession(CONFIG, 0, Generator.EPHEMERALS::take);
     session.setClientEvidenceRoutine(new ClientEvidenceRoutineImpl());
     session.setServerEvidenceRoutine(new ServerEvidenceRoutineImpl());
-    this.pin = pin;
-    this.salt = salt;
+    this.authInfo = authInfo;
+    this.pin = authInfo.getPin();
+    this.salt = authInfo.getSalt();
   }
 
   public HttpResponse handle(PairSetupRequest request) throws Exception {
@@ -57,9 +72,7 @@ class SrpHandler {
       return new ConflictResponse();
     }
 
-    SRP6VerifierGenerator verifierGenerator = new SRP6VerifierGenerator(config);
-    verifierGenerator.setXRoutine(new XRoutineWithUserIdentity());
-    BigInteger verifier = verifierGenerator.generateVerifier(salt, IDENTIFIER, pin);
+    BigInteger verifier = getVerifier(authInfo, pin, salt);
 
     Encoder encoder = TypeLengthValueUtils.getEncoder();
     encoder.add(MessageType.STATE, (short) 0x02);
@@ -80,6 +93,33 @@ class SrpHandler {
     return new PairingResponse(encoder.toByteArray());
   }
 
+  /**
+   * Computes the powers of 'g' and fills the pool of ephemerals on the calling thread, ahead of the
+   * first attempt.
+   */
+  static void precompute() {
+    Generator.EPHEMERALS.fill();
+  }
+
+  /**
+   * The verifier of the pin and salt, cached per accessory server until either changes.
+   *
+   * @param authInfo the accessory server the verifier is cached for
+   * @param pin the current pin
+   * @param salt the current salt
+   * @return the verifier
+   */
+  static BigInteger getVerifier(HomekitAuthInfo authInfo, String pin, BigInteger salt) {
+    Verifier verifier = verifiers.get(authInfo);
+    if (verifier == null || !verifier.pin.equals(pin) || !verifier.salt.equals(salt)) {
+      SRP6VerifierGenerator verifierGenerator = new SRP6VerifierGenerator(CONFIG);
+      verifierGenerator.setXRoutine(new XRoutineWithUserIdentity());
+      verifier = new Verifier(pin, salt, verifierGenerator.generateVerifier(salt, IDENTIFIER, pin));
+      verifiers.put(authInfo, verifier);
+    }
+    return verifier.value;
+  }
+
   public byte[] getK() {
     MessageDigest digest = session.getCryptoParams().getMessageDigestInstance();
     BigInteger S = session.getSessionKey(false);
@@ -94,4 +134,32 @@ class SrpHandler {
     }
     return array;
   }
+
+  private static class Verifier {
+    final String pin;
+    final BigInteger salt;
+    final BigInteger value;
+
+    Verifier(String pin, BigInteger salt, BigInteger value) {
+      this.pin = pin;
+      this.salt = salt;
+      this.value = value;
+    }
+  }
+
+  /**
+   * Powers of 'g' modulo 'N' and a pool of ephemerals, set up by {@link #precompute()} or on the
+   * first pairing attempt.
+   */
+  private static class Generator {
+    static final FixedBaseExponentiation POWERS = new FixedBaseExponentiation(G, N_3072);
+    static final SecureRandom RANDOM = new SecureRandom();
+    static final KeyPool<Ephemeral> EPHEMERALS =
+        new KeyPool<>("SRP ephemeral", POOLED_EPHEMERALS, Generator::newEphemeral);
+
+    static Ephemeral newEphemeral() {
+      BigInteger b = HomekitSRP6Routines.generatePrivateValue(N_3072, RANDOM);
+      return new Ephemeral(b, POWERS.pow(b));
+    }
+  }
 }
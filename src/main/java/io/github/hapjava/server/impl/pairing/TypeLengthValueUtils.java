@@ -68,6 +68,10 @@ public class TypeLengthValueUtils {
 
     private DecodeResult() {}
 
+    public boolean contains(MessageType type) {
+      return result.containsKey(type.getKey());
+    }
+
     public byte getByte(MessageType type) {
       return result.get(type.getKey())[0];
     }
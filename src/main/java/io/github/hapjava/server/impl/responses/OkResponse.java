@@ -8,7 +8,11 @@ public class OkResponse implements HttpResponse {
   private final ByteBuffer body;
 
   public OkResponse(byte[] body) {
-    this.body = ByteBuffer.wrap(body);
+    this(ByteBuffer.wrap(body));
+  }
+
+  public OkResponse(ByteBuffer body) {
+    this.body = body;
   }
 
   @Override
@@ -0,0 +1,103 @@
+package io.github.hapjava.server.impl;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.github.hapjava.accessories.HomekitAccessory;
+import io.github.hapjava.characteristics.Characteristic;
+import io.github.hapjava.services.Service;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HomekitRegistryTest {
+
+  private final List<Runnable> pending = new ArrayList<>();
+  private HomekitRegistry registry;
+
+  @Before
+  public void setup() {
+    // runs the background reads only when the test says so
+    registry = new HomekitRegistry("Test Label", pending::add);
+  }
+
+  @Test
+  public void testFailingCharacteristicsOnlyAffectTheirAccessory() throws Exception {
+    Service failing = mock(Service.class);
+    when(failing.getCharacteristics()).thenThrow(new IllegalStateException("broken"));
+    HomekitAccessory broken = accessory(2, Collections.singletonList(failing));
+    Service service = service(10);
+    HomekitAccessory working = accessory(3, Collections.singletonList(service));
+    registry.add(broken);
+    registry.add(working);
+
+    CompletableFuture<Void> ready = registry.resetAsync();
+    runPending();
+
+    ready.get(1, TimeUnit.SECONDS);
+    Assert.assertTrue(registry.getServices(2).isEmpty());
+    Assert.assertTrue(registry.getCharacteristics(2).isEmpty());
+    Assert.assertEquals(Collections.singletonList(service), registry.getServices(3));
+    Assert.assertTrue(registry.getCharacteristics(3).containsKey(10));
+  }
+
+  @Test
+  public void testRemovedAccessoryIsNotReinserted() throws Exception {
+    HomekitAccessory accessory = accessory(2, Collections.singletonList(service(10)));
+    registry.add(accessory);
+    CompletableFuture<Void> ready = registry.resetAsync();
+    registry.remove(accessory);
+    // added again, but not read since
+    registry.add(accessory);
+    runPending();
+
+    ready.get(1, TimeUnit.SECONDS);
+    Assert.assertTrue(registry.getServices(2).isEmpty());
+    Assert.assertTrue(registry.getCharacteristics(2).isEmpty());
+  }
+
+  @Test
+  public void testOutdatedReadDoesNotReplaceNewerOne() throws Exception {
+    Service newer = service(10);
+    Service outdated = service(11);
+    HomekitAccessory accessory = mock(HomekitAccessory.class);
+    when(accessory.getId()).thenReturn(2);
+    when(accessory.getServices())
+        .thenReturn(Collections.singletonList(newer))
+        .thenReturn(Collections.singletonList(outdated));
+    registry.add(accessory);
+    registry.resetAsync();
+    registry.reset(accessory);
+    runPending();
+
+    Assert.assertEquals(Collections.singletonList(newer), registry.getServices(2));
+    Assert.assertTrue(registry.getCharacteristics(2).containsKey(10));
+    Assert.assertFalse(registry.getCharacteristics(2).containsKey(11));
+  }
+
+  private void runPending() {
+    List<Runnable> tasks = new ArrayList<>(pending);
+    pending.clear();
+    tasks.forEach(Runnable::run);
+  }
+
+  private static HomekitAccessory accessory(int aid, List<Service> services) {
+    HomekitAccessory accessory = mock(HomekitAccessory.class);
+    when(accessory.getId()).thenReturn(aid);
+    when(accessory.getServices()).thenReturn(services);
+    return accessory;
+  }
+
+  private static Service service(int iid) {
+    Characteristic characteristic = mock(Characteristic.class);
+    when(characteristic.iid()).thenReturn(iid);
+    Service service = mock(Service.class);
+    when(service.getCharacteristics()).thenReturn(Collections.singletonList(characteristic));
+    return service;
+  }
+}
@@ -4,6 +4,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -12,7 +13,9 @@ import io.github.hapjava.server.HomekitAuthInfo;
 import io.github.hapjava.server.HomekitWebHandler;
 import io.github.hapjava.server.impl.http.HomekitClientConnectionFactory;
 import io.github.hapjava.server.impl.jmdns.JmdnsHomekitAdvertiser;
+import java.util.Collections;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -62,6 +65,15 @@ public class HomekitRootTest {
     verify(webHandler).start(any(HomekitClientConnectionFactory.class));
   }
 
+  @Test
+  public void testStartCompletesOnceAccessoriesAreRead() throws Exception {
+    when(accessory.getServices()).thenReturn(Collections.emptyList());
+    root.addAccessory(accessory);
+    root.start().get(1, TimeUnit.SECONDS);
+    Assert.assertTrue(root.getRegistry().whenReady().isDone());
+    Assert.assertEquals(Collections.emptyList(), root.getRegistry().getServices(accessory.getId()));
+  }
+
   @Test
   public void testWebHandlerStops() throws Exception {
     root.start();
@@ -74,7 +86,7 @@ public class HomekitRootTest {
     final String mac = "00:00:00:00:00:00";
     when(authInfo.getMac()).thenReturn(mac);
     root.start();
-    verify(advertiser).advertise(eq(LABEL), eq(mac), eq(PORT), eq(1));
+    verify(advertiser, timeout(1000)).advertise(eq(LABEL), eq(mac), eq(PORT), eq(1));
   }
 
   @Test
@@ -101,6 +113,28 @@ public class HomekitRootTest {
     verify(webHandler).resetConnections();
   }
 
+  @Test
+  public void testIncrementalAddKeepsConnections() throws Exception {
+    root.setIncrementalUpdates(true);
+    root.start();
+    root.addAccessory(accessory);
+    verify(webHandler, never()).resetConnections();
+    verify(advertiser, timeout(1000)).setConfigurationIndex(2);
+    Assert.assertEquals(2, root.getConfigurationIndex());
+    Assert.assertTrue(root.getRegistry().getAccessories().contains(accessory));
+  }
+
+  @Test
+  public void testIncrementalRemoveKeepsConnections() throws Exception {
+    root.setIncrementalUpdates(true);
+    root.addAccessory(accessory);
+    root.start();
+    root.removeAccessory(accessory);
+    verify(webHandler, never()).resetConnections();
+    verify(advertiser, timeout(1000)).setConfigurationIndex(2);
+    Assert.assertTrue(root.getRegistry().getServices(accessory.getId()).isEmpty());
+  }
+
   @Test(expected = IndexOutOfBoundsException.class)
   public void testAddIndexOneAccessory() throws Exception {
     when(accessory.getId()).thenReturn(1);
@@ -0,0 +1,98 @@
+package io.github.hapjava.server.impl.connections;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.github.hapjava.server.impl.crypto.HapSessionCipher;
+import io.github.hapjava.server.impl.http.HomekitClientConnection;
+import io.github.hapjava.server.impl.http.impl.BinaryHandler;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FrameDecryptorTest {
+
+  private final byte[] key = new byte[32];
+  private final Random random = new Random(11);
+  private EmbeddedChannel channel;
+
+  @Before
+  public void setUp() throws Exception {
+    random.nextBytes(key);
+    FrameDecryptor decryptor = new FrameDecryptor(key);
+    HomekitClientConnection connection = mock(HomekitClientConnection.class);
+    when(connection.decryptRequest(any(ByteBuf.class)))
+        .thenAnswer(invocation -> decryptor.decrypt((ByteBuf) invocation.getArguments()[0]));
+    channel = new EmbeddedChannel(new BinaryHandler(connection));
+  }
+
+  @Test
+  public void testDecryptsFramesSplitAnywhere() throws Exception {
+    byte[] plaintext = new byte[5000];
+    random.nextBytes(plaintext);
+    byte[] ciphertext = encrypt(plaintext);
+    // pieces of 1 to 40 bytes split the length prefixes and tags of the frames
+    int offset = 0;
+    while (offset < ciphertext.length) {
+      int length = Math.min(ciphertext.length - offset, 1 + random.nextInt(40));
+      ByteBuf piece = offset % 2 == 0 ? Unpooled.buffer(length) : Unpooled.directBuffer(length);
+      channel.writeInbound(piece.writeBytes(ciphertext, offset, length));
+      offset += length;
+    }
+    Assert.assertArrayEquals(plaintext, readInbound());
+  }
+
+  @Test
+  public void testDecryptsSeveralFramesOfOneRead() throws Exception {
+    byte[] plaintext = new byte[3000];
+    random.nextBytes(plaintext);
+    channel.writeInbound(Unpooled.wrappedBuffer(encrypt(plaintext)));
+    Assert.assertArrayEquals(plaintext, readInbound());
+  }
+
+  @Test
+  public void testRejectsTamperedFrame() throws Exception {
+    byte[] ciphertext = encrypt(new byte[100]);
+    ciphertext[50] ^= 1;
+    try {
+      channel.writeInbound(Unpooled.wrappedBuffer(ciphertext));
+      Assert.fail("Tampered frame was accepted");
+    } catch (DecoderException e) {
+      Assert.assertTrue(e.getCause() instanceof IOException);
+    }
+  }
+
+  private byte[] encrypt(byte[] plaintext) {
+    HapSessionCipher cipher = new HapSessionCipher(key, true);
+    int frames = (plaintext.length + 1023) / 1024;
+    byte[] ciphertext = new byte[plaintext.length + frames * 18];
+    int offset = 0;
+    int outOffset = 0;
+    while (offset < plaintext.length) {
+      int length = Math.min(plaintext.length - offset, 1024);
+      outOffset += cipher.encrypt(plaintext, offset, length, ciphertext, outOffset);
+      offset += length;
+    }
+    return ciphertext;
+  }
+
+  private byte[] readInbound() {
+    ByteArrayOutputStream received = new ByteArrayOutputStream();
+    ByteBuf frame;
+    while ((frame = channel.readInbound()) != null) {
+      byte[] bytes = new byte[frame.readableBytes()];
+      frame.readBytes(bytes);
+      received.write(bytes, 0, bytes.length);
+      frame.release();
+    }
+    return received.toByteArray();
+  }
+}
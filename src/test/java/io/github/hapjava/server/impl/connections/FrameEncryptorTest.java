@@ -0,0 +1,87 @@
+package io.github.hapjava.server.impl.connections;
+
+import io.github.hapjava.server.impl.crypto.BouncyCastleAeadProvider;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrameEncryptorTest {
+
+  // a large response between small ones, so the parallel frames continue the counter
+  private static final int[] LENGTHS = {100, 200_000, 1024, 50_001, 0, 3000};
+
+  private final byte[] key = new byte[32];
+  private final Random random = new Random(7);
+  private final ForkJoinPool pool = new ForkJoinPool(3);
+
+  @After
+  public void tearDown() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void testParallelFramesMatchSequentialFrames() {
+    random.nextBytes(key);
+    FrameEncryptor sequential = new FrameEncryptor(new BouncyCastleAeadProvider(), key, 0, pool);
+    FrameEncryptor parallel = new FrameEncryptor(new BouncyCastleAeadProvider(), key, 16384, pool);
+    FrameEncryptor parallelDirect =
+        new FrameEncryptor(new BouncyCastleAeadProvider(), key, 16384, pool);
+    for (int length : LENGTHS) {
+      byte[] response = new byte[length];
+      random.nextBytes(response);
+
+      ByteBuf expected = Unpooled.buffer();
+      sequential.encrypt(Unpooled.wrappedBuffer(response), expected);
+      ByteBuf actual = Unpooled.buffer();
+      parallel.encrypt(Unpooled.wrappedBuffer(response), actual);
+      ByteBuf plaintext = PooledByteBufAllocator.DEFAULT.directBuffer().writeBytes(response);
+      ByteBuf direct = PooledByteBufAllocator.DEFAULT.directBuffer();
+      parallelDirect.encrypt(plaintext, direct);
+
+      int frames = (length + 1023) / 1024;
+      Assert.assertEquals(length + frames * 18, expected.readableBytes());
+      Assert.assertFalse(plaintext.isReadable());
+      Assert.assertTrue(ByteBufUtil.equals(expected, actual));
+      Assert.assertTrue(ByteBufUtil.equals(expected, direct));
+      plaintext.release();
+      direct.release();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testDoesNotWaitForBusyPool() {
+    random.nextBytes(key);
+    CountDownLatch release = new CountDownLatch(1);
+    // occupies all threads of the pool until the response is encrypted
+    for (int i = 0; i < pool.getParallelism(); i++) {
+      pool.execute(
+          () -> {
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          });
+    }
+    try {
+      byte[] response = new byte[200_000];
+      random.nextBytes(response);
+      ByteBuf expected = Unpooled.buffer();
+      new FrameEncryptor(new BouncyCastleAeadProvider(), key, 0, null)
+          .encrypt(Unpooled.wrappedBuffer(response), expected);
+      ByteBuf actual = Unpooled.buffer();
+      new FrameEncryptor(new BouncyCastleAeadProvider(), key, 16384, pool)
+          .encrypt(Unpooled.wrappedBuffer(response), actual);
+      Assert.assertTrue(ByteBufUtil.equals(expected, actual));
+    } finally {
+      release.countDown();
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package io.github.hapjava.server.impl.connections;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import io.github.hapjava.characteristics.EventableCharacteristic;
+import io.github.hapjava.characteristics.HomekitCharacteristicChangeCallback;
+import io.github.hapjava.server.impl.http.HomekitClientConnection;
+import io.github.hapjava.server.impl.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.json.Json;
+import javax.json.JsonValue;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class SubscriptionManagerTest {
+
+  private ScheduledExecutorService scheduler;
+  private SubscriptionManager subscriptions;
+  private HomekitClientConnection connection;
+
+  @Before
+  public void setup() {
+    scheduler = Executors.newSingleThreadScheduledExecutor();
+    subscriptions = new SubscriptionManager(scheduler);
+    connection = mock(HomekitClientConnection.class);
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  public void testChangesWithinWindowAreMerged() throws Exception {
+    subscriptions.setEventAggregationWindow(100);
+    HomekitCharacteristicChangeCallback first = subscribe(2, 10);
+    HomekitCharacteristicChangeCallback second = subscribe(3, 10);
+
+    first.changed(value(1));
+    second.changed(value(2));
+    first.changed(value(3));
+    verify(connection, never()).outOfBand(any());
+
+    ArgumentCaptor<HttpResponse> message = ArgumentCaptor.forClass(HttpResponse.class);
+    verify(connection, timeout(1000)).outOfBand(message.capture());
+    Assert.assertEquals(
+        "{\"characteristics\":[{\"aid\":2,\"iid\":10,\"value\":3},{\"aid\":3,\"iid\":10,\"value\":2}]}",
+        body(message.getValue()));
+  }
+
+  @Test
+  public void testWindowIsSentOutsideTheLock() throws Exception {
+    subscriptions.setEventAggregationWindow(50);
+    HomekitCharacteristicChangeCallback callback = subscribe(2, 10);
+    AtomicBoolean locked = new AtomicBoolean(true);
+    CountDownLatch sent = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              locked.set(Thread.holdsLock(subscriptions));
+              sent.countDown();
+              return null;
+            })
+        .when(connection)
+        .outOfBand(any());
+
+    callback.changed(value(1));
+    Assert.assertTrue(sent.await(1, TimeUnit.SECONDS));
+    Assert.assertFalse(locked.get());
+  }
+
+  @Test
+  public void testRemovedConnectionDropsWindow() throws Exception {
+    subscriptions.setEventAggregationWindow(50);
+    HomekitCharacteristicChangeCallback callback = subscribe(2, 10);
+
+    callback.changed(value(1));
+    subscriptions.removeConnection(connection);
+    Thread.sleep(200);
+    verify(connection, never()).outOfBand(any());
+  }
+
+  @Test
+  public void testRemovedAccessoryIsUnsubscribed() throws Exception {
+    EventableCharacteristic characteristic = mock(EventableCharacteristic.class);
+    subscriptions.addSubscription(2, 10, characteristic, connection);
+
+    subscriptions.removeAccessory(2, Collections.singletonList(characteristic));
+    verify(characteristic).unsubscribe();
+  }
+
+  private HomekitCharacteristicChangeCallback subscribe(int aid, int iid) {
+    EventableCharacteristic characteristic = mock(EventableCharacteristic.class);
+    subscriptions.addSubscription(aid, iid, characteristic, connection);
+    ArgumentCaptor<HomekitCharacteristicChangeCallback> callback =
+        ArgumentCaptor.forClass(HomekitCharacteristicChangeCallback.class);
+    verify(characteristic).subscribe(callback.capture());
+    return callback.getValue();
+  }
+
+  private static JsonValue value(int value) {
+    return Json.createArrayBuilder().add(value).build().get(0);
+  }
+
+  private static String body(HttpResponse response) {
+    byte[] bytes = new byte[response.getBody().remaining()];
+    response.getBody().duplicate().get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
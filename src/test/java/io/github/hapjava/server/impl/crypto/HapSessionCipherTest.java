@@ -0,0 +1,87 @@
+package io.github.hapjava.server.impl.crypto;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import org.bouncycastle.util.Pack;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class HapSessionCipherTest {
+
+  private static final int[] LENGTHS = {0, 1, 15, 16, 17, 100, 1023, 1024};
+
+  private final byte[] key = new byte[32];
+  private final Random random = new Random(42);
+
+  public HapSessionCipherTest() {
+    random.nextBytes(key);
+  }
+
+  @Test
+  public void testEncryptsLikeChachaEncoder() throws Exception {
+    HapSessionCipher cipher = new HapSessionCipher(key, true);
+    long counter = 0;
+    for (int length : LENGTHS) {
+      byte[] plaintext = randomBytes(length);
+      byte[] frame = new byte[length + 18];
+      Assert.assertEquals(length + 18, cipher.encrypt(plaintext, 0, length, frame, 0));
+
+      byte[] prefix = {(byte) length, (byte) (length >>> 8)};
+      byte[] expected =
+          new ChachaEncoder(key, Pack.longToLittleEndian(counter++))
+              .encodeCiphertext(plaintext, prefix);
+      Assert.assertArrayEquals(prefix, Arrays.copyOfRange(frame, 0, 2));
+      Assert.assertArrayEquals(expected, Arrays.copyOfRange(frame, 2, frame.length));
+    }
+  }
+
+  @Test
+  public void testDecryptsInPlace() throws Exception {
+    for (AeadProvider provider : AeadProviders.getProviders()) {
+      if (!provider.isAvailable()) {
+        continue;
+      }
+      HapSessionCipher encrypt = new HapSessionCipher(key, true);
+      HapSessionCipher decrypt = new HapSessionCipher(provider, key, false);
+      for (int length : LENGTHS) {
+        byte[] plaintext = randomBytes(length);
+        byte[] frame = new byte[length + 18];
+        encrypt.encrypt(plaintext, 0, length, frame, 0);
+        decrypt.decrypt(frame, 2, length, frame, 0);
+        Assert.assertArrayEquals(provider.getName(), plaintext, Arrays.copyOf(frame, length));
+      }
+    }
+  }
+
+  @Test
+  public void testProvidersProduceTheSameFrames() throws Exception {
+    Assume.assumeTrue(new JcaAeadProvider().isAvailable());
+    HapSessionCipher reference = new HapSessionCipher(new BouncyCastleAeadProvider(), key, true);
+    HapSessionCipher jca = new HapSessionCipher(new JcaAeadProvider(), key, true);
+    for (int length : LENGTHS) {
+      byte[] plaintext = randomBytes(length);
+      byte[] expected = new byte[length + 18];
+      byte[] actual = new byte[length + 18];
+      reference.encrypt(plaintext, 0, length, expected, 0);
+      jca.encrypt(plaintext, 0, length, actual, 0);
+      Assert.assertArrayEquals(expected, actual);
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testRejectsTamperedFrame() throws Exception {
+    byte[] plaintext = randomBytes(100);
+    byte[] frame = new byte[118];
+    new HapSessionCipher(key, true).encrypt(plaintext, 0, 100, frame, 0);
+    frame[50] ^= 1;
+    new HapSessionCipher(key, false).decrypt(frame, 2, 100, new byte[100], 0);
+  }
+
+  private byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+}
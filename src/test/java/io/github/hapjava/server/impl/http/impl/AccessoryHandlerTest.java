@@ -0,0 +1,267 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.github.hapjava.server.HomekitMetrics;
+import io.github.hapjava.server.impl.http.HomekitClientConnection;
+import io.github.hapjava.server.impl.http.HomekitClientConnectionFactory;
+import io.github.hapjava.server.impl.http.HttpRequest;
+import io.github.hapjava.server.impl.http.HttpResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AccessoryHandlerTest {
+
+  private final List<Runnable> handshakes = new ArrayList<>();
+  private final List<String> handled = new ArrayList<>();
+  private final List<Boolean> binaryHandlerOnWrite = new ArrayList<>();
+  private HomekitClientConnection connection;
+  private HomekitClientConnectionFactory factory;
+  private HomekitMetrics metrics;
+  private EmbeddedChannel channel;
+  private boolean upgrade;
+  private int flushes;
+
+  @Before
+  public void setup() throws Exception {
+    connection = mock(HomekitClientConnection.class);
+    when(connection.handleRequest(any()))
+        .thenAnswer(
+            invocation -> {
+              String uri = ((HttpRequest) invocation.getArguments()[0]).getUri();
+              handled.add(uri);
+              return CompletableFuture.completedFuture(
+                  response(uri, uri.equals("/pair-verify") && upgrade));
+            });
+    metrics = mock(HomekitMetrics.class);
+    factory = mock(HomekitClientConnectionFactory.class);
+    when(factory.getMetrics()).thenReturn(metrics);
+    when(factory.createConnection(any(), any())).thenReturn(connection);
+  }
+
+  @After
+  public void tearDown() {
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void testRejectsHandshakeWhenQueueIsFull() {
+    channel =
+        channel(
+            command -> {
+              throw new RejectedExecutionException("full");
+            });
+    write("POST /pair-setup HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc");
+    channel.runPendingTasks();
+
+    Assert.assertTrue(readResponse().startsWith("HTTP/1.1 500 Internal Server Error\r\n"));
+    Assert.assertTrue(handled.isEmpty());
+    verify(metrics).handshakeRejected(channel.remoteAddress());
+    Assert.assertTrue(channel.isOpen());
+  }
+
+  @Test
+  public void testInstallsBinaryHandlerOnlyOnceHandshakeCompleted() {
+    upgrade = true;
+    channel = channel(handshakes::add);
+    // a plaintext request pipelined behind the pair verification, which a controller never sends
+    write(
+        "POST /pair-verify HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc"
+            + "GET /accessories HTTP/1.1\r\n\r\n");
+    channel.runPendingTasks();
+    Assert.assertNull(channel.pipeline().get("binary"));
+    Assert.assertNull(channel.readOutbound());
+    Assert.assertTrue(handled.isEmpty());
+
+    runHandshakes();
+    channel.runPendingTasks();
+    // the response to pair-verify is still plaintext, but written once the handler is in place
+    Assert.assertTrue(readResponse().endsWith("/pair-verify"));
+    Assert.assertEquals(Arrays.asList(true), binaryHandlerOnWrite);
+    // the plaintext request was not handled on the encrypted session
+    Assert.assertEquals(Arrays.asList("/pair-verify"), handled);
+    Assert.assertFalse(channel.isOpen());
+  }
+
+  @Test
+  public void testHandlesRequestsAfterHandshakeInOrder() {
+    channel = channel(handshakes::add);
+    write(
+        "POST /pair-verify HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc"
+            + "GET /accessories HTTP/1.1\r\n\r\n");
+    channel.runPendingTasks();
+    Assert.assertTrue(handled.isEmpty());
+
+    runHandshakes();
+    channel.runPendingTasks();
+    Assert.assertEquals(Arrays.asList(false, false), binaryHandlerOnWrite);
+    Assert.assertEquals(Arrays.asList("/pair-verify", "/accessories"), handled);
+    Assert.assertTrue(readResponse().endsWith("/pair-verify"));
+    Assert.assertTrue(readResponse().endsWith("/accessories"));
+    Assert.assertTrue(channel.isOpen());
+  }
+
+  @Test
+  public void testRunsPipelinedHandshakesOneAfterAnother() {
+    channel = channel(handshakes::add);
+    write(
+        "POST /pair-setup HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc"
+            + "POST /pair-setup HTTP/1.1\r\nContent-Length: 3\r\n\r\ndef");
+    channel.runPendingTasks();
+    // the second handshake is not submitted while the first may still be running
+    Assert.assertEquals(1, handshakes.size());
+
+    runHandshakes();
+    Assert.assertEquals(Arrays.asList("/pair-setup"), handled);
+    Assert.assertEquals(1, handshakes.size());
+
+    runHandshakes();
+    channel.runPendingTasks();
+    Assert.assertEquals(Arrays.asList("/pair-setup", "/pair-setup"), handled);
+    Assert.assertTrue(readResponse().endsWith("/pair-setup"));
+    Assert.assertTrue(readResponse().endsWith("/pair-setup"));
+    Assert.assertTrue(channel.isOpen());
+  }
+
+  @Test
+  public void testAnswersPipelinedRequestsWithSingleFlush() {
+    channel = channel(handshakes::add);
+    write(
+        "GET /accessories HTTP/1.1\r\n\r\n"
+            + "GET /characteristics?id=1.2 HTTP/1.1\r\n\r\n"
+            + "GET /characteristics?id=1.3 HTTP/1.1\r\n\r\n");
+    channel.runPendingTasks();
+
+    Assert.assertEquals(1, flushes);
+    Assert.assertTrue(readResponse().endsWith("/accessories"));
+    Assert.assertTrue(readResponse().endsWith("/characteristics?id=1.2"));
+    Assert.assertTrue(readResponse().endsWith("/characteristics?id=1.3"));
+  }
+
+  @Test
+  public void testFlushesPipelinedResponsesCompletingOutOfOrderInRequestOrder() throws Exception {
+    CompletableFuture<HttpResponse> first = new CompletableFuture<>();
+    doReturn(first)
+        .doReturn(CompletableFuture.completedFuture(response("/second", false)))
+        .when(connection)
+        .handleRequest(any());
+    channel = channel(handshakes::add);
+    write("GET /accessories HTTP/1.1\r\n\r\nGET /characteristics?id=1.2 HTTP/1.1\r\n\r\n");
+    channel.runPendingTasks();
+    // the second response is complete, but is not written ahead of the first
+    Assert.assertEquals(0, flushes);
+    Assert.assertNull(channel.readOutbound());
+
+    // the last response of the batch completes after the read has completed
+    first.complete(response("/first", false));
+    channel.runPendingTasks();
+    Assert.assertEquals(1, flushes);
+    Assert.assertTrue(readResponse().endsWith("/first"));
+    Assert.assertTrue(readResponse().endsWith("/second"));
+  }
+
+  @Test
+  public void testKeepsRespondingWhenMetricsFail() {
+    doThrow(new IllegalStateException("metrics"))
+        .when(metrics)
+        .requestHandled(any(), any(), anyInt(), anyLong());
+    channel = channel(handshakes::add);
+    write("GET /accessories HTTP/1.1\r\n\r\n");
+    channel.runPendingTasks();
+    Assert.assertTrue(readResponse().endsWith("/accessories"));
+
+    write("GET /characteristics?id=1.2 HTTP/1.1\r\n\r\n");
+    channel.runPendingTasks();
+    Assert.assertTrue(readResponse().endsWith("/characteristics?id=1.2"));
+    Assert.assertTrue(channel.isOpen());
+  }
+
+  private EmbeddedChannel channel(Executor handshakeExecutor) {
+    EmbeddedChannel channel = new EmbeddedChannel();
+    // records whether the binary handler was installed when a response passed, and the flushes
+    channel
+        .pipeline()
+        .addLast(
+            new ChannelOutboundHandlerAdapter() {
+              @Override
+              public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise)
+                  throws Exception {
+                binaryHandlerOnWrite.add(ctx.pipeline().get("binary") != null);
+                super.write(ctx, msg, promise);
+              }
+
+              @Override
+              public void flush(ChannelHandlerContext ctx) throws Exception {
+                flushes++;
+                super.flush(ctx);
+              }
+            });
+    channel.pipeline().addLast(ServerInitializer.HTTP_HANDLER_NAME, new HapResponseEncoder());
+    channel.pipeline().addLast(new HapRequestDecoder());
+    channel.pipeline().addLast(new AccessoryHandler(factory, handshakeExecutor));
+    channel.pipeline().fireChannelActive();
+    return channel;
+  }
+
+  private void runHandshakes() {
+    List<Runnable> tasks = new ArrayList<>(handshakes);
+    handshakes.clear();
+    tasks.forEach(Runnable::run);
+  }
+
+  private void write(String s) {
+    channel.writeInbound(Unpooled.copiedBuffer(s, StandardCharsets.US_ASCII));
+  }
+
+  private String readResponse() {
+    ByteBuf response = channel.readOutbound();
+    Assert.assertNotNull(response);
+    try {
+      return response.toString(StandardCharsets.US_ASCII);
+    } finally {
+      response.release();
+    }
+  }
+
+  private static HttpResponse response(String uri, boolean upgrade) {
+    return new HttpResponse() {
+      @Override
+      public int getStatusCode() {
+        return 200;
+      }
+
+      @Override
+      public ByteBuffer getBody() {
+        return ByteBuffer.wrap(uri.getBytes(StandardCharsets.US_ASCII));
+      }
+
+      @Override
+      public boolean doUpgrade() {
+        return upgrade;
+      }
+    };
+  }
+}
@@ -0,0 +1,136 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DiagnosticsTest {
+
+  // a pair setup request with a TLV8 body: state 3, then the first bytes of a public key
+  private static final byte[] TLV = {0x06, 0x01, 0x03, 0x03, 0x04, 'k', 'e', 'y', '!'};
+
+  private Diagnostics diagnostics;
+  private EmbeddedChannel channel;
+
+  @Before
+  public void setup() {
+    diagnostics = new Diagnostics();
+    channel = new EmbeddedChannel();
+    // stands in for the http codec, so that the diagnostics see the raw messages
+    channel.pipeline().addLast(ServerInitializer.HTTP_HANDLER_NAME, new ChannelDuplexHandler());
+  }
+
+  @After
+  public void tearDown() {
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void testDisabledCaptureIsNoop() {
+    Assert.assertFalse(diagnostics.isEnabled());
+    diagnostics.setEnabled(false, Collections.singletonList(channel));
+    Assert.assertNull(channel.pipeline().get(Diagnostics.HANDLER_NAME));
+
+    writeInbound("GET /accessories HTTP/1.1\r\n\r\n");
+    Assert.assertEquals("GET /accessories HTTP/1.1\r\n\r\n", readInbound());
+    Assert.assertTrue(diagnostics.getCaptures().isEmpty());
+  }
+
+  @Test
+  public void testDisablingRemovesHandler() {
+    diagnostics.setEnabled(true, Collections.singletonList(channel));
+    Assert.assertTrue(diagnostics.isEnabled());
+    Assert.assertNotNull(channel.pipeline().get(Diagnostics.HANDLER_NAME));
+
+    diagnostics.setEnabled(false, Collections.singletonList(channel));
+    Assert.assertNull(channel.pipeline().get(Diagnostics.HANDLER_NAME));
+    writeInbound("GET /accessories HTTP/1.1\r\n\r\n");
+    readInbound();
+    Assert.assertTrue(capture().getMessages().isEmpty());
+  }
+
+  @Test
+  public void testCapturesJsonMessages() {
+    diagnostics.setEnabled(channel, true);
+    String request = "GET /accessories HTTP/1.1\r\n\r\n";
+    String response =
+        "HTTP/1.1 200 OK\r\nContent-Type: application/hap+json\r\n\r\n{\"accessories\":[]}";
+    writeInbound(request);
+    readInbound();
+    channel.writeOutbound(Unpooled.copiedBuffer(response, StandardCharsets.US_ASCII));
+    ((ByteBuf) channel.readOutbound()).release();
+
+    List<WireCapture.Message> messages = capture().getMessages();
+    Assert.assertEquals(2, messages.size());
+    Assert.assertTrue(messages.get(0).isInbound());
+    Assert.assertEquals(request, content(messages.get(0)));
+    Assert.assertEquals(0, messages.get(0).getRedactedLength());
+    Assert.assertFalse(messages.get(1).isInbound());
+    Assert.assertEquals(response, content(messages.get(1)));
+  }
+
+  @Test
+  public void testRedactsPairingMessages() {
+    diagnostics.setEnabled(channel, true);
+    String head = "POST /pair-setup HTTP/1.1\r\nContent-Length: 9\r\n\r\n";
+    writeInbound(head, TLV);
+    // the body of the response arrives separately from its head
+    String responseHead =
+        "HTTP/1.1 200 OK\r\nContent-Type: application/pairing+tlv8\r\nContent-Length: 9\r\n\r\n";
+    channel.writeOutbound(Unpooled.copiedBuffer(responseHead, StandardCharsets.US_ASCII));
+    channel.writeOutbound(Unpooled.wrappedBuffer(TLV));
+
+    // the messages themselves are passed on unchanged
+    byte[] forwarded = new byte[head.length() + TLV.length];
+    ((ByteBuf) channel.readInbound()).readBytes(forwarded).release();
+    Assert.assertArrayEquals(TLV, Arrays.copyOfRange(forwarded, head.length(), forwarded.length));
+
+    List<WireCapture.Message> messages = capture().getMessages();
+    Assert.assertEquals(3, messages.size());
+    Assert.assertEquals(head, content(messages.get(0)));
+    Assert.assertEquals(TLV.length, messages.get(0).getRedactedLength());
+    Assert.assertEquals(responseHead, content(messages.get(1)));
+    Assert.assertEquals(0, messages.get(2).getContent().length);
+    Assert.assertEquals(TLV.length, messages.get(2).getRedactedLength());
+    for (WireCapture.Message message : messages) {
+      Assert.assertFalse(message.toString().contains("key!"));
+    }
+  }
+
+  private WireCapture capture() {
+    WireCapture capture = diagnostics.getCaptures().get(channel.remoteAddress());
+    Assert.assertNotNull(capture);
+    return capture;
+  }
+
+  private void writeInbound(String s) {
+    channel.writeInbound(Unpooled.copiedBuffer(s, StandardCharsets.US_ASCII));
+  }
+
+  private void writeInbound(String head, byte[] body) {
+    channel.writeInbound(
+        Unpooled.wrappedBuffer(head.getBytes(StandardCharsets.US_ASCII), body.clone()));
+  }
+
+  private String readInbound() {
+    ByteBuf buf = channel.readInbound();
+    try {
+      return buf.toString(StandardCharsets.US_ASCII);
+    } finally {
+      buf.release();
+    }
+  }
+
+  private static String content(WireCapture.Message message) {
+    return new String(message.getContent(), StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,80 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequestDecoder;
+import io.netty.util.ReferenceCountUtil;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+/**
+ * Cost of decoding a request. Compares the former netty {@link HttpRequestDecoder} and {@link
+ * HttpObjectAggregator} with {@link HapRequestDecoder}, on the requests a controller sends most:
+ * reading and writing characteristics. Not run by the build, run it after {@code mvn
+ * test-compile} with the test classpath:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;dependencies&gt; \
+ *   io.github.hapjava.server.impl.http.impl.HapRequestDecoderBenchmark
+ * </pre>
+ */
+public class HapRequestDecoderBenchmark {
+
+  private static final byte[] GET =
+      bytes("GET /characteristics?id=1.10,1.11,2.10 HTTP/1.1\r\nHost: bridge\r\n\r\n");
+  private static final byte[] PUT =
+      bytes(
+          "PUT /characteristics HTTP/1.1\r\nHost: bridge\r\n"
+              + "Content-Type: application/hap+json\r\nContent-Length: 53\r\n\r\n"
+              + "{\"characteristics\":[{\"aid\":2,\"iid\":10,\"value\":true}]}");
+  private static final int RUNS = 2_000_000;
+
+  public static void main(String[] args) {
+    report(
+        "netty decoder + aggregator",
+        () ->
+            new EmbeddedChannel(
+                new HttpRequestDecoder(),
+                new HttpObjectAggregator(HapRequestDecoder.MAX_BODY_LENGTH)));
+    report("HapRequestDecoder", () -> new EmbeddedChannel(new HapRequestDecoder()));
+  }
+
+  private static void report(String name, Supplier<EmbeddedChannel> channels) {
+    EmbeddedChannel channel = channels.get();
+    // the first half warms up the JIT
+    for (int i = 0; i < RUNS / 2; i++) {
+      decode(channel, i);
+    }
+    long allocated = allocatedBytes();
+    long start = System.nanoTime();
+    for (int i = RUNS / 2; i < RUNS; i++) {
+      decode(channel, i);
+    }
+    long nanos = System.nanoTime() - start;
+    System.out.printf(
+        "%s: %.0f ns, %.0f B allocated per request%n",
+        name,
+        nanos / (double) (RUNS - RUNS / 2),
+        (allocatedBytes() - allocated) / (double) (RUNS - RUNS / 2));
+    channel.finishAndReleaseAll();
+  }
+
+  /** Decodes a GET or a PUT, each written on its own, as they arrive from a controller. */
+  private static void decode(EmbeddedChannel channel, int i) {
+    channel.writeInbound(Unpooled.wrappedBuffer(i % 2 == 0 ? GET : PUT));
+    for (Object request = channel.readInbound(); request != null; request = channel.readInbound()) {
+      ReferenceCountUtil.release(request);
+    }
+  }
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+}
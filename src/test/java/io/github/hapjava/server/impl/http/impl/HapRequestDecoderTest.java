@@ -0,0 +1,152 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import io.github.hapjava.server.impl.http.HttpMethod;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HapRequestDecoderTest {
+
+  private final EmbeddedChannel channel =
+      new EmbeddedChannel(new HapResponseEncoder(), new HapRequestDecoder());
+
+  @After
+  public void tearDown() {
+    channel.finishAndReleaseAll();
+  }
+
+  @Test
+  public void testDecodesFragmentedRequest() {
+    byte[] request =
+        bytes("PUT /characteristics HTTP/1.1\r\nHost: bridge\r\nContent-Length: 5\r\n\r\nhello");
+    for (byte b : request) {
+      write(new byte[] {b});
+    }
+    assertRequest(HttpMethod.PUT, "/characteristics", "hello");
+    Assert.assertNull(channel.readInbound());
+  }
+
+  @Test
+  public void testDecodesSplitBody() {
+    write("POST /pair-verify HTTP/1.1\r\ncontent-length: 10\r\n\r\n0123");
+    Assert.assertNull(channel.readInbound());
+    write("456");
+    Assert.assertNull(channel.readInbound());
+    write("789GET /accessories HTTP/1.1\r\n\r\n");
+    assertRequest(HttpMethod.POST, "/pair-verify", "0123456789");
+    assertRequest(HttpMethod.GET, "/accessories", "");
+  }
+
+  @Test
+  public void testDecodesPipelinedRequests() {
+    write(
+        "GET /accessories HTTP/1.1\r\n\r\n"
+            + "PUT /characteristics HTTP/1.1\r\nContent-Length: 2\r\n\r\n{}"
+            + "GET /characteristics?id=1.2 HTTP/1.1\n\n");
+    assertRequest(HttpMethod.GET, "/accessories", "");
+    assertRequest(HttpMethod.PUT, "/characteristics", "{}");
+    assertRequest(HttpMethod.GET, "/characteristics?id=1.2", "");
+    Assert.assertTrue(channel.isOpen());
+  }
+
+  @Test
+  public void testResetsHeaderLimitBetweenRequests() {
+    // the first request is just below the limit, the request line of the second one is not
+    // complete yet, which counted towards the limit of the first one
+    write("GET /accessories HTTP/1.1\r\nX-Padding: " + padding(8100) + "\r\n\r\n");
+    write("GET /characteristics?id=" + padding(150));
+    assertRequest(HttpMethod.GET, "/accessories", "");
+    write(" HTTP/1.1\r\n\r\n");
+    assertRequest(HttpMethod.GET, "/characteristics?id=" + padding(150), "");
+    Assert.assertTrue(channel.isOpen());
+  }
+
+  @Test
+  public void testRejectsTooLongHeaders() {
+    write(
+        "GET /accessories HTTP/1.1\r\nX-Padding: " + padding(HapRequestDecoder.MAX_HEADER_LENGTH));
+    assertRejected();
+  }
+
+  @Test
+  public void testRejectsMalformedRequestLine() {
+    write("GET/accessories\r\n\r\n");
+    assertRejected();
+  }
+
+  @Test
+  public void testRejectsUnsupportedMethod() {
+    write("DELETE /pairings HTTP/1.1\r\n\r\n");
+    assertRejected();
+  }
+
+  @Test
+  public void testRejectsMalformedContentLength() {
+    write("PUT /characteristics HTTP/1.1\r\nContent-Length: 1x\r\n\r\n{}");
+    assertRejected();
+  }
+
+  @Test
+  public void testRejectsConflictingContentLengths() {
+    // the request following the body is discarded, as the end of the body is unknown
+    write(
+        "PUT /characteristics HTTP/1.1\r\nContent-Length: 2\r\nContent-Length: 20\r\n\r\n{}"
+            + "GET /accessories HTTP/1.1\r\n\r\n");
+    assertRejected();
+  }
+
+  @Test
+  public void testAcceptsRepeatedContentLength() {
+    write("PUT /characteristics HTTP/1.1\r\nContent-Length: 2\r\ncontent-length: 2\r\n\r\n{}");
+    assertRequest(HttpMethod.PUT, "/characteristics", "{}");
+  }
+
+  private void write(String s) {
+    write(bytes(s));
+  }
+
+  private void write(byte[] bytes) {
+    channel.writeInbound(Unpooled.wrappedBuffer(bytes));
+  }
+
+  private void assertRequest(HttpMethod method, String uri, String body) {
+    HapRequest request = channel.readInbound();
+    Assert.assertNotNull(request);
+    try {
+      Assert.assertEquals(method, request.getMethod());
+      Assert.assertEquals(uri, request.getUri());
+      Assert.assertEquals(body, new String(request.getBody(), StandardCharsets.US_ASCII));
+    } finally {
+      request.release();
+    }
+  }
+
+  private void assertRejected() {
+    Assert.assertNull(channel.readInbound());
+    ByteBuf response = channel.readOutbound();
+    Assert.assertNotNull(response);
+    try {
+      Assert.assertTrue(
+          response.toString(StandardCharsets.US_ASCII).startsWith("HTTP/1.1 400 Bad Request\r\n"));
+    } finally {
+      response.release();
+    }
+    Assert.assertFalse(channel.isOpen());
+  }
+
+  private static String padding(int length) {
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < length) {
+      sb.append('x');
+    }
+    return sb.toString();
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.US_ASCII);
+  }
+}
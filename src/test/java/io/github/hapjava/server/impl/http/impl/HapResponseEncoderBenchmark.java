@@ -0,0 +1,162 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import io.github.hapjava.server.impl.http.HttpResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Cost of encoding a response. Compares the former path, which copied the body into a {@link
+ * FullHttpResponse}, encoded it with netty's {@link HttpResponseEncoder} and merged the encoded
+ * buffers into the first one, with {@link HapResponseEncoder}, which writes the head and the body
+ * into a single buffer of the final size. Buffers are allocated on the heap, so the bytes allocated
+ * per response show how often the body is copied. Not run by the build, run it after {@code mvn
+ * test-compile} with the test classpath:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;dependencies&gt; \
+ *   io.github.hapjava.server.impl.http.impl.HapResponseEncoderBenchmark
+ * </pre>
+ */
+public class HapResponseEncoderBenchmark {
+
+  private static final HttpVersion EVENT_VERSION = new HttpVersion("EVENT", 1, 0, true);
+  private static final int[] BODY_SIZES = {200, 4 * 1024, 200 * 1024};
+  private static final int RUNS = 200_000;
+
+  public static void main(String[] args) {
+    for (int size : BODY_SIZES) {
+      HttpResponse response = response(new byte[size]);
+      // fewer runs for large bodies, so each size takes about as long
+      int runs = Math.max(1_000, RUNS * 200 / size);
+      report("netty + copy-merge", size, runs, new AggregatingEncoder(), () -> toNetty(response));
+      report("HapResponseEncoder", size, runs, new HapResponseEncoder(), () -> response);
+    }
+  }
+
+  private static void report(
+      String name, int size, int runs, ChannelHandler encoder, Supplier<Object> message) {
+    EmbeddedChannel channel = new EmbeddedChannel(encoder);
+    channel.config().setAllocator(new HeapAllocator());
+    // the first half warms up the JIT
+    for (int i = 0; i < runs / 2; i++) {
+      encode(channel, message);
+    }
+    long allocated = allocatedBytes();
+    long start = System.nanoTime();
+    for (int i = runs / 2; i < runs; i++) {
+      encode(channel, message);
+    }
+    long nanos = System.nanoTime() - start;
+    double bytesPerResponse = (allocatedBytes() - allocated) / (double) (runs - runs / 2);
+    System.out.printf(
+        "%s, %d B body: %.0f ns, %.0f B allocated, %.1f body copies per response%n",
+        name, size, nanos / (double) (runs - runs / 2), bytesPerResponse, bytesPerResponse / size);
+    channel.finishAndReleaseAll();
+  }
+
+  private static void encode(EmbeddedChannel channel, Supplier<Object> message) {
+    channel.writeOutbound(message.get());
+    for (Object part = channel.readOutbound(); part != null; part = channel.readOutbound()) {
+      ((ByteBuf) part).release();
+    }
+  }
+
+  /** The former NettyResponseUtil.createResponse, which copied the body. */
+  private static FullHttpResponse toNetty(HttpResponse homekitResponse) {
+    FullHttpResponse response =
+        new DefaultFullHttpResponse(
+            homekitResponse.getVersion() == HttpResponse.HttpVersion.EVENT_1_0
+                ? EVENT_VERSION
+                : HttpVersion.HTTP_1_1,
+            HttpResponseStatus.valueOf(homekitResponse.getStatusCode()),
+            Unpooled.copiedBuffer(homekitResponse.getBody()));
+    homekitResponse.getHeaders().forEach((k, v) -> response.headers().add(k, v));
+    response.headers().set("Content-Length", response.content().readableBytes());
+    response.headers().set("Connection", "keep-alive");
+    return response;
+  }
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+        .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static HttpResponse response(byte[] body) {
+    Map<String, String> headers = Collections.singletonMap("Content-Type", "application/hap+json");
+    return new HttpResponse() {
+      @Override
+      public int getStatusCode() {
+        return 200;
+      }
+
+      @Override
+      public ByteBuffer getBody() {
+        return ByteBuffer.wrap(body);
+      }
+
+      @Override
+      public Map<String, String> getHeaders() {
+        return headers;
+      }
+    };
+  }
+
+  /** The former HttpResponseEncoderAggregate, which merged the encoded buffers into the first. */
+  private static class AggregatingEncoder extends HttpResponseEncoder {
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Object msg, List<Object> out)
+        throws Exception {
+      super.encode(ctx, msg, out);
+      if (out.size() > 0) {
+        Iterator<Object> i = out.iterator();
+        ByteBuf b = (ByteBuf) i.next();
+        while (i.hasNext()) {
+          ByteBuf next = (ByteBuf) i.next();
+          b.writeBytes(next);
+          next.release();
+          i.remove();
+        }
+      }
+    }
+  }
+
+  /** Allocates all buffers on the heap, where the allocations of the thread can be measured. */
+  private static class HeapAllocator extends UnpooledByteBufAllocator {
+
+    HeapAllocator() {
+      super(false);
+    }
+
+    @Override
+    public ByteBuf ioBuffer(int initialCapacity) {
+      return heapBuffer(initialCapacity);
+    }
+
+    @Override
+    public ByteBuf ioBuffer(int initialCapacity, int maxCapacity) {
+      return heapBuffer(initialCapacity, maxCapacity);
+    }
+
+    @Override
+    public ByteBuf ioBuffer() {
+      return heapBuffer();
+    }
+  }
+}
@@ -0,0 +1,220 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import io.github.hapjava.server.impl.http.DeferredHttpResponse;
+import io.github.hapjava.server.impl.http.HttpResponse;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HapResponseEncoderTest {
+
+  private static final HttpVersion EVENT_VERSION = new HttpVersion("EVENT", 1, 0, true);
+
+  @Test
+  public void testEncodesJsonResponseLikeNetty() {
+    byte[] body = "{\"characteristics\":[]}".getBytes(StandardCharsets.UTF_8);
+    HttpResponse response =
+        response(
+            200,
+            HttpResponse.HttpVersion.HTTP_1_1,
+            Collections.singletonMap("Content-type", "application/hap+json"),
+            body);
+    assertSameAsNetty(response, HttpVersion.HTTP_1_1);
+  }
+
+  @Test
+  public void testEncodesEventResponseLikeNetty() {
+    byte[] body = "{\"characteristics\":[{\"aid\":2,\"iid\":10,\"value\":1}]}".getBytes();
+    HttpResponse response =
+        response(
+            200,
+            HttpResponse.HttpVersion.EVENT_1_0,
+            Collections.singletonMap("Content-type", "application/hap+json"),
+            body);
+    assertSameAsNetty(response, EVENT_VERSION);
+  }
+
+  @Test
+  public void testEncodesEmptyResponseLikeNetty() {
+    HttpResponse response =
+        response(204, HttpResponse.HttpVersion.HTTP_1_1, Collections.emptyMap(), new byte[0]);
+    assertSameAsNetty(response, HttpVersion.HTTP_1_1);
+  }
+
+  @Test
+  public void testWritesSingleExactlySizedBuffer() {
+    EmbeddedChannel channel = new EmbeddedChannel(new HapResponseEncoder());
+    channel.writeOutbound(
+        response(
+            200,
+            HttpResponse.HttpVersion.HTTP_1_1,
+            Collections.singletonMap("Content-type", "application/pairing+tlv8"),
+            new byte[1500]));
+    Assert.assertEquals(1, channel.outboundMessages().size());
+    ByteBuf encoded = channel.readOutbound();
+    Assert.assertEquals(encoded.capacity(), encoded.readableBytes());
+    encoded.release();
+  }
+
+  @Test
+  public void testIgnoresHeadersOwnedByEncoder() {
+    Map<String, String> headers = new LinkedHashMap<>();
+    headers.put("Content-Type", "application/hap+json");
+    headers.put("content-length", "999");
+    headers.put("Connection", "close");
+    EmbeddedChannel channel = new EmbeddedChannel(new HapResponseEncoder());
+    channel.writeOutbound(response(200, HttpResponse.HttpVersion.HTTP_1_1, headers, new byte[2]));
+    ByteBuf encoded = channel.readOutbound();
+    Assert.assertEquals(
+        "HTTP/1.1 200 OK\r\nContent-Type: application/hap+json\r\nContent-Length: 2\r\n"
+            + "Connection: keep-alive\r\n\r\n\0\0",
+        encoded.toString(StandardCharsets.US_ASCII));
+    encoded.release();
+  }
+
+  @Test
+  public void testChangedHeadersAreEncodedAgain() {
+    Map<String, String> headers = new HashMap<>();
+    headers.put("Content-Type", "application/pairing+tlv8");
+    EmbeddedChannel channel = new EmbeddedChannel(new HapResponseEncoder());
+    channel.writeOutbound(response(200, HttpResponse.HttpVersion.HTTP_1_1, headers, new byte[0]));
+    ((ByteBuf) channel.readOutbound()).release();
+    // the map the cached header block was encoded from changes afterwards
+    headers.put("Content-Type", "application/octet-stream");
+    channel.writeOutbound(response(200, HttpResponse.HttpVersion.HTTP_1_1, headers, new byte[0]));
+    ByteBuf encoded = channel.readOutbound();
+    Assert.assertTrue(
+        encoded
+            .toString(StandardCharsets.US_ASCII)
+            .contains("Content-Type: application/octet-stream\r\n"));
+    encoded.release();
+    // the first header block is still cached for its own headers
+    channel.writeOutbound(
+        response(
+            200,
+            HttpResponse.HttpVersion.HTTP_1_1,
+            Collections.singletonMap("Content-Type", "application/pairing+tlv8"),
+            new byte[0]));
+    encoded = channel.readOutbound();
+    Assert.assertTrue(
+        encoded
+            .toString(StandardCharsets.US_ASCII)
+            .contains("Content-Type: application/pairing+tlv8\r\n"));
+    encoded.release();
+  }
+
+  @Test
+  public void testEncodesDeferredResponseLikeNetty() {
+    byte[] body = "{\"characteristics\":[{\"aid\":2,\"iid\":10,\"value\":1}]}".getBytes();
+    HttpResponse response =
+        deferred(
+            HttpResponse.HttpVersion.EVENT_1_0,
+            Collections.singletonMap("Content-type", "application/hap+json"),
+            body);
+    assertSameAsNetty(response, EVENT_VERSION);
+  }
+
+  @Test
+  public void testEncodesDeferredResponseLargerThanInitialBuffer() {
+    byte[] body = new byte[5000];
+    Arrays.fill(body, (byte) 'x');
+    HttpResponse response =
+        deferred(
+            HttpResponse.HttpVersion.HTTP_1_1,
+            Collections.singletonMap("Content-type", "application/hap+json"),
+            body);
+    assertSameAsNetty(response, HttpVersion.HTTP_1_1);
+  }
+
+  private void assertSameAsNetty(HttpResponse response, HttpVersion nettyVersion) {
+    EmbeddedChannel hap = new EmbeddedChannel(new HapResponseEncoder());
+    hap.writeOutbound(response);
+    ByteBuf actual = hap.readOutbound();
+
+    FullHttpResponse nettyResponse =
+        new DefaultFullHttpResponse(
+            nettyVersion,
+            HttpResponseStatus.valueOf(response.getStatusCode()),
+            Unpooled.wrappedBuffer(response.getBody()));
+    response.getHeaders().forEach((k, v) -> nettyResponse.headers().add(k, v));
+    nettyResponse.headers().set("Content-Length", nettyResponse.content().readableBytes());
+    nettyResponse.headers().set("Connection", "keep-alive");
+    EmbeddedChannel netty = new EmbeddedChannel(new HttpResponseEncoder());
+    netty.writeOutbound(nettyResponse);
+    ByteBuf expected = Unpooled.buffer();
+    for (Object part = netty.readOutbound(); part != null; part = netty.readOutbound()) {
+      expected.writeBytes((ByteBuf) part);
+      ((ByteBuf) part).release();
+    }
+
+    Assert.assertEquals(
+        expected.toString(StandardCharsets.UTF_8), actual.toString(StandardCharsets.UTF_8));
+    actual.release();
+  }
+
+  private static HttpResponse response(
+      int status, HttpResponse.HttpVersion version, Map<String, String> headers, byte[] body) {
+    return new HttpResponse() {
+      @Override
+      public int getStatusCode() {
+        return status;
+      }
+
+      @Override
+      public ByteBuffer getBody() {
+        return ByteBuffer.wrap(body);
+      }
+
+      @Override
+      public HttpVersion getVersion() {
+        return version;
+      }
+
+      @Override
+      public Map<String, String> getHeaders() {
+        return headers;
+      }
+    };
+  }
+
+  private static HttpResponse deferred(
+      HttpResponse.HttpVersion version, Map<String, String> headers, byte[] body) {
+    return new DeferredHttpResponse() {
+      @Override
+      public int getStatusCode() {
+        return 200;
+      }
+
+      @Override
+      public void writeBody(OutputStream out) throws IOException {
+        out.write(body);
+      }
+
+      @Override
+      public HttpVersion getVersion() {
+        return version;
+      }
+
+      @Override
+      public Map<String, String> getHeaders() {
+        return headers;
+      }
+    };
+  }
+}
@@ -0,0 +1,31 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import io.github.hapjava.server.impl.HomekitRuntime;
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import org.junit.Test;
+
+public class HomekitHttpServerTest {
+
+  @Test
+  public void testStopShutsDownOwnedRuntime() {
+    HomekitRuntime runtime = mock(HomekitRuntime.class);
+    HomekitHttpServer server =
+        new HomekitHttpServer(new CompletableFuture<InetAddress>(), 0, runtime, true);
+    server.stop();
+    verify(runtime).shutdown();
+  }
+
+  @Test
+  public void testStopLeavesSharedRuntimeRunning() {
+    HomekitRuntime runtime = mock(HomekitRuntime.class);
+    HomekitHttpServer server =
+        new HomekitHttpServer(new CompletableFuture<InetAddress>(), 0, runtime);
+    server.stop();
+    verify(runtime, never()).shutdown();
+  }
+}
@@ -0,0 +1,325 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import djb.Curve25519;
+import io.github.hapjava.server.HomekitAuthInfo;
+import io.github.hapjava.server.impl.HomekitRegistry;
+import io.github.hapjava.server.impl.HomekitRuntime;
+import io.github.hapjava.server.impl.HomekitUtils;
+import io.github.hapjava.server.impl.connections.HomekitClientConnectionFactoryImpl;
+import io.github.hapjava.server.impl.connections.SubscriptionManager;
+import io.github.hapjava.server.impl.crypto.ChachaEncoder;
+import io.github.hapjava.server.impl.crypto.EdsaSigner;
+import io.github.hapjava.server.impl.crypto.HapSessionCipher;
+import io.github.hapjava.server.impl.http.HomekitClientConnection;
+import io.github.hapjava.server.impl.http.HttpRequest;
+import io.github.hapjava.server.impl.http.HttpResponse;
+import io.github.hapjava.server.impl.jmdns.JmdnsHomekitAdvertiser;
+import io.github.hapjava.server.impl.pairing.MessageType;
+import io.github.hapjava.server.impl.pairing.TypeLengthValueUtils;
+import io.github.hapjava.server.impl.pairing.TypeLengthValueUtils.DecodeResult;
+import io.github.hapjava.server.impl.pairing.TypeLengthValueUtils.Encoder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
+import org.bouncycastle.crypto.params.HKDFParameters;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HomekitLocalServerTest {
+
+  private static final String MAC = "AA:BB:CC:DD:EE:FF";
+  private static final byte[] CONTROLLER = bytes("controller");
+
+  private final Random random = new Random(5);
+  private HomekitRuntime runtime;
+  private HomekitLocalServer server;
+
+  @Before
+  public void setup() {
+    runtime = new HomekitRuntime();
+    server = new HomekitLocalServer(runtime);
+  }
+
+  @After
+  public void teardown() {
+    server.stop();
+    runtime.shutdown();
+  }
+
+  @Test
+  public void testPipelinedRequestsAreAnsweredInOrder() throws Exception {
+    server.start((address, callback) -> new EchoConnection(address)).get(5, TimeUnit.SECONDS);
+    StringBuilder received = new StringBuilder();
+    CompletableFuture<String> responses = new CompletableFuture<>();
+    Channel channel =
+        server
+            .connect(
+                new SimpleChannelInboundHandler<ByteBuf>() {
+                  @Override
+                  protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) {
+                    received.append(msg.toString(StandardCharsets.US_ASCII));
+                    if (received.toString().endsWith("PUT /characteristics {\"a\":1}")) {
+                      responses.complete(received.toString());
+                    }
+                  }
+                })
+            .sync()
+            .channel();
+    String body = "{\"a\":1}";
+    channel.writeAndFlush(
+        Unpooled.copiedBuffer(
+            "GET /accessories HTTP/1.1\r\nHost: bridge\r\n\r\n"
+                + "PUT /characteristics HTTP/1.1\r\ncontent-length: "
+                + body.length()
+                + "\r\n\r\n"
+                + body,
+            StandardCharsets.US_ASCII));
+
+    String result = responses.get(5, TimeUnit.SECONDS);
+    Assert.assertTrue(result.startsWith("HTTP/1.1 200 OK\r\n"));
+    int first = result.indexOf("GET /accessories");
+    Assert.assertTrue(first > 0);
+    Assert.assertTrue(result.indexOf("PUT /characteristics", first) > first);
+    channel.close();
+  }
+
+  @Test
+  public void testEncryptedSessionAfterPairVerify() throws Exception {
+    EdsaSigner controllerSigner = new EdsaSigner(HomekitUtils.generateKey());
+    HomekitAuthInfo authInfo = mock(HomekitAuthInfo.class);
+    when(authInfo.getMac()).thenReturn(MAC);
+    when(authInfo.getPrivateKey()).thenReturn(HomekitUtils.generateKey());
+    when(authInfo.getUserPublicKey(MAC + "controller")).thenReturn(controllerSigner.getPublicKey());
+    server
+        .start(
+            new HomekitClientConnectionFactoryImpl(
+                authInfo,
+                new HomekitRegistry("Local"),
+                new SubscriptionManager(),
+                mock(JmdnsHomekitAdvertiser.class)))
+        .get(5, TimeUnit.SECONDS);
+    Received received = new Received();
+    Channel channel = server.connect(received).sync().channel();
+
+    // pair-verify, in plaintext
+    byte[] privateKey = randomBytes(32);
+    byte[] publicKey = new byte[32];
+    Curve25519.keygen(publicKey, null, privateKey);
+    Encoder m1 = TypeLengthValueUtils.getEncoder();
+    m1.add(MessageType.STATE, (short) 1);
+    m1.add(MessageType.PUBLIC_KEY, publicKey);
+    writePairVerify(channel, m1);
+    DecodeResult m2 = TypeLengthValueUtils.decode(received.readPlaintextBody());
+    byte[] accessoryPublicKey = m2.getBytes(MessageType.PUBLIC_KEY);
+    byte[] sharedSecret = new byte[32];
+    Curve25519.curve(sharedSecret, privateKey, accessoryPublicKey);
+
+    byte[] key =
+        hkdf(sharedSecret, bytes("Pair-Verify-Encrypt-Salt"), "Pair-Verify-Encrypt-Info", 32);
+    Encoder plaintext = TypeLengthValueUtils.getEncoder();
+    plaintext.add(MessageType.USERNAME, CONTROLLER);
+    plaintext.add(
+        MessageType.SIGNATURE,
+        controllerSigner.sign(join(join(publicKey, CONTROLLER), accessoryPublicKey)));
+    Encoder m3 = TypeLengthValueUtils.getEncoder();
+    m3.add(MessageType.STATE, (short) 3);
+    m3.add(
+        MessageType.ENCRYPTED_DATA,
+        new ChachaEncoder(key, bytes("PV-Msg03")).encodeCiphertext(plaintext.toByteArray()));
+    writePairVerify(channel, m3);
+    DecodeResult m4 = TypeLengthValueUtils.decode(received.readPlaintextBody());
+    Assert.assertEquals(4, m4.getByte(MessageType.STATE));
+    Assert.assertFalse(m4.contains(MessageType.ERROR));
+
+    // from now on, both directions are encrypted by the binary handler
+    HapSessionCipher encrypt =
+        new HapSessionCipher(
+            hkdf(sharedSecret, bytes("Control-Salt"), "Control-Write-Encryption-Key", 32), true);
+    HapSessionCipher decrypt =
+        new HapSessionCipher(
+            hkdf(sharedSecret, bytes("Control-Salt"), "Control-Read-Encryption-Key", 32), false);
+    for (int i = 0; i < 2; i++) {
+      byte[] request = bytes("GET /accessories HTTP/1.1\r\nHost: bridge\r\n\r\n");
+      byte[] frame = new byte[request.length + 18];
+      encrypt.encrypt(request, 0, request.length, frame, 0);
+      channel.writeAndFlush(Unpooled.wrappedBuffer(frame));
+
+      String response = received.readEncryptedResponse(decrypt);
+      Assert.assertTrue(response, response.startsWith("HTTP/1.1 200 OK\r\n"));
+      Assert.assertTrue(response, response.endsWith("{\"accessories\":[]}"));
+    }
+    channel.close();
+  }
+
+  private static void writePairVerify(Channel channel, Encoder encoder) {
+    byte[] body = encoder.toByteArray();
+    channel.writeAndFlush(
+        Unpooled.wrappedBuffer(
+            bytes("POST /pair-verify HTTP/1.1\r\nContent-Length: " + body.length + "\r\n\r\n"),
+            body));
+  }
+
+  private static byte[] hkdf(byte[] secret, byte[] salt, String info, int length) {
+    HKDFBytesGenerator hkdf = new HKDFBytesGenerator(new SHA512Digest());
+    hkdf.init(new HKDFParameters(secret, salt, bytes(info)));
+    byte[] key = new byte[length];
+    hkdf.generateBytes(key, 0, length);
+    return key;
+  }
+
+  private static byte[] join(byte[] a, byte[] b) {
+    byte[] joined = Arrays.copyOf(a, a.length + b.length);
+    System.arraycopy(b, 0, joined, a.length, b.length);
+    return joined;
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  /** The bytes received by the controller, read in order. */
+  private static class Received extends SimpleChannelInboundHandler<ByteBuf> {
+
+    private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+    private byte[] chunk = new byte[0];
+    private int position;
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) {
+      byte[] bytes = new byte[msg.readableBytes()];
+      msg.readBytes(bytes);
+      chunks.add(bytes);
+    }
+
+    byte[] read(int length) throws InterruptedException {
+      byte[] bytes = new byte[length];
+      for (int i = 0; i < length; i++) {
+        while (position == chunk.length) {
+          chunk = chunks.poll(5, TimeUnit.SECONDS);
+          Assert.assertNotNull("no response", chunk);
+          position = 0;
+        }
+        bytes[i] = chunk[position++];
+      }
+      return bytes;
+    }
+
+    /** Reads a plaintext response, returning its body. */
+    byte[] readPlaintextBody() throws InterruptedException {
+      StringBuilder head = new StringBuilder();
+      while (head.indexOf("\r\n\r\n") < 0) {
+        head.append((char) read(1)[0]);
+      }
+      Assert.assertTrue(head.toString(), head.toString().startsWith("HTTP/1.1 200 OK\r\n"));
+      return read(contentLength(head.toString()));
+    }
+
+    /** Reads and decrypts the frames of a response, returning the response. */
+    String readEncryptedResponse(HapSessionCipher cipher) throws Exception {
+      StringBuilder response = new StringBuilder();
+      int end = -1;
+      while (end < 0 || response.length() < end) {
+        byte[] prefix = read(HapSessionCipher.LENGTH_PREFIX);
+        int length = (prefix[0] & 0xFF) | (prefix[1] & 0xFF) << 8;
+        byte[] frame = join(prefix, read(length + HapSessionCipher.TAG_LENGTH));
+        cipher.decrypt(frame, HapSessionCipher.LENGTH_PREFIX, length, frame, 0);
+        response.append(new String(frame, 0, length, StandardCharsets.UTF_8));
+        int headEnd = response.indexOf("\r\n\r\n");
+        if (headEnd >= 0) {
+          end = headEnd + 4 + contentLength(response.substring(0, headEnd + 4));
+        }
+      }
+      return response.toString();
+    }
+
+    private static int contentLength(String head) {
+      for (String line : head.split("\r\n")) {
+        if (line.toLowerCase(Locale.ROOT).startsWith("content-length:")) {
+          return Integer.parseInt(line.substring("content-length:".length()).trim());
+        }
+      }
+      return 0;
+    }
+  }
+
+  /** Answers each request with its method, uri and body. */
+  private static class EchoConnection implements HomekitClientConnection {
+
+    private final SocketAddress remoteAddress;
+
+    EchoConnection(SocketAddress remoteAddress) {
+      this.remoteAddress = remoteAddress;
+    }
+
+    @Override
+    public CompletableFuture<HttpResponse> handleRequest(HttpRequest request) {
+      ByteBuffer body = request.getBodyBuffer();
+      byte[] content = new byte[body.remaining()];
+      body.get(content);
+      String echo =
+          request.getMethod()
+              + " "
+              + request.getUri()
+              + (content.length > 0 ? " " + new String(content, StandardCharsets.UTF_8) : "");
+      ByteBuffer response = ByteBuffer.wrap(echo.getBytes(StandardCharsets.UTF_8));
+      return CompletableFuture.completedFuture(
+          new HttpResponse() {
+            @Override
+            public int getStatusCode() {
+              return 200;
+            }
+
+            @Override
+            public ByteBuffer getBody() {
+              return response.duplicate();
+            }
+          });
+    }
+
+    @Override
+    public ByteBuf decryptRequest(ByteBuf frame) {
+      return frame;
+    }
+
+    @Override
+    public void encryptResponse(ByteBuf plaintext, ByteBuf out) {
+      out.writeBytes(plaintext);
+    }
+
+    @Override
+    public void close() {}
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+      return remoteAddress;
+    }
+
+    @Override
+    public void outOfBand(HttpResponse message) {}
+  }
+}
@@ -0,0 +1,93 @@
+package io.github.hapjava.server.impl.http.impl;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.github.hapjava.server.HomekitMetrics;
+import io.github.hapjava.server.impl.HomekitRuntime;
+import io.github.hapjava.server.impl.http.HomekitClientConnection;
+import io.github.hapjava.server.impl.http.HomekitClientConnectionFactory;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.ImmediateEventExecutor;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ServerInitializerTest {
+
+  private final ChannelGroup allChannels = new DefaultChannelGroup(ImmediateEventExecutor.INSTANCE);
+  private HomekitClientConnectionFactory factory;
+  private HomekitRuntime runtime;
+
+  @Before
+  public void setup() {
+    factory = mock(HomekitClientConnectionFactory.class);
+    when(factory.getMetrics()).thenReturn(HomekitMetrics.NONE);
+    when(factory.createConnection(any(), any())).thenReturn(mock(HomekitClientConnection.class));
+    // the handlers run on the event loop of the embedded channel
+    runtime = mock(HomekitRuntime.class);
+  }
+
+  @Test
+  public void testRejectsConnectionsBeyondLimit() {
+    ServerInitializer initializer = initializer(0, 0, 2);
+    EmbeddedChannel first = new EmbeddedChannel(initializer);
+    EmbeddedChannel second = new EmbeddedChannel(initializer);
+    EmbeddedChannel rejected = new EmbeddedChannel(initializer);
+    Assert.assertTrue(first.isOpen());
+    Assert.assertTrue(second.isOpen());
+    Assert.assertFalse(rejected.isOpen());
+
+    // a closed connection frees its slot, the rejected one did not take one
+    first.close();
+    EmbeddedChannel third = new EmbeddedChannel(initializer);
+    Assert.assertTrue(third.isOpen());
+    Assert.assertFalse(new EmbeddedChannel(initializer).isOpen());
+    second.close();
+    third.close();
+  }
+
+  @Test
+  public void testAcceptsAnyNumberWithoutLimit() {
+    ServerInitializer initializer = initializer(0, 0, 0);
+    List<EmbeddedChannel> channels = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      channels.add(new EmbeddedChannel(initializer));
+    }
+    for (EmbeddedChannel channel : channels) {
+      Assert.assertTrue(channel.isOpen());
+      channel.close();
+    }
+  }
+
+  @Test
+  public void testClosesIdleConnection() {
+    EmbeddedChannel channel = new EmbeddedChannel(initializer(0, 30, 0));
+    IdleStateHandler idleStateHandler = channel.pipeline().get(IdleStateHandler.class);
+    Assert.assertNotNull(idleStateHandler);
+    Assert.assertEquals(0, idleStateHandler.getReaderIdleTimeInMillis());
+    Assert.assertEquals(30000, idleStateHandler.getAllIdleTimeInMillis());
+
+    channel.pipeline().fireUserEventTriggered(IdleStateEvent.FIRST_ALL_IDLE_STATE_EVENT);
+    Assert.assertFalse(channel.isOpen());
+  }
+
+  @Test
+  public void testNoIdleStateHandlerWithoutTimeouts() {
+    EmbeddedChannel channel = new EmbeddedChannel(initializer(0, 0, 0));
+    Assert.assertNull(channel.pipeline().get(IdleStateHandler.class));
+    channel.close();
+  }
+
+  private ServerInitializer initializer(int readTimeout, int idleTimeout, int maxConnections) {
+    return new ServerInitializer(
+        factory, allChannels, runtime, readTimeout, idleTimeout, maxConnections, new Diagnostics());
+  }
+}
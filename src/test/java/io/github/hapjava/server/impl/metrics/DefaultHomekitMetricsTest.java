@@ -0,0 +1,83 @@
+package io.github.hapjava.server.impl.metrics;
+
+import io.github.hapjava.server.impl.http.HapEndpoint;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DefaultHomekitMetricsTest {
+
+  private static final SocketAddress PHONE = new InetSocketAddress("192.168.1.10", 50000);
+  private static final SocketAddress HUB = new InetSocketAddress("192.168.1.20", 50001);
+
+  private final DefaultHomekitMetrics metrics = new DefaultHomekitMetrics();
+
+  @Test
+  public void testCountsPerConnectionWhileOpen() {
+    metrics.connectionOpened(PHONE);
+    metrics.connectionOpened(HUB);
+    metrics.requestHandled(PHONE, HapEndpoint.ACCESSORIES, 200, 5_000);
+    metrics.bytesReceived(PHONE, 100);
+    metrics.bytesSent(PHONE, 2_000);
+    metrics.decrypted(PHONE, 100, 300);
+    metrics.encrypted(PHONE, 2_000, 700);
+    metrics.notificationsPending(HUB, 3);
+    metrics.notificationsPending(HUB, 1);
+
+    DefaultHomekitMetrics.ConnectionMetrics phone = metrics.getConnections().get(PHONE);
+    Assert.assertEquals(1, phone.getRequests());
+    Assert.assertEquals(100, phone.getBytesReceived());
+    Assert.assertEquals(2_000, phone.getBytesSent());
+    Assert.assertEquals(1_000, phone.getCryptoNanos());
+    Assert.assertEquals(0, phone.getMaxPendingNotifications());
+    DefaultHomekitMetrics.ConnectionMetrics hub = metrics.getConnections().get(HUB);
+    Assert.assertEquals(0, hub.getRequests());
+    Assert.assertEquals(3, hub.getMaxPendingNotifications());
+
+    metrics.connectionClosed(PHONE);
+    Assert.assertNull(metrics.getConnections().get(PHONE));
+    Assert.assertEquals(1, metrics.getConnections().size());
+    // the totals of the root keep the closed connection
+    Assert.assertEquals(100, metrics.getBytesReceived());
+    Assert.assertEquals(2_000, metrics.getBytesSent());
+    Assert.assertEquals(1, metrics.getRequests(HapEndpoint.ACCESSORIES).getCount());
+  }
+
+  @Test
+  public void testMeasurementsOfUnknownConnectionOnlyCountTowardsTotals() {
+    metrics.requestHandled(PHONE, HapEndpoint.CHARACTERISTICS_GET, 200, 1_000);
+    metrics.bytesSent(PHONE, 10);
+    Assert.assertTrue(metrics.getConnections().isEmpty());
+    Assert.assertEquals(1, metrics.getRequests(HapEndpoint.CHARACTERISTICS_GET).getCount());
+    Assert.assertEquals(10, metrics.getBytesSent());
+  }
+
+  @Test
+  public void testRequestsByEndpointAndErrors() {
+    metrics.requestHandled(PHONE, HapEndpoint.CHARACTERISTICS_PUT, 204, 1_000);
+    metrics.requestHandled(PHONE, HapEndpoint.CHARACTERISTICS_PUT, 207, 2_000);
+    metrics.requestHandled(PHONE, HapEndpoint.UNKNOWN, 404, 1_000);
+    metrics.requestHandled(PHONE, HapEndpoint.ACCESSORIES, 500, 1_000);
+
+    Assert.assertEquals(2, metrics.getRequests(HapEndpoint.CHARACTERISTICS_PUT).getCount());
+    Assert.assertEquals(
+        3_000, metrics.getRequests(HapEndpoint.CHARACTERISTICS_PUT).getTotalNanos());
+    Assert.assertEquals(0, metrics.getRequests(HapEndpoint.PAIR_VERIFY).getCount());
+    Assert.assertEquals(1, metrics.getErrors());
+  }
+
+  @Test
+  public void testHandshakesAndEvents() {
+    metrics.handshakeHandled(PHONE, HapEndpoint.PAIR_VERIFY, 2_000, 50_000);
+    metrics.handshakeRejected(HUB);
+    metrics.eventPublished(2, 10, 3);
+    metrics.eventPublished(2, 11, 2);
+
+    Assert.assertEquals(1, metrics.getHandshakeQueue().getCount());
+    Assert.assertEquals(50_000, metrics.getHandshakes().getTotalNanos());
+    Assert.assertEquals(1, metrics.getHandshakesRejected());
+    Assert.assertEquals(2, metrics.getEventsPublished());
+    Assert.assertEquals(5, metrics.getEventsFannedOut());
+  }
+}
@@ -0,0 +1,76 @@
+package io.github.hapjava.server.impl.metrics;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  private final LatencyHistogram histogram = new LatencyHistogram();
+
+  @Test
+  public void testEmpty() {
+    Assert.assertEquals(0, histogram.getCount());
+    Assert.assertEquals(0, histogram.getMeanNanos());
+    Assert.assertEquals(0, histogram.getPercentileNanos(50));
+    Assert.assertEquals(0, histogram.getPercentileNanos(100));
+  }
+
+  @Test
+  public void testBucketBoundaries() {
+    histogram.record(1_999); // 1us, in [1, 2)
+    histogram.record(2_000); // 2us, in [2, 4)
+    histogram.record(3_999); // 3us, in [2, 4)
+    histogram.record(4_000); // 4us, in [4, 8)
+    histogram.record(100_000); // 100us, in [64, 128)
+
+    Assert.assertEquals(5, histogram.getCount());
+    Assert.assertEquals(2_000, histogram.getPercentileNanos(20));
+    Assert.assertEquals(4_000, histogram.getPercentileNanos(40));
+    Assert.assertEquals(4_000, histogram.getPercentileNanos(60));
+    Assert.assertEquals(8_000, histogram.getPercentileNanos(80));
+    // capped by the maximum, below the upper bound of its bucket
+    Assert.assertEquals(100_000, histogram.getPercentileNanos(100));
+  }
+
+  @Test
+  public void testSubMicrosecondDurations() {
+    histogram.record(0);
+    histogram.record(999);
+    Assert.assertEquals(999, histogram.getPercentileNanos(0));
+    Assert.assertEquals(999, histogram.getPercentileNanos(100));
+    histogram.record(1_000);
+    Assert.assertEquals(1_000, histogram.getPercentileNanos(100));
+  }
+
+  @Test
+  public void testPercentiles() {
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(TimeUnit.MICROSECONDS.toNanos(i));
+    }
+    // 1-63us in the buckets up to [32, 64), 64-100us in [64, 128)
+    Assert.assertEquals(TimeUnit.MICROSECONDS.toNanos(64), histogram.getPercentileNanos(50));
+    Assert.assertEquals(TimeUnit.MICROSECONDS.toNanos(64), histogram.getPercentileNanos(63));
+    Assert.assertEquals(TimeUnit.MICROSECONDS.toNanos(100), histogram.getPercentileNanos(64));
+    Assert.assertEquals(TimeUnit.MICROSECONDS.toNanos(100), histogram.getPercentileNanos(99));
+    Assert.assertEquals(TimeUnit.MICROSECONDS.toNanos(100), histogram.getMaxNanos());
+    Assert.assertEquals(TimeUnit.MICROSECONDS.toNanos(5050) / 100, histogram.getMeanNanos());
+  }
+
+  @Test
+  public void testLongDurationsFallIntoLastBucket() {
+    long hours = TimeUnit.HOURS.toNanos(2);
+    histogram.record(1_000);
+    histogram.record(hours);
+    Assert.assertEquals(hours, histogram.getPercentileNanos(100));
+    Assert.assertEquals(hours, histogram.getMaxNanos());
+  }
+
+  @Test
+  public void testNegativeDurationCountsAsZero() {
+    histogram.record(-5);
+    Assert.assertEquals(1, histogram.getCount());
+    Assert.assertEquals(0, histogram.getTotalNanos());
+    Assert.assertEquals(0, histogram.getPercentileNanos(100));
+  }
+}
@@ -0,0 +1,40 @@
+package io.github.hapjava.server.impl.pairing;
+
+import java.math.BigInteger;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FixedBaseExponentiationTest {
+
+  private final Random random = new Random(7);
+  private final BigInteger modulus = BigInteger.probablePrime(1024, random);
+  private final BigInteger base = BigInteger.valueOf(5);
+
+  @Test
+  public void testMatchesModPow() {
+    for (int window : new int[] {1, 3, 6, 8}) {
+      FixedBaseExponentiation powers = new FixedBaseExponentiation(base, modulus, window);
+      for (int i = 0; i < 20; i++) {
+        BigInteger exponent = new BigInteger(1024, random);
+        Assert.assertEquals(base.modPow(exponent, modulus), powers.pow(exponent));
+      }
+    }
+  }
+
+  @Test
+  public void testEdgeExponents() {
+    FixedBaseExponentiation powers = new FixedBaseExponentiation(base, modulus);
+    BigInteger[] exponents = {
+      BigInteger.ZERO,
+      BigInteger.ONE,
+      modulus.subtract(BigInteger.ONE),
+      BigInteger.ONE.shiftLeft(1024).subtract(BigInteger.ONE),
+      // longer than the table
+      BigInteger.ONE.shiftLeft(1100).add(BigInteger.TEN)
+    };
+    for (BigInteger exponent : exponents) {
+      Assert.assertEquals(base.modPow(exponent, modulus), powers.pow(exponent));
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package io.github.hapjava.server.impl.pairing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KeyPoolTest {
+
+  private static final long QUIET_NANOS = TimeUnit.MILLISECONDS.toNanos(KeyPool.QUIET_MILLIS);
+
+  private final AtomicInteger generated = new AtomicInteger();
+  // the refills run when the test advances the clock
+  private final List<Scheduled> scheduled = new ArrayList<>();
+  private long now;
+
+  @Test
+  public void testFillsOnceQuiet() {
+    KeyPool<Integer> pool = pool(4);
+    advance(QUIET_NANOS - 1);
+    Assert.assertEquals(0, pool.size());
+    advance(1);
+    Assert.assertEquals(4, pool.size());
+  }
+
+  @Test
+  public void testHandsOutEachItemOnce() {
+    KeyPool<Integer> pool = pool(4);
+    advance(QUIET_NANOS);
+    Set<Integer> taken = new HashSet<>();
+    for (int i = 0; i < 10; i++) {
+      Assert.assertTrue(taken.add(pool.take()));
+    }
+    // the stock is used before generating on demand
+    Assert.assertTrue(taken.containsAll(Arrays.asList(1, 2, 3, 4)));
+  }
+
+  @Test
+  public void testRefillsWhenQuiet() {
+    KeyPool<Integer> pool = pool(4);
+    advance(QUIET_NANOS);
+    pool.take();
+    pool.take();
+    Assert.assertEquals(2, pool.size());
+
+    // taking again restarts the quiet period
+    advance(QUIET_NANOS / 2);
+    pool.take();
+    advance(QUIET_NANOS / 2);
+    Assert.assertEquals(1, pool.size());
+    advance(QUIET_NANOS / 2);
+    Assert.assertEquals(4, pool.size());
+    Assert.assertEquals(7, generated.get());
+  }
+
+  @Test
+  public void testFillsOnCallingThread() {
+    KeyPool<Integer> pool = pool(4);
+    pool.fill();
+    Assert.assertEquals(4, pool.size());
+    Assert.assertEquals(1, (int) pool.take());
+  }
+
+  @Test
+  public void testWithoutStock() {
+    KeyPool<Integer> pool = pool(0);
+    Assert.assertEquals(1, (int) pool.take());
+    Assert.assertEquals(0, pool.size());
+    Assert.assertTrue(scheduled.isEmpty());
+  }
+
+  private KeyPool<Integer> pool(int capacity) {
+    return new KeyPool<>(
+        "test",
+        capacity,
+        generated::incrementAndGet,
+        () -> now,
+        (task, delayNanos) -> scheduled.add(new Scheduled(task, now + delayNanos)));
+  }
+
+  /** Moves the clock forward, running the refills that become due. */
+  private void advance(long nanos) {
+    now += nanos;
+    Scheduled due;
+    while ((due = nextDue()) != null) {
+      scheduled.remove(due);
+      due.task.run();
+    }
+  }
+
+  private Scheduled nextDue() {
+    for (Scheduled task : scheduled) {
+      if (task.dueNanos <= now) {
+        return task;
+      }
+    }
+    return null;
+  }
+
+  private static class Scheduled {
+    final Runnable task;
+    final long dueNanos;
+
+    Scheduled(Runnable task, long dueNanos) {
+      this.task = task;
+      this.dueNanos = dueNanos;
+    }
+  }
+}
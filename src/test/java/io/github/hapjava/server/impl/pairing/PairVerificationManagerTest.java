@@ -0,0 +1,241 @@
+package io.github.hapjava.server.impl.pairing;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import djb.Curve25519;
+import io.github.hapjava.server.HomekitAuthInfo;
+import io.github.hapjava.server.impl.HomekitRegistry;
+import io.github.hapjava.server.impl.HomekitUtils;
+import io.github.hapjava.server.impl.crypto.ChachaDecoder;
+import io.github.hapjava.server.impl.crypto.ChachaEncoder;
+import io.github.hapjava.server.impl.crypto.EdsaSigner;
+import io.github.hapjava.server.impl.http.HttpRequest;
+import io.github.hapjava.server.impl.http.HttpResponse;
+import io.github.hapjava.server.impl.pairing.TypeLengthValueUtils.DecodeResult;
+import io.github.hapjava.server.impl.pairing.TypeLengthValueUtils.Encoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.generators.HKDFBytesGenerator;
+import org.bouncycastle.crypto.params.HKDFParameters;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Plays the controller of pair-verify and pair-resume. */
+public class PairVerificationManagerTest {
+
+  private static final String MAC = "AA:BB:CC:DD:EE:FF";
+  private static final byte[] CONTROLLER = "controller".getBytes(StandardCharsets.UTF_8);
+
+  private final Random random = new Random(3);
+  private final PairResumeCache resumeCache = new PairResumeCache();
+  private HomekitAuthInfo authInfo;
+  private HomekitRegistry registry;
+  private EdsaSigner controllerSigner;
+
+  @Before
+  public void setUp() throws Exception {
+    controllerSigner = new EdsaSigner(HomekitUtils.generateKey());
+    authInfo = mock(HomekitAuthInfo.class);
+    registry = mock(HomekitRegistry.class);
+    when(authInfo.getMac()).thenReturn(MAC);
+    when(authInfo.getPrivateKey()).thenReturn(HomekitUtils.generateKey());
+    when(authInfo.getUserPublicKey(MAC + "controller")).thenReturn(controllerSigner.getPublicKey());
+  }
+
+  @Test
+  public void testResumesVerifiedSession() throws Exception {
+    byte[] sharedSecret = verify();
+    byte[] sessionId =
+        hkdf(
+            sharedSecret,
+            "Pair-Verify-ResumeSessionID-Salt".getBytes(StandardCharsets.UTF_8),
+            "Pair-Verify-ResumeSessionID-Info",
+            8);
+
+    byte[] publicKey = new byte[32];
+    Curve25519.keygen(publicKey, null, randomBytes(32));
+    HttpResponse response = newManager().handle(resumeRequest(sharedSecret, sessionId, publicKey));
+
+    Assert.assertTrue(response instanceof UpgradeResponse);
+    DecodeResult d = TypeLengthValueUtils.decode(body(response));
+    Assert.assertEquals(2, d.getByte(MessageType.STATE));
+    byte[] newSessionId = d.getBytes(MessageType.SESSION_ID);
+    byte[] salt = join(publicKey, newSessionId);
+    new ChachaDecoder(
+            hkdf(sharedSecret, salt, "Pair-Resume-Response-Info", 32),
+            "PR-Msg02".getBytes(StandardCharsets.UTF_8))
+        .decodeCiphertext(d.getBytes(MessageType.ENCRYPTED_DATA), new byte[0]);
+    byte[] newSecret = hkdf(sharedSecret, salt, "Pair-Resume-Shared-Secret-Info", 32);
+    Assert.assertArrayEquals(
+        hkdf(newSecret, bytes("Control-Salt"), "Control-Write-Encryption-Key", 32),
+        toArray(((UpgradeResponse) response).getReadKey()));
+    Assert.assertArrayEquals(
+        hkdf(newSecret, bytes("Control-Salt"), "Control-Read-Encryption-Key", 32),
+        toArray(((UpgradeResponse) response).getWriteKey()));
+
+    // the resumed session can be resumed in turn, but only once
+    Assert.assertTrue(
+        newManager().handle(resumeRequest(newSecret, newSessionId, publicKey))
+            instanceof UpgradeResponse);
+    Assert.assertFalse(
+        newManager().handle(resumeRequest(newSecret, newSessionId, publicKey))
+            instanceof UpgradeResponse);
+  }
+
+  @Test
+  public void testFallsBackToPairVerifyForUnknownSession() throws Exception {
+    byte[] publicKey = new byte[32];
+    Curve25519.keygen(publicKey, null, randomBytes(32));
+    HttpResponse response =
+        newManager().handle(resumeRequest(randomBytes(32), randomBytes(8), publicKey));
+
+    Assert.assertFalse(response instanceof UpgradeResponse);
+    DecodeResult d = TypeLengthValueUtils.decode(body(response));
+    Assert.assertEquals(2, d.getByte(MessageType.STATE));
+    Assert.assertEquals(32, d.getLength(MessageType.PUBLIC_KEY));
+  }
+
+  @Test
+  public void testDoesNotResumeRemovedPairing() throws Exception {
+    byte[] sharedSecret = verify();
+    byte[] sessionId =
+        hkdf(
+            sharedSecret,
+            bytes("Pair-Verify-ResumeSessionID-Salt"),
+            "Pair-Verify-ResumeSessionID-Info",
+            8);
+    when(authInfo.getUserPublicKey(MAC + "controller")).thenReturn(null);
+
+    byte[] publicKey = new byte[32];
+    Curve25519.keygen(publicKey, null, randomBytes(32));
+    Assert.assertFalse(
+        newManager().handle(resumeRequest(sharedSecret, sessionId, publicKey))
+            instanceof UpgradeResponse);
+  }
+
+  @Test
+  public void testFallsBackToPairVerifyForInvalidTagLength() throws Exception {
+    byte[] sharedSecret = verify();
+    byte[] sessionId =
+        hkdf(
+            sharedSecret,
+            bytes("Pair-Verify-ResumeSessionID-Salt"),
+            "Pair-Verify-ResumeSessionID-Info",
+            8);
+    byte[] publicKey = new byte[32];
+    Curve25519.keygen(publicKey, null, randomBytes(32));
+
+    // a truncated tag, and a valid tag followed by extra bytes
+    for (int tagLength : new int[] {0, 8, 15, 17}) {
+      HttpResponse response =
+          newManager().handle(resumeRequest(sharedSecret, sessionId, publicKey, tagLength));
+      Assert.assertFalse(response instanceof UpgradeResponse);
+      DecodeResult d = TypeLengthValueUtils.decode(body(response));
+      Assert.assertEquals(2, d.getByte(MessageType.STATE));
+      Assert.assertEquals(32, d.getLength(MessageType.PUBLIC_KEY));
+    }
+    // the rejected requests leave the session to be resumed
+    Assert.assertTrue(
+        newManager().handle(resumeRequest(sharedSecret, sessionId, publicKey))
+            instanceof UpgradeResponse);
+  }
+
+  /** Runs a full pair-verify, returning the shared secret. */
+  private byte[] verify() throws Exception {
+    PairVerificationManager manager = newManager();
+    byte[] privateKey = randomBytes(32);
+    byte[] publicKey = new byte[32];
+    Curve25519.keygen(publicKey, null, privateKey);
+    Encoder m1 = TypeLengthValueUtils.getEncoder();
+    m1.add(MessageType.STATE, (short) 1);
+    m1.add(MessageType.PUBLIC_KEY, publicKey);
+    DecodeResult m2 = TypeLengthValueUtils.decode(body(manager.handle(request(m1))));
+
+    byte[] accessoryPublicKey = m2.getBytes(MessageType.PUBLIC_KEY);
+    byte[] sharedSecret = new byte[32];
+    Curve25519.curve(sharedSecret, privateKey, accessoryPublicKey);
+    byte[] key =
+        hkdf(sharedSecret, bytes("Pair-Verify-Encrypt-Salt"), "Pair-Verify-Encrypt-Info", 32);
+    Encoder plaintext = TypeLengthValueUtils.getEncoder();
+    plaintext.add(MessageType.USERNAME, CONTROLLER);
+    plaintext.add(
+        MessageType.SIGNATURE,
+        controllerSigner.sign(join(join(publicKey, CONTROLLER), accessoryPublicKey)));
+    Encoder m3 = TypeLengthValueUtils.getEncoder();
+    m3.add(MessageType.STATE, (short) 3);
+    m3.add(
+        MessageType.ENCRYPTED_DATA,
+        new ChachaEncoder(key, bytes("PV-Msg03")).encodeCiphertext(plaintext.toByteArray()));
+    Assert.assertTrue(manager.handle(request(m3)) instanceof UpgradeResponse);
+    return sharedSecret;
+  }
+
+  private HttpRequest resumeRequest(byte[] sharedSecret, byte[] sessionId, byte[] publicKey)
+      throws Exception {
+    return resumeRequest(sharedSecret, sessionId, publicKey, 16);
+  }
+
+  /** A resume request with its authentication tag truncated or padded to the given length. */
+  private HttpRequest resumeRequest(
+      byte[] sharedSecret, byte[] sessionId, byte[] publicKey, int tagLength) throws Exception {
+    byte[] requestKey =
+        hkdf(sharedSecret, join(publicKey, sessionId), "Pair-Resume-Request-Info", 32);
+    Encoder m1 = TypeLengthValueUtils.getEncoder();
+    m1.add(MessageType.STATE, (short) 1);
+    m1.add(MessageType.METHOD, (short) 6);
+    m1.add(MessageType.PUBLIC_KEY, publicKey);
+    m1.add(MessageType.SESSION_ID, sessionId);
+    byte[] authTag = new ChachaEncoder(requestKey, bytes("PR-Msg01")).encodeCiphertext(new byte[0]);
+    m1.add(MessageType.ENCRYPTED_DATA, Arrays.copyOf(authTag, tagLength));
+    return request(m1);
+  }
+
+  private PairVerificationManager newManager() {
+    return new PairVerificationManager(authInfo, registry, resumeCache);
+  }
+
+  private static HttpRequest request(Encoder encoder) {
+    HttpRequest request = mock(HttpRequest.class);
+    when(request.getBody()).thenReturn(encoder.toByteArray());
+    return request;
+  }
+
+  private static byte[] body(HttpResponse response) {
+    return toArray(response.getBody());
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  private static byte[] hkdf(byte[] secret, byte[] salt, String info, int length) {
+    HKDFBytesGenerator hkdf = new HKDFBytesGenerator(new SHA512Digest());
+    hkdf.init(new HKDFParameters(secret, salt, bytes(info)));
+    byte[] key = new byte[length];
+    hkdf.generateBytes(key, 0, length);
+    return key;
+  }
+
+  private static byte[] join(byte[] a, byte[] b) {
+    byte[] joined = Arrays.copyOf(a, a.length + b.length);
+    System.arraycopy(b, 0, joined, a.length, b.length);
+    return joined;
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,77 @@
+package io.github.hapjava.server.impl.pairing;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.nimbusds.srp6.SRP6VerifierGenerator;
+import com.nimbusds.srp6.XRoutineWithUserIdentity;
+import io.github.hapjava.server.HomekitAuthInfo;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Latency of pair-setup step 1. Compares the former step 1, which derived the verifier and computed
+ * g^b with {@link BigInteger#modPow} on every attempt, with {@link SrpHandler}, which caches the
+ * verifier and uses the precomputed powers of g. Not run by the build, run it after {@code mvn
+ * test-compile} with the test classpath:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes:&lt;dependencies&gt; \
+ *   io.github.hapjava.server.impl.pairing.SrpHandlerBenchmark
+ * </pre>
+ *
+ * Pass {@code -Drefill=true} to let the pool of ephemerals refill between attempts, as it does
+ * between pairing attempts in practice.
+ */
+public class SrpHandlerBenchmark {
+
+  private static final String PIN = "031-45-154";
+  private static final BigInteger SALT = new BigInteger(128, new Random(1));
+  private static final byte[] STEP1 = {0x06, 0x01, 0x01};
+  private static final int RUNS = 200;
+
+  public static void main(String[] args) throws Exception {
+    boolean refill = Boolean.getBoolean("refill");
+    HomekitAuthInfo authInfo = mock(HomekitAuthInfo.class);
+    when(authInfo.getPin()).thenReturn(PIN);
+    when(authInfo.getSalt()).thenReturn(SALT);
+
+    long start = System.nanoTime();
+    PairingManager.precompute();
+    System.out.printf("precompute: %.1f ms%n", (System.nanoTime() - start) / 1e6);
+
+    report(
+        "modPow, no cache",
+        () -> {
+          SRP6VerifierGenerator generator = new SRP6VerifierGenerator(SrpHandler.CONFIG);
+          generator.setXRoutine(new XRoutineWithUserIdentity());
+          BigInteger verifier = generator.generateVerifier(SALT, "Pair-Setup", PIN);
+          new HomekitSRP6ServerSession(SrpHandler.CONFIG).step1("Pair-Setup", SALT, verifier);
+        },
+        false);
+    report("SrpHandler", () -> new SrpHandler(authInfo).handle(PairSetupRequest.of(STEP1)), refill);
+  }
+
+  private static void report(String name, Step step, boolean refill) throws Exception {
+    long[] times = new long[RUNS];
+    for (int i = 0; i < RUNS; i++) {
+      if (refill) {
+        Thread.sleep(KeyPool.QUIET_MILLIS * 2);
+      }
+      long start = System.nanoTime();
+      step.run();
+      times[i] = System.nanoTime() - start;
+    }
+    // the first half warms up the JIT
+    long[] measured = Arrays.copyOfRange(times, RUNS / 2, RUNS);
+    Arrays.sort(measured);
+    System.out.printf(
+        "%s: median %.2f ms, p90 %.2f ms%n",
+        name, measured[measured.length / 2] / 1e6, measured[measured.length * 9 / 10] / 1e6);
+  }
+
+  private interface Step {
+    void run() throws Exception;
+  }
+}
@@ -0,0 +1,83 @@
+package io.github.hapjava.server.impl.pairing;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.nimbusds.srp6.SRP6ClientCredentials;
+import com.nimbusds.srp6.SRP6ClientSession;
+import com.nimbusds.srp6.XRoutineWithUserIdentity;
+import io.github.hapjava.server.HomekitAuthInfo;
+import io.github.hapjava.server.impl.pairing.TypeLengthValueUtils.DecodeResult;
+import io.github.hapjava.server.impl.pairing.TypeLengthValueUtils.Encoder;
+import java.math.BigInteger;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SrpHandlerTest {
+
+  private static final String PIN = "031-45-154";
+  private static final BigInteger SALT = new BigInteger(128, new Random(1));
+
+  @Test
+  public void testPairSetupExchange() throws Exception {
+    SrpHandler handler = new SrpHandler(authInfo(PIN, SALT));
+    DecodeResult step1 = handle(handler, new byte[] {0x06, 0x01, 0x01});
+    Assert.assertEquals(2, step1.getByte(MessageType.STATE));
+    Assert.assertEquals(SALT, step1.getBigInt(MessageType.SALT));
+
+    SRP6ClientSession client = new SRP6ClientSession();
+    client.setXRoutine(new XRoutineWithUserIdentity());
+    client.setClientEvidenceRoutine(new ClientEvidenceRoutineImpl());
+    client.setServerEvidenceRoutine(new ServerEvidenceRoutineImpl());
+    client.step1("Pair-Setup", PIN);
+    SRP6ClientCredentials credentials =
+        client.step2(SrpHandler.CONFIG, SALT, step1.getBigInt(MessageType.PUBLIC_KEY));
+
+    Encoder encoder = TypeLengthValueUtils.getEncoder();
+    encoder.add(MessageType.STATE, (short) 0x03);
+    encoder.add(MessageType.PUBLIC_KEY, credentials.A);
+    encoder.add(MessageType.PROOF, credentials.M1);
+    DecodeResult step2 = handle(handler, encoder.toByteArray());
+    Assert.assertEquals(4, step2.getByte(MessageType.STATE));
+    // throws if the proof of the accessory does not match
+    client.step3(step2.getBigInt(MessageType.PROOF));
+  }
+
+  @Test
+  public void testVerifierIsCachedPerServer() {
+    HomekitAuthInfo first = authInfo(PIN, SALT);
+    HomekitAuthInfo second = authInfo("111-22-333", SALT);
+    BigInteger verifier = SrpHandler.getVerifier(first, PIN, SALT);
+    BigInteger other = SrpHandler.getVerifier(second, "111-22-333", SALT);
+    Assert.assertNotEquals(verifier, other);
+
+    // another server does not evict the cached verifier
+    Assert.assertSame(verifier, SrpHandler.getVerifier(first, PIN, SALT));
+    Assert.assertSame(other, SrpHandler.getVerifier(second, "111-22-333", SALT));
+  }
+
+  @Test
+  public void testVerifierFollowsPinAndSalt() {
+    HomekitAuthInfo authInfo = authInfo(PIN, SALT);
+    BigInteger verifier = SrpHandler.getVerifier(authInfo, PIN, SALT);
+    Assert.assertSame(verifier, SrpHandler.getVerifier(authInfo, PIN, SALT));
+    BigInteger newPin = SrpHandler.getVerifier(authInfo, "111-22-333", SALT);
+    Assert.assertNotEquals(verifier, newPin);
+    BigInteger newSalt = SrpHandler.getVerifier(authInfo, "111-22-333", SALT.add(BigInteger.ONE));
+    Assert.assertNotEquals(newPin, newSalt);
+    Assert.assertEquals(verifier, SrpHandler.getVerifier(authInfo, PIN, SALT));
+  }
+
+  private static DecodeResult handle(SrpHandler handler, byte[] body) throws Exception {
+    PairingResponse response = (PairingResponse) handler.handle(PairSetupRequest.of(body));
+    return TypeLengthValueUtils.decode(response.getBody().array());
+  }
+
+  private static HomekitAuthInfo authInfo(String pin, BigInteger salt) {
+    HomekitAuthInfo authInfo = mock(HomekitAuthInfo.class);
+    when(authInfo.getPin()).thenReturn(pin);
+    when(authInfo.getSalt()).thenReturn(salt);
+    return authInfo;
+  }
+}